@@ -0,0 +1,74 @@
+import sqlite3
+import struct
+import sys
+
+# script to convert the mountains table of a hills database (hillsv11.db schema) into the
+# read-only columnar file that MappedHillStore memory maps, ie;
+#
+#   python dbtopeaks.py hillsv11.db hillsv11.peaks
+#
+# Put the output in the app's assets next to the database. build.gradle stores .peaks files
+# uncompressed so the app can map it straight out of the apk.
+#
+# Layout (little endian, every section starts on a 4 byte boundary);
+#
+#   "SMHP"                  magic
+#   int version             file format version (1)
+#   int dbversion           ver from the dbversions table it was made from
+#   int count               number of peaks
+#   int nameBytes           size of the name blob
+#   int lat[count]          latitude in microdegrees, sorted ascending
+#   int lon[count]          longitude in microdegrees
+#   int id[count]           _id in the mountains table (HillInfo looks the rest up by it)
+#   short height[count]     height in metres
+#   int nameOffset[count+1] start of each name in the blob; name i ends at nameOffset[i+1]
+#   byte names[nameBytes]   utf-8 names
+
+MAGIC = b"SMHP"
+FORMAT_VERSION = 1
+
+def pad(f):
+	while f.tell() % 4 != 0:
+		f.write(b"\0")
+
+def toMicro(d):
+	return int(round(float(d) * 1000000))
+
+def convert(dbfile, outfile):
+	con = sqlite3.connect(dbfile)
+	dbversion = con.execute("select ver from dbversions limit 1").fetchone()[0]
+	rows = []
+	for (id, lat, lon, height, name) in con.execute("select _id, latitude, longitude, height, name from mountains"):
+		try:
+			h = int(float(height)) if height is not None and height != '' else 0
+		except ValueError:
+			h = 0
+		h = max(-32768, min(32767, h))
+		rows.append((toMicro(lat), toMicro(lon), int(id), h, (name or "").encode("utf-8")))
+	con.close()
+	rows.sort(key=lambda r: r[0])
+
+	offsets = [0]
+	for r in rows:
+		offsets.append(offsets[-1] + len(r[4]))
+	count = len(rows)
+
+	f = open(outfile, "wb")
+	f.write(MAGIC)
+	f.write(struct.pack("<4i", FORMAT_VERSION, int(dbversion), count, offsets[-1]))
+	f.write(struct.pack("<%di" % count, *[r[0] for r in rows]))
+	f.write(struct.pack("<%di" % count, *[r[1] for r in rows]))
+	f.write(struct.pack("<%di" % count, *[r[2] for r in rows]))
+	f.write(struct.pack("<%dh" % count, *[r[3] for r in rows]))
+	pad(f)
+	f.write(struct.pack("<%di" % (count + 1), *offsets))
+	for r in rows:
+		f.write(r[4])
+	f.close()
+	return count
+
+if __name__ == "__main__":
+	if len(sys.argv) < 3:
+		print("usage: dbtopeaks.py <hills database> <output .peaks file>")
+		sys.exit(1)
+	print("wrote %d peaks" % convert(sys.argv[1], sys.argv[2]))
@@ -0,0 +1,31 @@
+import sqlite3
+import sys
+
+# script to add an R*Tree spatial index to a hills database so that the
+# bounding box lookup in HillDatabase.SetDirections doesn't have to scan
+# the whole mountains table. Run it on the database after importing the
+# csv (see how_to_update_database.txt), ie;
+#
+#   python addspatialindex.py hillsv11.db
+#
+# Each peak is stored as a degenerate box (min == max) keyed on _id, so the
+# app can join mountains_rtree back onto mountains by rowid.
+
+def addSpatialIndex(con):
+	cur = con.cursor()
+	cur.execute("drop table if exists mountains_rtree")
+	cur.execute("create virtual table mountains_rtree using rtree(id, minLat, maxLat, minLon, maxLon)")
+	cur.execute("insert into mountains_rtree (id, minLat, maxLat, minLon, maxLon) "
+				"select _id, latitude, latitude, longitude, longitude from mountains")
+	con.commit()
+	return cur.execute("select count(*) from mountains_rtree").fetchone()[0]
+
+if __name__ == "__main__":
+	if len(sys.argv) < 2:
+		print("usage: addspatialindex.py <hills database>")
+		sys.exit(1)
+	con = sqlite3.connect(sys.argv[1])
+	rows = addSpatialIndex(con)
+	con.execute("vacuum")
+	con.close()
+	print("indexed %d rows" % rows)
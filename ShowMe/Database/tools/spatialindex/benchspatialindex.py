@@ -0,0 +1,58 @@
+import random
+import sqlite3
+import sys
+import time
+
+from addspatialindex import addSpatialIndex
+
+# benchmark comparing the plain "latitude between ... and longitude between ..."
+# query against the same query joined onto mountains_rtree, for increasing
+# table sizes. Peaks are scattered uniformly over a 20x40 degree region (roughly
+# the Alps to Scandinavia) and each query is a 30km box around a random point,
+# which is what SetDirections asks for with the default distance setting.
+#
+#   python benchspatialindex.py [queries per size]
+
+SIZES = [ 20000, 100000, 500000, 1000000 ]
+MINLAT, MAXLAT = 44.0, 64.0
+MINLON, MAXLON = -10.0, 30.0
+BOXKM = 30.0
+
+def createTable(con, rows):
+	con.execute("create table mountains (_id INTEGER NOT NULL PRIMARY KEY AUTOINCREMENT, webid TEXT, "
+				"latitude NUMERIC, longitude NUMERIC, height INTEGER, name TEXT, linktype INTEGER)")
+	rnd = random.Random(rows)
+	con.executemany("insert into mountains (webid, latitude, longitude, height, name, linktype) values (?,?,?,?,?,3)",
+					((str(i), rnd.uniform(MINLAT, MAXLAT), rnd.uniform(MINLON, MAXLON), rnd.randint(0, 4800), "peak %d" % i)
+					 for i in range(rows)))
+	con.commit()
+
+def timeQueries(con, sql, boxes):
+	start = time.time()
+	found = 0
+	for box in boxes:
+		found += len(con.execute(sql % box).fetchall())
+	return (time.time() - start) * 1000.0 / len(boxes), found
+
+if __name__ == "__main__":
+	queries = int(sys.argv[1]) if len(sys.argv) > 1 else 200
+	plain = "select * from mountains where latitude between %f and %f and longitude between %f and %f"
+	rtree = ("select m.* from mountains m join mountains_rtree r on m._id = r.id "
+			 "where r.maxLat >= %f and r.minLat <= %f and r.maxLon >= %f and r.minLon <= %f")
+	print("%10s %12s %12s %10s" % ("rows", "plain ms", "rtree ms", "speedup"))
+	for rows in SIZES:
+		con = sqlite3.connect(":memory:")
+		createTable(con, rows)
+		addSpatialIndex(con)
+		rnd = random.Random(42)
+		boxes = []
+		for q in range(queries):
+			lat = rnd.uniform(MINLAT, MAXLAT)
+			lon = rnd.uniform(MINLON, MAXLON)
+			boxes.append((lat - BOXKM / 111.0, lat + BOXKM / 111.0, lon - BOXKM / 60.0, lon + BOXKM / 60.0))
+		plainms, plainfound = timeQueries(con, plain, boxes)
+		rtreems, rtreefound = timeQueries(con, rtree, boxes)
+		if plainfound != rtreefound:
+			print("mismatch: plain found %d, rtree found %d" % (plainfound, rtreefound))
+		print("%10d %12.3f %12.3f %9.1fx" % (rows, plainms, rtreems, plainms / rtreems))
+		con.close()
@@ -0,0 +1,65 @@
+package com.showmehills;
+
+/*
+ * Keeps the K highest scoring indices offered to it, as a min-heap with the weakest at the root,
+ * so choosing K out of n costs O(n log K) rather than sorting all n. The arrays are reused from
+ * one query to the next.
+ */
+class BoundedHeap {
+
+    private int[] mIndex = new int[64];
+    private double[] mScore = new double[64];
+    private int mSize;
+    private int mCapacity;
+
+    void reset(int capacity) {
+        if (capacity > mIndex.length) {
+            mIndex = new int[capacity];
+            mScore = new double[capacity];
+        }
+        mCapacity = capacity;
+        mSize = 0;
+    }
+
+    int size() {
+        return mSize;
+    }
+
+    // the i'th index held, in no particular order
+    int get(int i) {
+        return mIndex[i];
+    }
+
+    // returns false if the heap is full and score doesn't beat the weakest already in it
+    boolean offer(int index, double score) {
+        if (mSize < mCapacity) {
+            int i = mSize++;
+            // sift up
+            while (i > 0) {
+                int parent = (i - 1) >>> 1;
+                if (mScore[parent] <= score) break;
+                mIndex[i] = mIndex[parent];
+                mScore[i] = mScore[parent];
+                i = parent;
+            }
+            mIndex[i] = index;
+            mScore[i] = score;
+            return true;
+        }
+        if (mCapacity == 0 || score <= mScore[0]) return false;
+        // replace the root and sift down
+        int i = 0;
+        while (true) {
+            int child = 2 * i + 1;
+            if (child >= mSize) break;
+            if (child + 1 < mSize && mScore[child + 1] < mScore[child]) child++;
+            if (mScore[child] >= score) break;
+            mIndex[i] = mIndex[child];
+            mScore[i] = mScore[child];
+            i = child;
+        }
+        mIndex[i] = index;
+        mScore[i] = score;
+        return true;
+    }
+}
@@ -0,0 +1,88 @@
+package com.showmehills;
+
+/*
+ * The latitude/longitude box around a circle on the earth's surface, used to pick candidate
+ * hills out of the store before the exact distance check.
+ *
+ * The longitude half-width is the widest the circle gets, asin(sin(r) / cos(lat)), rather than
+ * the old maxdistance / (111 * sin(lat)) rule of thumb, which was too narrow above 45 degrees and
+ * grew to the whole world near the equator. A box that crosses the antimeridian is split into two
+ * longitude ranges, and a circle that reaches a pole becomes a band covering all longitudes.
+ */
+public class BoundingBox {
+
+    static final double EARTH_RADIUS_KM = 6371;
+
+    final double minLat;
+    final double maxLat;
+    final int ranges;            // 1, or 2 when split at the antimeridian
+    final double[] minLon = new double[2];
+    final double[] maxLon = new double[2];
+
+    private BoundingBox(double minLat, double maxLat, double minLon0, double maxLon0, double minLon1, double maxLon1, int ranges) {
+        this.minLat = minLat;
+        this.maxLat = maxLat;
+        this.ranges = ranges;
+        minLon[0] = minLon0;
+        maxLon[0] = maxLon0;
+        minLon[1] = minLon1;
+        maxLon[1] = maxLon1;
+    }
+
+    public static BoundingBox around(double latitude, double longitude, double km) {
+        double r = km / EARTH_RADIUS_KM;
+        double latSpan = Math.toDegrees(r);
+        double minLat = latitude - latSpan;
+        double maxLat = latitude + latSpan;
+
+        if (maxLat >= 90 || minLat <= -90)
+        {
+            // the circle contains a pole, so every longitude is in range
+            return new BoundingBox(Math.max(minLat, -90), Math.min(maxLat, 90), -180, 180, 0, 0, 1);
+        }
+
+        double lonSpan = Math.toDegrees(Math.asin(Math.sin(r) / Math.cos(Math.toRadians(latitude))));
+        double minLon = longitude - lonSpan;
+        double maxLon = longitude + lonSpan;
+        if (minLon < -180)
+        {
+            return new BoundingBox(minLat, maxLat, minLon + 360, 180, -180, maxLon, 2);
+        }
+        if (maxLon > 180)
+        {
+            return new BoundingBox(minLat, maxLat, minLon, 180, -180, maxLon - 360, 2);
+        }
+        return new BoundingBox(minLat, maxLat, minLon, maxLon, 0, 0, 1);
+    }
+
+    // a single range that doesn't wrap, so strips can be cut off it
+    boolean isSimple() {
+        return ranges == 1 && maxLon[0] - minLon[0] < 360;
+    }
+
+    boolean contains(double lat, double lon) {
+        if (lat < minLat || lat > maxLat) return false;
+        for (int i = 0; i < ranges; i++)
+        {
+            if (lon >= minLon[i] && lon <= maxLon[i]) return true;
+        }
+        return false;
+    }
+
+    // adds the hills in the box to out; returns how many were added
+    int fetch(IHillStore store, int minheight, int maxheight, HillSet out) {
+        int added = 0;
+        for (int i = 0; i < ranges; i++)
+        {
+            added += store.fetch(minLat, maxLat, minLon[i], maxLon[i], minheight, maxheight, out);
+        }
+        return added;
+    }
+
+    @Override
+    public String toString() {
+        String s = "lat " + minLat + ".." + maxLat + " lon " + minLon[0] + ".." + maxLon[0];
+        if (ranges == 2) s += ", " + minLon[1] + ".." + maxLon[1];
+        return s;
+    }
+}
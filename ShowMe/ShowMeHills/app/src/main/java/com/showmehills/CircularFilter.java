@@ -0,0 +1,132 @@
+package com.showmehills;
+
+/*
+ * Moving average of an angle over the last N readings, done on the unit circle (as the mean of
+ * the sines and cosines) so that 359 and 1 degrees average to 0 rather than 180.
+ *
+ * The means and the spread of the sines and cosines are kept up to date as each reading comes in
+ * and the oldest one drops out of the window (Welford's update, run in both directions), so
+ * adding a reading and reading back the mean or the variance are O(1) whatever the window size.
+ * The window can be changed at any time up to the capacity given to the constructor without
+ * allocating; that costs one pass over the new window.
+ */
+public class CircularFilter {
+
+    // the running values drift a little with every update; start again from the samples this often
+    private static final int RESUM_INTERVAL = 4096;
+
+    private final double[] mSines;
+    private final double[] mCosines;
+    private int mHead = 0;      // where the next reading goes
+    private int mStored = 0;    // readings in the ring, up to its capacity
+    private int mWindow;
+    private int mCount = 0;     // readings in the window, up to mWindow
+
+    private double mMeanSin, mMeanCos;
+    private double mM2Sin, mM2Cos;
+    private int mSinceResum = 0;
+
+    public CircularFilter(int capacity, int window) {
+        mSines = new double[capacity];
+        mCosines = new double[capacity];
+        setWindow(window);
+    }
+
+    public int getCapacity() {
+        return mSines.length;
+    }
+
+    public int getWindow() {
+        return mWindow;
+    }
+
+    // clamped to 1..capacity; keeps as many of the latest readings as fit
+    public void setWindow(int window) {
+        mWindow = Math.max(1, Math.min(window, mSines.length));
+        resum();
+    }
+
+    public void clear() {
+        mHead = 0;
+        mStored = 0;
+        mCount = 0;
+        mMeanSin = mMeanCos = 0;
+        mM2Sin = mM2Cos = 0;
+        mSinceResum = 0;
+    }
+
+    // angle in radians
+    public void add(double angle) {
+        double s = Math.sin(angle);
+        double c = Math.cos(angle);
+        int capacity = mSines.length;
+
+        if (mCount < mWindow) {
+            mCount++;
+            double ds = s - mMeanSin;
+            mMeanSin += ds / mCount;
+            mM2Sin += ds * (s - mMeanSin);
+            double dc = c - mMeanCos;
+            mMeanCos += dc / mCount;
+            mM2Cos += dc * (c - mMeanCos);
+        } else {
+            // the reading leaving the window is mWindow places back
+            int out = mHead - mWindow;
+            if (out < 0) out += capacity;
+            double oldS = mSines[out];
+            double oldC = mCosines[out];
+            double oldMeanSin = mMeanSin;
+            double oldMeanCos = mMeanCos;
+            mMeanSin += (s - oldS) / mCount;
+            mM2Sin += (s - oldS) * (s - mMeanSin + oldS - oldMeanSin);
+            mMeanCos += (c - oldC) / mCount;
+            mM2Cos += (c - oldC) * (c - mMeanCos + oldC - oldMeanCos);
+        }
+
+        mSines[mHead] = s;
+        mCosines[mHead] = c;
+        mHead++;
+        if (mHead == capacity) mHead = 0;
+        if (mStored < capacity) mStored++;
+
+        if (++mSinceResum >= RESUM_INTERVAL) resum();
+    }
+
+    // radians, -pi..pi
+    public double getMean() {
+        return Math.atan2(mMeanSin, mMeanCos);
+    }
+
+    // sample variance of the sines plus that of the cosines; 0 for a steady reading
+    public double getVariance() {
+        if (mCount < 2) return 0;
+        // M2 can go a hair negative through rounding when the readings are all the same
+        return Math.max(0, (mM2Sin + mM2Cos) / (mCount - 1));
+    }
+
+    public int getCount() {
+        return mCount;
+    }
+
+    // recomputes the running values from the readings in the window
+    private void resum() {
+        int capacity = mSines.length;
+        mCount = Math.min(mStored, mWindow);
+        mMeanSin = mMeanCos = 0;
+        mM2Sin = mM2Cos = 0;
+        int i = mHead - mCount;
+        if (i < 0) i += capacity;
+        for (int n = 1; n <= mCount; n++) {
+            double s = mSines[i];
+            double c = mCosines[i];
+            double ds = s - mMeanSin;
+            mMeanSin += ds / n;
+            mM2Sin += ds * (s - mMeanSin);
+            double dc = c - mMeanCos;
+            mMeanCos += dc / n;
+            mM2Cos += dc * (c - mMeanCos);
+            if (++i == capacity) i = 0;
+        }
+        mSinceResum = 0;
+    }
+}
@@ -0,0 +1,147 @@
+package com.showmehills;
+
+import android.hardware.Sensor;
+import android.hardware.SensorManager;
+
+/*
+ * Everything done with a sensor event on the sensor thread, from the raw reading to a smoothed
+ * OrientationSnapshot: the accuracy gating, the OrientationPipeline, the compass and elevation
+ * filters, motion detection for the sensor rate, and the turn rates the overlay extrapolates
+ * with. Only the framework's constants are used, so a recorded trace can be replayed through
+ * exactly this code on a plain JVM (see TraceReplayer).
+ *
+ * Not thread safe; owned by whichever thread the sensor events arrive on.
+ */
+public class HeadingProcessor {
+
+    // the most readings the compass filter can average; the smoothing preference is capped at this
+    static final int MAX_SMOOTHING_WINDOW = 2000;
+    private static final int ELEVATION_WINDOW = 10;
+    // the turn rates are averaged over about this long, to take out the jitter between readings
+    static final double RATE_TIME_CONSTANT_NANOS = 200000000.0;
+    // a longer gap between readings than this and the rates start again from rest
+    static final long MAX_READING_GAP_NANOS = 500000000L;
+
+    private final OrientationPipeline mPipeline = new OrientationPipeline();
+    private final CircularFilter mDirection = new CircularFilter(MAX_SMOOTHING_WINDOW, 50);
+    private final CircularFilter mElevation = new CircularFilter(ELEVATION_WINDOW, ELEVATION_WINDOW);
+    private final MotionDetector mMotion = new MotionDetector();
+
+    private boolean mHasAccurateGravity = false;
+    private boolean mHasAccurateAccelerometer = false;
+
+    // the last smoothed reading, and how fast the smoothed readings have been changing
+    private long mLastTimestamp = -1;
+    private double mLastDirection, mLastPitch;
+    private double mAzimuthRate, mPitchRate;    // degrees and radians per second
+    private double mIntervalNanos;              // between readings, averaged like the rates
+    private long mSequence;                     // readings given out so far
+
+    // display rotation and declination are set on this from any thread
+    public OrientationPipeline getPipeline() {
+        return mPipeline;
+    }
+
+    // start afresh with the given heading source and compass smoothing window
+    public void reset(int source, int window) {
+        mPipeline.setSource(source);
+        mDirection.setWindow(window);
+        mDirection.clear();
+        mElevation.clear();
+        mMotion.reset();
+        mLastTimestamp = -1;
+        mAzimuthRate = 0;
+        mPitchRate = 0;
+        mIntervalNanos = 0;
+    }
+
+    // Writes the smoothed orientation after this reading into out and returns true, or returns
+    // false and leaves out alone if the reading didn't give one. now is
+    // SystemClock.elapsedRealtimeNanos(), for the snapshot's publish time.
+    public boolean onSensor(int type, int accuracy, float[] values, long timestamp, long now, OrientationSnapshot out) {
+        // some phones never set the sensormanager as reliable, even when readings are ok
+        // That means if we try to block it, those phones will never get a compass reading.
+        // So we let any readings through until we know we can get accurate readings. Once We know that
+        // we'll block the inaccurate ones
+        if (accuracy == SensorManager.SENSOR_STATUS_UNRELIABLE) {
+            if (type == Sensor.TYPE_ACCELEROMETER && mHasAccurateAccelerometer) return false;
+            if (type == Sensor.TYPE_MAGNETIC_FIELD && mHasAccurateGravity) return false;
+        }
+        else
+        {
+            if (type == Sensor.TYPE_ACCELEROMETER) mHasAccurateAccelerometer = true;
+            if (type == Sensor.TYPE_MAGNETIC_FIELD) mHasAccurateGravity = true;
+        }
+
+        // copy the readings, the framework reuses event.values
+        switch (type) {
+            case Sensor.TYPE_ACCELEROMETER: mPipeline.onAccelerometer(values); break;
+            case Sensor.TYPE_MAGNETIC_FIELD: mPipeline.onMagneticField(values); break;
+            case Sensor.TYPE_ROTATION_VECTOR:
+            case Sensor.TYPE_GAME_ROTATION_VECTOR: mPipeline.onRotationVector(values); break;
+            case Sensor.TYPE_GYROSCOPE: mPipeline.onGyroscope(values, timestamp); break;
+        }
+
+        if (!mPipeline.hasReadings() || !mPipeline.update()) return false;
+        mDirection.add(mPipeline.getAzimuth());
+        mElevation.add(mPipeline.getPitch());
+
+        double direction = getDirection();
+        double pitch = mElevation.getMean();
+        int variation = getVariation();
+        mMotion.update(variation, MotionDetector.turn(Math.toDegrees(mPipeline.getAzimuth()), direction), timestamp);
+        updateRates(direction, pitch, timestamp);
+
+        // a moving average of n evenly spaced readings is (n - 1) / 2 readings behind the latest
+        long azimuthLag = (long)((mDirection.getCount() - 1) / 2.0 * mIntervalNanos);
+        long pitchLag = (long)((mElevation.getCount() - 1) / 2.0 * mIntervalNanos);
+        out.set(direction, pitch, variation, timestamp, now, mAzimuthRate, mPitchRate, azimuthLag, pitchLag);
+        out.sequence = ++mSequence;
+        return true;
+    }
+
+    // how fast the smoothed heading and pitch are turning, from how far they moved since the last
+    // reading; nothing while the phone is still, so a steady view doesn't drift with the noise
+    private void updateRates(double direction, double pitch, long timestamp) {
+        long dt = timestamp - mLastTimestamp;
+        if (mLastTimestamp < 0 || dt <= 0 || dt > MAX_READING_GAP_NANOS) {
+            mAzimuthRate = 0;
+            mPitchRate = 0;
+        } else {
+            double k = smoothing(dt);
+            mIntervalNanos = (mIntervalNanos == 0) ? dt : mIntervalNanos + (dt - mIntervalNanos) * k;
+            if (mMotion.isStill()) {
+                mAzimuthRate = 0;
+                mPitchRate = 0;
+            } else {
+                double turn = direction - mLastDirection;
+                if (turn > 180) turn -= 360;
+                if (turn < -180) turn += 360;
+                mAzimuthRate += (turn * 1e9 / dt - mAzimuthRate) * k;
+                mPitchRate += ((pitch - mLastPitch) * 1e9 / dt - mPitchRate) * k;
+            }
+        }
+        mLastTimestamp = timestamp;
+        mLastDirection = direction;
+        mLastPitch = pitch;
+    }
+
+    // the weight of a new rate, dt after the last, in the running average
+    private static double smoothing(long dt) {
+        return 1 - Math.exp(-dt / RATE_TIME_CONSTANT_NANOS);
+    }
+
+    // smoothed heading in degrees 0..360, without the compass adjustment
+    public double getDirection() {
+        return (Math.toDegrees(mDirection.getMean()) + 360) % 360;
+    }
+
+    public int getVariation() {
+        return (int)(mDirection.getVariance() * 1000);
+    }
+
+    // whether the phone has been held still for a while, so the sensors can run slow
+    public boolean isStill() {
+        return mMotion.isStill();
+    }
+}
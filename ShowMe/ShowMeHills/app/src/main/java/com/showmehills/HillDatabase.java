@@ -19,35 +19,25 @@
 
 package com.showmehills;
 
-import java.io.FileNotFoundException;
-import java.io.FileOutputStream;
-import java.io.IOException;
-import java.io.InputStream;
-import java.io.OutputStream;
-import java.util.ArrayList;
-import java.util.Collections;
-import java.util.Comparator;
-
 import android.content.Context;
 import android.content.SharedPreferences;
 import android.database.Cursor;
 import android.database.sqlite.SQLiteDatabase;
 import android.database.sqlite.SQLiteException;
 import android.database.sqlite.SQLiteOpenHelper;
-import android.location.Location;
 import android.preference.PreferenceManager;
 import android.util.Log;
 
 import org.florescu.android.rangeseekbar.RangeSeekBar;
 
-public class HillDatabase extends SQLiteOpenHelper{
+public class HillDatabase extends SQLiteOpenHelper implements IHillStore {
 		private static String DB_PATH;
 	    private static String DB_NAME;	
-	    private static int mDatabaseVersion = 11;
+	    static final int mDatabaseVersion = 11;
 	    private SQLiteDatabase myDataBase; 	 
 	    private final Context myContext;
-	    private boolean mDbCopied = false;
-	    public ArrayList<Hills> localhills = new ArrayList<>();
+	    // true if the database has the mountains_rtree spatial index (see Database/tools/spatialindex)
+	    private boolean mHasSpatialIndex = false;
 
 	    public HillDatabase(Context context, String dbname, String dbpath) {
 	    	super(context, dbname, null, 1);
@@ -57,23 +47,19 @@ public class HillDatabase extends SQLiteOpenHelper{
 	    }	
 	 
 	    public void createDataBase(){
-	    	// made some changes in the database, but need to update it in existing installs!
-	    	// so need to add a version number
-	    	// for now just update db every time
-	    	boolean dbExist = checkDataBase();	 
-	    	if(!dbExist){
-	        	this.getReadableDatabase();	 
-	        	copyDataBase();
-	    	}	 
+	    	// the installer only copies the asset when the database in the apk has changed (see
+	    	// HillDatabaseInstaller), so after the first run this doesn't do any bulk I/O
+	    	if (!HillDatabaseInstaller.getInstance(myContext).waitForInstall()) return;
+	    	checkDataBase();
 	    }
 	 
 	    public boolean checkDataBase(){
-	    	if (!mDbCopied) return false;
 	    	if (myDataBase != null)
 	    	{
 	    		// already ok
 	    		return true;
 	    	}
+	    	if (!HillDatabaseInstaller.getInstance(myContext).isInstalled()) return false;
 	    	try{
 	    		String myPath = DB_PATH + DB_NAME;
 	    		
@@ -95,25 +81,17 @@ public class HillDatabase extends SQLiteOpenHelper{
 					Log.d("showmehills", "db version is " + dbversion);
 					if (dbversion != mDatabaseVersion)
 					{
+						// the asset doesn't match mDatabaseVersion, so have it copied again next time
 						Log.d("showmehills", "Old database (" + dbversion + "). Updating!");
 						myDataBase.close();
 						myDataBase = null;
-						String db = DB_NAME;
-						// required for backwards compatibility (name changed at v10)
-						if (dbversion < 10) db = "hillsv1.db";
-						if (myContext.deleteDatabase(DB_PATH + db))
-						{
-							Log.d("showmehills", "Deleted old database " + db);
-						}
-						else
-						{
-							Log.d("showmehills", "Failed to delete old database!");
-						}
+						HillDatabaseInstaller.getInstance(myContext).invalidate();
 						cursor.close();
 						return false;
 					}
 				}
 				cursor.close();
+				mHasSpatialIndex = hasSpatialIndex();
 	    	}catch(SQLiteException e){	 
 	    		//database does't exist yet.
 	    		e.printStackTrace();
@@ -121,61 +99,21 @@ public class HillDatabase extends SQLiteOpenHelper{
 	 
 	    	return myDataBase != null;
 	    }
-	 
-	    private void copyDataBase() {	 
-	    	Log.d("showmehills", "Attempting to copy database " + DB_NAME + " from assets to " + DB_PATH + DB_NAME);
-	    	InputStream myInput;
-			try {
-				myInput = myContext.getAssets().open(DB_NAME);
-			} catch (IOException e) {
-				e.printStackTrace();
-				return;
-			}
-	    	String outFileName = DB_PATH + DB_NAME;
-	    	OutputStream myOutput;
-	    	long bytesCopied = 0;
-			try {
-				myOutput = new FileOutputStream(outFileName);
-			} catch (FileNotFoundException e) {
-				e.printStackTrace();
-		    	try {
-					myInput.close();
-				} catch (IOException e1) {
-					e1.printStackTrace();
-				}
-		    	return;
-			}
-	    	byte[] buffer = new byte[1024];
-	    	int length;
-	    	try {
-				while ((length = myInput.read(buffer))>0){
-					myOutput.write(buffer, 0, length);
-					bytesCopied += length;
-				}
-			} catch (IOException e) {
-				e.printStackTrace();
 
-		    	try {
-					myInput.close();
-			    	myOutput.close();
-				} catch (IOException e1) {
-					e1.printStackTrace();
-				}
-		    	return;
-			}
+	    private boolean hasSpatialIndex() {
+	    	// older databases (and devices whose sqlite lacks the rtree module) fall back to the plain query
 	    	try {
-				myOutput.flush();
-		    	myOutput.close();
-		    	myInput.close();
-			} catch (IOException e) {
-				e.printStackTrace();
-			}
-	    	mDbCopied = true;
-	    	Log.d("showmehills", "Database copied successfully (" + bytesCopied + " bytes), attempting to check database again...");
-	    	// should be created, so now open
-	    	checkDataBase();
+	    		Cursor cursor = myDataBase.rawQuery("select id from mountains_rtree limit 1", null);
+	    		cursor.close();
+	    		Log.d("showmehills", "Using mountains_rtree spatial index");
+	    		return true;
+	    	}
+	    	catch(SQLiteException e){
+	    		Log.d("showmehills", "No spatial index, falling back to table scan: " + e.getMessage());
+	    		return false;
+	    	}
 	    }
-	 
+
 	    @Override
 		public synchronized void close() {	 
 	    	    if(myDataBase != null)
@@ -190,111 +128,58 @@ public class HillDatabase extends SQLiteOpenHelper{
 		@Override
 		public void onUpgrade(SQLiteDatabase db, int oldVersion, int newVersion) {}
 	 
-		public void SetDirections(Location curLocation, int minheight, int maxheight, int mindistance, int maxdistance)
+		// adds the hills inside the box (and the height limits) to out, without working out
+		// their directions; returns how many were added
+		public int fetch(double minLat, double maxLat, double minLon, double maxLon, int minheight, int maxheight, HillSet out)
 		{
-			if (curLocation == null) return;
-			
 			if (myDataBase == null)
 			{
 				createDataBase();
-				if (myDataBase == null) return;
+				if (myDataBase == null) return 0;
+			}
+			String qu;
+			if (mHasSpatialIndex)
+			{
+				// peaks are stored as points, so an overlap test against the box finds them in O(log n + k)
+				qu = "select m.* from mountains m join mountains_rtree r on m._id = r.id" +
+						" where r.maxLat >= " + minLat + " and r.minLat <= " + maxLat +
+						" and r.maxLon >= " + minLon + " and r.minLon <= " + maxLon;
+				if (minheight > 0) qu += " and m.height > " + minheight;
+				if (maxheight < 9000) qu += " and m.height < " + maxheight;
+			}
+			else
+			{
+				qu = "select * from mountains where latitude between " + minLat + " and " + maxLat +
+						" and longitude between " + minLon + " and " + maxLon;
+				if (minheight > 0) qu += " and height > " + minheight;
+				if (maxheight < 9000) qu += " and height < " + maxheight;
 			}
-			/*
-			SharedPreferences prefs = PreferenceManager.getDefaultSharedPreferences(myContext);
-			String md = prefs.getString("distance", "25");
-			if (md.equals("")) md = "25";
-	        Float maxdistance = Float.parseFloat(md);
-	        
-			md = prefs.getString("mindistance", "0");
-			if (md.equals("")) md = "0";
-	        Float mindistance = Float.parseFloat(md);
-
-			md = prefs.getString("minheight", "0");
-			if (md.equals("")) md = "0";
-			Float minheight = Float.parseFloat(md);
-*/
-
-			localhills.clear();
-			
-			double curLatitude = curLocation.getLatitude();
-			double curLongitude = curLocation.getLongitude();
-			
-			// use a rule of thumb for distance between lines of lat & long
-			// 1 line of latitude = 111km
-			// 1 line of longitude = sin(latitude)* 111km.
-			double minLat = Math.min(curLatitude - (maxdistance/111.0f ), curLatitude + (maxdistance/111.0f ));
-			double maxLat = Math.max(curLatitude - (maxdistance/111.0f ), curLatitude + (maxdistance/111.0f ));
-			double minLon = Math.min(curLongitude - (maxdistance/(111.0 * Math.sin(curLatitude * Math.PI / 180))),
-					(curLongitude + (maxdistance/(111.0 * Math.sin(curLatitude * Math.PI / 180)))));
-			double maxLon = Math.max(curLongitude - (maxdistance/(111.0 * Math.sin(curLatitude * Math.PI / 180))),
-					(curLongitude + (maxdistance/(111.0 * Math.sin(curLatitude * Math.PI / 180)))));
-			String qu = "select * from mountains where latitude between " + minLat + " and " + maxLat +
-					" and longitude between " + minLon + " and " + maxLon;
-
-			if (minheight > 0) qu += " and height > " + minheight;
-			if (maxheight < 9000) qu += " and height < " + maxheight;
 			Cursor cursor;
 			try {
 				cursor = getReadableDatabase().rawQuery( qu, null);
 			}	
 	    	catch(SQLiteException e){	 
-	    		return;	 
+	    		return 0;	 
 	    	}
-	        if (cursor == null) return;
+	        if (cursor == null) return 0;
 	        
-			int tooNear = 0, tooFar = 0;
+			int added = 0;
 			if(cursor.moveToFirst()) {
-				double dLat, dLon, lat1, lat2;
-				double x, y, brng, a, c, dheight;
-				Hills h;
+				int idCol = cursor.getColumnIndex("_id");
+				int nameCol = cursor.getColumnIndex("name");
+				int lonCol = cursor.getColumnIndex("longitude");
+				int latCol = cursor.getColumnIndex("latitude");
+				int heightCol = cursor.getColumnIndex("height");
 				
 	        	do {
 	        		try {
-		        		h = new Hills( 
-		        				cursor.getInt(cursor.getColumnIndex("_id")),
-		        				cursor.getString(cursor.getColumnIndex("name")),
-		        				cursor.getDouble(cursor.getColumnIndex("longitude")),
-		        				cursor.getDouble(cursor.getColumnIndex("latitude")),
-                                cursor.getInt(cursor.getColumnIndex("height")));
-
-                        dLat = Math.toRadians(h.latitude - curLatitude);
-						dLon =  Math.toRadians(h.longitude - curLongitude); 
-						lat1 = Math.toRadians(curLatitude);
-						lat2 = Math.toRadians(h.latitude);
-						
-						// direction calculation
-						y = Math.sin(dLon) * Math.cos(lat2);
-						x = Math.cos(lat1)*Math.sin(lat2) -
-						        Math.sin(lat1)*Math.cos(lat2)*Math.cos(dLon);
-						brng = Math.atan2(y, x)  * 180 / Math.PI;
-						
-						h.direction = (brng<0)?brng+360:brng;
-						
-						// distance calculation				
-						a = Math.sin(dLat/2) * Math.sin(dLat/2) +
-						        Math.cos(lat2) * Math.cos(lat1) * 
-						        Math.sin(dLon/2) * Math.sin(dLon/2); 
-						c = 2 * Math.atan2(Math.sqrt(a), Math.sqrt(1-a)); 
-						h.distance = Math.floor(10 * 6371 * c) / 10.0; // Distance in km
-	
-						// vertical angle
-						dheight = h.height - curLocation.getAltitude();
-						
-						h.visualElevation = Math.atan2(dheight, h.distance*1000);
-		        		
-						if (h.distance > maxdistance)
-						{
-							tooFar++;
-						}
-						else if (h.distance < mindistance)
-						{
-							tooNear++;
-						}
-						else
-						{
-			        		//Log.d("showmehills", "Adding " + h.hillname + "@"+h.longitude+","+h.latitude);
-			        		localhills.add(h);
-						}
+		        		out.add( 
+		        				cursor.getInt(idCol),
+		        				cursor.getString(nameCol),
+		        				cursor.getDouble(lonCol),
+		        				cursor.getDouble(latCol),
+                                cursor.getInt(heightCol));
+		        		added++;
 					} catch(Exception e)
 					{
 						Log.e("showmehills", "bad database read: " + e.getMessage());
@@ -302,26 +187,20 @@ public class HillDatabase extends SQLiteOpenHelper{
 	        	} while (cursor.moveToNext());
 	        }
             cursor.close();
-	        Log.d("showmehills", "Added " + localhills.size() + " markers; skipped " + tooNear + " too near, " + tooFar + " too far.");
 /*
  * for testing:
-			localhills.add(new Hills(0,"London Eye",   -0.119700, 51.5033,   135));
-			localhills.add(new Hills(0,"Shard",        -0.086667, 51.504444, 308));
-			localhills.add(new Hills(0,"1 Canada Sq",  -0.019611, 51.505, 240));
-			localhills.add(new Hills(0,"BT Tower",     -0.138900, 51.5215, 191));
-			localhills.add(new Hills(0,"Gherkin",      -0.080278, 51.514444, 180));
+			out.add(0,"London Eye",   -0.119700, 51.5033,   135);
+			out.add(0,"Shard",        -0.086667, 51.504444, 308);
+			out.add(0,"1 Canada Sq",  -0.019611, 51.505, 240);
+			out.add(0,"BT Tower",     -0.138900, 51.5215, 191);
+			out.add(0,"Gherkin",      -0.080278, 51.514444, 180);
 			*/
+			return added;
+		}
 
-			Collections.sort(localhills, new Comparator<Object>(){
-				 
-	            public int compare(Object o1, Object o2) {
-	                Hills p1 = (Hills) o1;
-	                Hills p2 = (Hills) o2;
-	               if (p1.distance==p2.distance) return 0;
-	               if (p1.distance < p2.distance) return -1;
-	               return 1;
-	            }
-	 
-	        });
+		// fetch() reads the names along with everything else, so never leaves any to look up
+		public String getName(int row)
+		{
+			return null;
 		}
 	}
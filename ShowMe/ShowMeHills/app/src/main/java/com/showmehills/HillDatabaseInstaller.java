@@ -0,0 +1,297 @@
+package com.showmehills;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.content.pm.PackageManager;
+import android.os.SystemClock;
+import android.preference.PreferenceManager;
+import android.util.Log;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+import java.util.zip.CRC32;
+
+/*
+ * Copies the hill database out of the apk assets, but only when it has changed.
+ *
+ * The installed database version and the CRC of the asset it came from are kept in the shared
+ * preferences along with the apk's lastUpdateTime. While the apk hasn't changed there is nothing
+ * to do beyond checking the file is still there. After an app update the asset is checksummed and
+ * only copied if its version or CRC differ from what is installed, so updates that don't touch the
+ * database don't pay for a multi-megabyte copy.
+ *
+ * The copy itself runs on a background thread (started from the splash screen); HillDatabase
+ * waits for it in createDataBase() if it hasn't finished by the time the database is needed. A
+ * successful install is remembered for the life of the process; a failed one isn't, so the next
+ * activity to need the database tries again, as it did before the install was moved off the UI
+ * thread.
+ */
+public class HillDatabaseInstaller {
+
+    private static final String PREF_VERSION = "hilldbVersion";
+    private static final String PREF_CRC = "hilldbCrc";
+    private static final String PREF_APKSTAMP = "hilldbApkStamp";
+    private static final String PREF_INSTALLMS = "hilldbInstallMs";
+
+    private static final int BUFFER_SIZE = 256 * 1024;
+
+    private static HillDatabaseInstaller sInstance;
+
+    private final Context mContext;
+    private final String mDbName;
+    private final String mDbPath;
+    private final int mDbVersion;
+    private final RetryableTask mInstallTask;
+    private volatile long mLastInstallMillis = -1;
+
+    public static synchronized HillDatabaseInstaller getInstance(Context context) {
+        if (sInstance == null) {
+            sInstance = new HillDatabaseInstaller(context);
+        }
+        return sInstance;
+    }
+
+    private HillDatabaseInstaller(Context context) {
+        mContext = context.getApplicationContext();
+        mDbName = mContext.getString(R.string.dbname);
+        mDbPath = mContext.getString(R.string.dbpath);
+        mDbVersion = HillDatabase.mDatabaseVersion;
+        mInstallTask = new RetryableTask("HillDatabaseInstaller", new Callable<Boolean>() {
+            @Override
+            public Boolean call() {
+                return install();
+            }
+        });
+    }
+
+    // starts the install on a background thread, if it isn't already running or done
+    public void installInBackground() {
+        mInstallTask.start();
+    }
+
+    // blocks until the database is installed; returns false if it couldn't be
+    public boolean waitForInstall() {
+        return mInstallTask.await();
+    }
+
+    // cheap check that doesn't touch the asset
+    public boolean isInstalled() {
+        SharedPreferences prefs = PreferenceManager.getDefaultSharedPreferences(mContext);
+        return prefs.getInt(PREF_VERSION, -1) == mDbVersion
+                && prefs.getLong(PREF_APKSTAMP, -1) == apkStamp()
+                && new File(mDbPath + mDbName).exists();
+    }
+
+    // forget the installed database, so the next install copies it again
+    public synchronized void invalidate() {
+        PreferenceManager.getDefaultSharedPreferences(mContext).edit()
+                .remove(PREF_VERSION)
+                .remove(PREF_CRC)
+                .remove(PREF_APKSTAMP)
+                .commit();
+        mInstallTask.reset();
+    }
+
+    // time taken by the last copy in ms, or -1 if nothing has been copied yet
+    public long getLastInstallMillis() {
+        if (mLastInstallMillis < 0) {
+            return PreferenceManager.getDefaultSharedPreferences(mContext).getLong(PREF_INSTALLMS, -1);
+        }
+        return mLastInstallMillis;
+    }
+
+    private boolean install() {
+        if (isInstalled()) {
+            Log.d("showmehills", "Database " + mDbName + " already installed");
+            return true;
+        }
+        long start = SystemClock.elapsedRealtime();
+        SharedPreferences prefs = PreferenceManager.getDefaultSharedPreferences(mContext);
+        File dbFile = new File(mDbPath + mDbName);
+        long stamp = apkStamp();
+
+        // the apk has changed (or this is the first run). If the database in it is the one we
+        // already have, just remember the new apk stamp.
+        if (dbFile.exists() && prefs.getInt(PREF_VERSION, -1) == mDbVersion && prefs.contains(PREF_CRC)) {
+            try {
+                long crc = assetChecksum();
+                if (crc == prefs.getLong(PREF_CRC, 0)) {
+                    prefs.edit().putLong(PREF_APKSTAMP, stamp).commit();
+                    Log.d("showmehills", "Database asset unchanged, checked in " + (SystemClock.elapsedRealtime() - start) + "ms");
+                    return true;
+                }
+            } catch (IOException e) {
+                Log.e("showmehills", "Couldn't checksum database asset: " + e.getMessage());
+                return false;
+            }
+        }
+
+        long crc;
+        long bytesCopied;
+        File tmpFile = new File(mDbPath + mDbName + ".tmp");
+        try {
+            new File(mDbPath).mkdirs();
+            long[] result = copyAsset(tmpFile);
+            crc = result[0];
+            bytesCopied = result[1];
+        } catch (IOException e) {
+            Log.e("showmehills", "Couldn't copy database " + mDbName + ": " + e.getMessage());
+            tmpFile.delete();
+            return false;
+        }
+        // replace in one step so a crash part way through the copy never leaves a truncated database
+        if (!tmpFile.renameTo(dbFile)) {
+            Log.e("showmehills", "Couldn't move " + tmpFile + " to " + dbFile);
+            tmpFile.delete();
+            return false;
+        }
+        deleteOldDatabases();
+
+        mLastInstallMillis = SystemClock.elapsedRealtime() - start;
+        prefs.edit()
+                .putInt(PREF_VERSION, mDbVersion)
+                .putLong(PREF_CRC, crc)
+                .putLong(PREF_APKSTAMP, stamp)
+                .putLong(PREF_INSTALLMS, mLastInstallMillis)
+                .commit();
+        Log.d("showmehills", "Database installed (" + bytesCopied + " bytes) in " + mLastInstallMillis + "ms");
+        return true;
+    }
+
+    // returns { crc, bytes copied }
+    private long[] copyAsset(File dest) throws IOException {
+        CRC32 crc = new CRC32();
+        long bytesCopied = 0;
+        InputStream in = mContext.getAssets().open(mDbName);
+        try {
+            ReadableByteChannel src = Channels.newChannel(in);
+            FileOutputStream out = new FileOutputStream(dest);
+            try {
+                FileChannel dst = out.getChannel();
+                ByteBuffer buffer = ByteBuffer.allocate(BUFFER_SIZE);
+                while (src.read(buffer) != -1) {
+                    buffer.flip();
+                    crc.update(buffer.array(), 0, buffer.limit());
+                    bytesCopied += buffer.limit();
+                    while (buffer.hasRemaining()) {
+                        dst.write(buffer);
+                    }
+                    buffer.clear();
+                }
+                dst.force(false);
+            } finally {
+                out.close();
+            }
+        } finally {
+            in.close();
+        }
+        return new long[] { crc.getValue(), bytesCopied };
+    }
+
+    private long assetChecksum() throws IOException {
+        CRC32 crc = new CRC32();
+        InputStream in = mContext.getAssets().open(mDbName);
+        try {
+            byte[] buffer = new byte[BUFFER_SIZE];
+            int length;
+            while ((length = in.read(buffer)) > 0) {
+                crc.update(buffer, 0, length);
+            }
+        } finally {
+            in.close();
+        }
+        return crc.getValue();
+    }
+
+    // databases from before the version/crc tracking had other names (hillsv1.db before v10)
+    private void deleteOldDatabases() {
+        File[] files = new File(mDbPath).listFiles();
+        if (files == null) return;
+        for (File f : files) {
+            String name = f.getName();
+            if (name.startsWith("hillsv") && !name.startsWith(mDbName)) {
+                if (mContext.deleteDatabase(name)) {
+                    Log.d("showmehills", "Deleted old database " + name);
+                }
+            }
+        }
+    }
+
+    /*
+     * Runs some work on a background thread, one run at a time, and keeps the result once a run has
+     * succeeded. A run that returned false or threw is not kept: the next start() or await() after
+     * it has finished runs the work again.
+     */
+    static class RetryableTask {
+        private final String mName;
+        private final Callable<Boolean> mWork;
+        private FutureTask<Boolean> mTask;
+
+        RetryableTask(String name, Callable<Boolean> work) {
+            mName = name;
+            mWork = work;
+        }
+
+        // starts a run, unless one is running or has succeeded
+        synchronized void start() {
+            if (mTask != null && !(mTask.isDone() && !succeeded(mTask))) return;
+            mTask = new FutureTask<>(mWork);
+            Thread t = new Thread(mTask, mName);
+            t.setPriority(Thread.NORM_PRIORITY - 1);
+            t.start();
+        }
+
+        // blocks until the current run, started if need be, finishes; returns whether it succeeded
+        boolean await() {
+            FutureTask<Boolean> task;
+            synchronized (this) {
+                start();
+                task = mTask;
+            }
+            try {
+                return Boolean.TRUE.equals(task.get());
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return false;
+            } catch (ExecutionException e) {
+                Log.e("showmehills", mName + " failed: " + e.getCause());
+                return false;
+            }
+        }
+
+        // forgets any result, so the next start() runs the work again
+        synchronized void reset() {
+            mTask = null;
+        }
+
+        // for a task that has finished, so get() doesn't block
+        private static boolean succeeded(FutureTask<Boolean> task) {
+            if (task.isCancelled()) return false;
+            try {
+                return Boolean.TRUE.equals(task.get());
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return false;
+            } catch (ExecutionException e) {
+                return false;
+            }
+        }
+    }
+
+    private long apkStamp() {
+        try {
+            return mContext.getPackageManager().getPackageInfo(mContext.getPackageName(), 0).lastUpdateTime;
+        } catch (PackageManager.NameNotFoundException e) {
+            return 0;
+        }
+    }
+}
@@ -23,15 +23,12 @@ import com.showmehills.R;
 
 import android.app.Activity;
 import android.database.Cursor;
-import android.database.SQLException;
 import android.os.Bundle;
 import android.util.Log;
 import android.widget.TextView;
 
 public class HillInfo extends Activity{
 
-	private HillDatabase myDbHelper;
-	
 	@Override
 	public void onCreate(Bundle savedInstanceState) {
 		super.onCreate(savedInstanceState);
@@ -39,88 +36,86 @@ public class HillInfo extends Activity{
 	    setContentView(R.layout.mountaininfo);
 	    
 		Bundle b = getIntent().getExtras();
-		int hillid = b.getInt("key", 0);		
+		final int hillid = b.getInt("key", 0);		
 
-		myDbHelper = new HillDatabase(this, getString(R.string.dbname), getString(R.string.dbpath)); 
-		myDbHelper.createDataBase(); 
-		
-		// if database couldn't be created then we can't do much
-		if (!myDbHelper.checkDataBase()) return;
-		String qu = "select * from mountains where _id = '"+hillid+"'";
-		Log.d("showmehills", "query: "+qu);
-		Cursor cursor = myDbHelper.getReadableDatabase().rawQuery( qu, null);
-		if (cursor.moveToFirst())
+		// the database may still be installing (eg. the process was restored straight into this
+		// screen, or the apk has just been updated), so look the hill up away from the UI thread
+		if (!HillDatabaseInstaller.getInstance(this).isInstalled())
 		{
-			TextView t = (TextView) findViewById(R.id.hillname);
-			String n = cursor.getString(cursor.getColumnIndex("name"));
-			t.setText(n);
+			Log.d("showmehills", "Hill info waiting for the database install");
+			HillDatabaseInstaller.getInstance(this).installInBackground();
+		}
+		Thread t = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				loadHill(hillid);
+			}
+		}, "HillInfo");
+		t.setPriority(Thread.NORM_PRIORITY - 1);
+		t.start();
+	}
+
+	// on the loader thread: reads the hill and hands it to the UI thread to show
+	private void loadHill(int hillid) {
+		HillDatabase db = new HillDatabase(this, getString(R.string.dbname), getString(R.string.dbpath)); 
+		try {
+			db.createDataBase(); 
 			
-			t = (TextView) findViewById(R.id.hillheight);
-			int h = cursor.getInt(cursor.getColumnIndex("height"));
-			if (h>0)
+			// if database couldn't be created then we can't do much
+			if (!db.checkDataBase()) return;
+			String qu = "select * from mountains where _id = '"+hillid+"'";
+			Log.d("showmehills", "query: "+qu);
+			Cursor cursor = db.getReadableDatabase().rawQuery( qu, null);
+			if (cursor.moveToFirst())
 			{
-				t.setText(""+h+" meters");
+				final String name = cursor.getString(cursor.getColumnIndex("name"));
+				final int height = cursor.getInt(cursor.getColumnIndex("height"));
+				final String webid = cursor.getString(cursor.getColumnIndex("webid"));
+				final int linktype = cursor.getInt(cursor.getColumnIndex("linktype"));
+				runOnUiThread(new Runnable() {
+					public void run() {
+						if (!isFinishing()) showHill(name, height, webid, linktype);
+					}
+				});
 			}
 			else
 			{
-				t.setText("");
+				Log.d("showmehills", "zero item count.");
 			}
-			
-			t = (TextView) findViewById(R.id.infolink);
-			String webid = cursor.getString(cursor.getColumnIndex("webid"));
-			int linktype = cursor.getInt(cursor.getColumnIndex("linktype"));
-			switch (linktype) {
-				case 1: // DoBH first link type
-					t.setText("web: http://www.hill-bagging.co.uk/mountaindetails.php?qu=S&rf=" + webid);
-					break;
-				case 2: // DoBH second link type
-					t.setText("web: http://www.hill-bagging.co.uk/googlemaps.php?qu=S&rf=" + webid);
-					break;
-				case 3: // OSM
-					t.setText("web: http://www.openstreetmap.org/browse/node/" + webid);
-					break;
+			cursor.close();
+		} finally {
+			db.close();
+		}
+	}
 
-				default:
-					break;
-			}
+	private void showHill(String n, int h, String webid, int linktype) {
+		TextView t = (TextView) findViewById(R.id.hillname);
+		t.setText(n);
+		
+		t = (TextView) findViewById(R.id.hillheight);
+		if (h>0)
+		{
+			t.setText(""+h+" meters");
 		}
 		else
 		{
-			Log.d("showmehills", "zero item count.");
+			t.setText("");
 		}
-		cursor.close();
-	}
-	
-	@Override
-	protected void onResume() {
-		super.onResume();
 		
-		try {	 
-			myDbHelper.checkDataBase();	 
-		}catch(SQLException sqle){	 
-			throw sqle;	 
-		}
-	}
+		t = (TextView) findViewById(R.id.infolink);
+		switch (linktype) {
+			case 1: // DoBH first link type
+				t.setText("web: http://www.hill-bagging.co.uk/mountaindetails.php?qu=S&rf=" + webid);
+				break;
+			case 2: // DoBH second link type
+				t.setText("web: http://www.hill-bagging.co.uk/googlemaps.php?qu=S&rf=" + webid);
+				break;
+			case 3: // OSM
+				t.setText("web: http://www.openstreetmap.org/browse/node/" + webid);
+				break;
 
-	@Override
-	protected void onPause() {
-		super.onPause();
-		
-		try {	 
-			myDbHelper.close();	 
-		}catch(SQLException sqle){	 
-			throw sqle;	 
-		}
-	}
-	
-	@Override
-	protected void onStop()
-	{
-		try {	 
-			myDbHelper.close();	 
-		}catch(SQLException sqle){	 
-			throw sqle;	 
+			default:
+				break;
 		}
-		super.onStop();
 	}
 }
@@ -0,0 +1,264 @@
+package com.showmehills;
+
+import android.util.Log;
+
+/*
+ * Turns a location into the set of hills in range, reusing the last fetch where it can.
+ *
+ * The candidates from the store (everything in the bounding box, before the distance filter)
+ * are kept between queries. If the height limits and search radius are unchanged and the
+ * observer has moved less than mReuseFraction of the radius, the old box and the new one mostly
+ * overlap: candidates that have left the box are dropped, only the strips that have come into it
+ * are fetched, and then bearings and distances are worked out again for what's left. Walking
+ * along with the app open hardly touches the store. Anything else, including a box that is split
+ * at the antimeridian or reaches a pole, refetches the whole box, going through the shared
+ * HillTileCache first.
+ *
+ * A query can be limited to the best K hills under some HillRanking. The overlay only has room
+ * for a few dozen labels, so there's no point sorting thousands of hills from a 100km search
+ * over the Alps; a bounded heap picks the K during the scan and only those get sorted. Likewise
+ * a store can leave the names out of the candidates (see HillSet.addUnnamed); they're looked up
+ * for the hills returned and no others.
+ *
+ * Only used from the HillQueryEngine thread.
+ */
+public class HillProjector {
+
+    static final float DEFAULT_REUSE_FRACTION = 0.25f;
+    // what a new tile starts out with room for, unless the last box had more
+    static final int TILE_CAPACITY = 256;
+
+    private final IHillStore mStore;
+    private final HillTileCache mTileCache;
+    private float mReuseFraction = DEFAULT_REUSE_FRACTION;
+
+    private final HillSet mCandidates = new HillSet(256);
+    private final HillSet mInRange = new HillSet(256);
+    private final BoundedHeap mBest = new BoundedHeap();
+    private boolean mCacheValid = false;
+    private double mLatitude, mLongitude;
+    private BoundingBox mBox;
+    private int mMinheight, mMaxheight, mMaxdistance;
+
+    // metrics
+    private volatile long mFullFetches;
+    private volatile long mIncrementalFetches;
+    private volatile long mRowsFetched;
+    private volatile long mTooNear;
+    private volatile long mTooFar;
+    private volatile int mLastCandidates;
+    private volatile int mLastKept;
+
+    public HillProjector(IHillStore store) {
+        this(store, null);
+    }
+
+    // tileCache may be null to always fetch from the store
+    public HillProjector(IHillStore store, HillTileCache tileCache) {
+        mStore = store;
+        mTileCache = tileCache;
+    }
+
+    // how far (as a fraction of the search radius) the observer can move before the cache is thrown away
+    public void setReuseFraction(float fraction) {
+        mReuseFraction = fraction;
+    }
+
+    // forget the candidates, eg. because the store has been closed
+    public void invalidate() {
+        mCacheValid = false;
+        mCandidates.clear();
+    }
+
+    public long getFullFetches() {
+        return mFullFetches;
+    }
+
+    public long getIncrementalFetches() {
+        return mIncrementalFetches;
+    }
+
+    public long getRowsFetched() {
+        return mRowsFetched;
+    }
+
+    // candidates in the bounding box that turned out to be nearer than mindistance, in total
+    public long getTooNear() {
+        return mTooNear;
+    }
+
+    // candidates in the corners of the bounding box, beyond maxdistance, in total
+    public long getTooFar() {
+        return mTooFar;
+    }
+
+    // candidates considered by the last query, and how many of them were kept
+    public int getLastCandidates() {
+        return mLastCandidates;
+    }
+
+    public int getLastKept() {
+        return mLastKept;
+    }
+
+    // returns a new set of the hills in range, sorted nearest first
+    public HillSet project(double curLatitude, double curLongitude, double curAltitude,
+                           int minheight, int maxheight, int mindistance, int maxdistance)
+    {
+        return project(curLatitude, curLongitude, curAltitude, minheight, maxheight, mindistance, maxdistance, 0, null);
+    }
+
+    // as above, but if limit > 0 only the best limit hills according to ranking are returned
+    public HillSet project(double curLatitude, double curLongitude, double curAltitude,
+                           int minheight, int maxheight, int mindistance, int maxdistance,
+                           int limit, HillRanking ranking)
+    {
+        // distances are rounded down to 0.1km, so a hill just outside maxdistance still counts
+        BoundingBox box = BoundingBox.around(curLatitude, curLongitude, maxdistance + 0.1);
+
+        if (mCacheValid && minheight == mMinheight && maxheight == mMaxheight && maxdistance == mMaxdistance
+                && box.isSimple() && mBox.isSimple()
+                && distanceKm(mLatitude, mLongitude, curLatitude, curLongitude) < mReuseFraction * maxdistance)
+        {
+            updateCandidates(box);
+            mIncrementalFetches++;
+        }
+        else
+        {
+            fetchBox(box, curLatitude, curLongitude, minheight, maxheight, maxdistance);
+            mFullFetches++;
+            mMinheight = minheight;
+            mMaxheight = maxheight;
+            mMaxdistance = maxdistance;
+            mCacheValid = true;
+        }
+        mLatitude = curLatitude;
+        mLongitude = curLongitude;
+        mBox = box;
+
+        boolean limited = limit > 0 && ranking != null;
+        mInRange.clear();
+        mBest.reset(limited ? limit : 0);
+        int tooNear = 0, tooFar = 0, inRange = 0;
+        for (int c = 0; c < mCandidates.size(); c++)
+        {
+            int h = mInRange.add(mCandidates.id[c], mCandidates.hillname[c],
+                    mCandidates.longitude[c], mCandidates.latitude[c], mCandidates.height[c]);
+            mInRange.storeRow[h] = mCandidates.storeRow[c];
+            mInRange.SetDirection(h, curLatitude, curLongitude, curAltitude);
+            if (mInRange.distance[h] > maxdistance)
+            {
+                tooFar++;
+                mInRange.removeLast();
+            }
+            else if (mInRange.distance[h] < mindistance)
+            {
+                tooNear++;
+                mInRange.removeLast();
+            }
+            else
+            {
+                inRange++;
+                if (limited && !mBest.offer(h, ranking.score(mInRange, h)))
+                {
+                    // not in the top K; the slot is reused by the next candidate
+                    mInRange.removeLast();
+                }
+            }
+        }
+
+        HillSet localhills;
+        if (limited)
+        {
+            localhills = new HillSet(mBest.size());
+            for (int i = 0; i < mBest.size(); i++) localhills.resolveName(localhills.addFrom(mInRange, mBest.get(i)), mStore);
+        }
+        else
+        {
+            localhills = new HillSet(mInRange.size());
+            for (int h = 0; h < mInRange.size(); h++) localhills.resolveName(localhills.addFrom(mInRange, h), mStore);
+        }
+        Log.d("showmehills", "Added " + localhills.size() + " markers; skipped " + tooNear + " too near, " + tooFar + " too far" +
+                (limited ? ", " + (inRange - localhills.size()) + " not in the best " + limit : "") + ".");
+        mTooNear += tooNear;
+        mTooFar += tooFar;
+        mLastCandidates = mCandidates.size();
+        mLastKept = localhills.size();
+        mInRange.clear();
+
+        localhills.sortByDistance();
+        localhills.sortByBearing();
+        return localhills;
+    }
+
+    private void fetchBox(BoundingBox box, double curLatitude, double curLongitude,
+                          int minheight, int maxheight, int maxdistance) {
+        // the last box is as good a guess as any at how much a tile around this one holds
+        int previous = mCandidates.size();
+        mCandidates.clear();
+        if (mTileCache == null)
+        {
+            mRowsFetched += box.fetch(mStore, minheight, maxheight, mCandidates);
+            return;
+        }
+        HillTileCache.TileKey key = new HillTileCache.TileKey(mStore.getClass(), curLatitude, curLongitude,
+                minheight, maxheight, maxdistance);
+        HillSet tile = mTileCache.get(key);
+        if (tile == null)
+        {
+            tile = new HillSet(Math.max(previous, TILE_CAPACITY));
+            mRowsFetched += key.box().fetch(mStore, minheight, maxheight, tile);
+            mTileCache.put(key, tile);
+        }
+        // the tile covers the whole cell; keep just this observer's box so strips can be cut off it later
+        for (int c = 0; c < tile.size(); c++)
+        {
+            if (box.contains(tile.latitude[c], tile.longitude[c])) mCandidates.addFrom(tile, c);
+        }
+    }
+
+    // moves the cached box to the new one: drop what has left, fetch what has come in
+    private void updateCandidates(BoundingBox box) {
+        int kept = 0;
+        for (int c = 0; c < mCandidates.size(); c++)
+        {
+            if (box.contains(mCandidates.latitude[c], mCandidates.longitude[c])) mCandidates.copyRow(c, kept++);
+        }
+        mCandidates.truncate(kept);
+
+        // latitude strips across the full width of the new box, then longitude strips over
+        // the latitudes the two boxes share
+        double minLat = box.minLat, maxLat = box.maxLat, minLon = box.minLon[0], maxLon = box.maxLon[0];
+        double oldMinLon = mBox.minLon[0], oldMaxLon = mBox.maxLon[0];
+        if (minLat < mBox.minLat) fetchStrip(minLat, Math.min(mBox.minLat, maxLat), minLon, maxLon);
+        if (maxLat > mBox.maxLat) fetchStrip(Math.max(mBox.maxLat, minLat), maxLat, minLon, maxLon);
+        double overlapMin = Math.max(minLat, mBox.minLat);
+        double overlapMax = Math.min(maxLat, mBox.maxLat);
+        if (overlapMin <= overlapMax)
+        {
+            if (minLon < oldMinLon) fetchStrip(overlapMin, overlapMax, minLon, Math.min(oldMinLon, maxLon));
+            if (maxLon > oldMaxLon) fetchStrip(overlapMin, overlapMax, Math.max(oldMaxLon, minLon), maxLon);
+        }
+    }
+
+    private void fetchStrip(double minLat, double maxLat, double minLon, double maxLon) {
+        int first = mCandidates.size();
+        mRowsFetched += mStore.fetch(minLat, maxLat, minLon, maxLon, mMinheight, mMaxheight, mCandidates);
+        // the store's ranges are inclusive, so hills on the edge of the old box come back again
+        int kept = first;
+        for (int c = first; c < mCandidates.size(); c++)
+        {
+            if (!mBox.contains(mCandidates.latitude[c], mCandidates.longitude[c])) mCandidates.copyRow(c, kept++);
+        }
+        mCandidates.truncate(kept);
+    }
+
+    static double distanceKm(double lat1, double lon1, double lat2, double lon2) {
+        double dLat = Math.toRadians(lat2 - lat1);
+        double dLon = Math.toRadians(lon2 - lon1);
+        double a = Math.sin(dLat/2) * Math.sin(dLat/2) +
+                Math.cos(Math.toRadians(lat1)) * Math.cos(Math.toRadians(lat2)) *
+                Math.sin(dLon/2) * Math.sin(dLon/2);
+        return 6371 * 2 * Math.atan2(Math.sqrt(a), Math.sqrt(1-a));
+    }
+}
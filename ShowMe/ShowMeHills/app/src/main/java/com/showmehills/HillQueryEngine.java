@@ -0,0 +1,287 @@
+package com.showmehills;
+
+import android.location.Location;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.SystemClock;
+import android.util.Log;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+/*
+ * Runs hill queries on a dedicated thread so the UI thread never waits on the store.
+ * HillProjector does the work, reusing the previous fetch when the observer hasn't moved far.
+ *
+ * Each query builds a new HillSet which is wrapped in an immutable HillSnapshot and published with
+ * an atomic swap. Readers (DrawOnTop, the map markers) just take whatever getSnapshot() returns;
+ * they never see a set that is part way through being refilled. All calls into the IHillStore,
+ * including opening and closing it, happen on the query thread.
+ *
+ * With a LabelStyle set, each snapshot also carries a LabelPlacement for the camera view's labels,
+ * made on the query thread along with it, and a new style has the current snapshot placed again
+ * there rather than on the UI thread.
+ *
+ * Requests are coalesced, latest wins: while a query is running only the newest request is kept,
+ * and any it replaces are dropped without being run. Dragging a seekbar can ask for a query on
+ * every touch event without queueing up work that is already out of date by the time it runs.
+ */
+public class HillQueryEngine {
+
+    public interface OnSnapshotListener {
+        // called on the UI thread after a new snapshot has been published
+        void onHillSnapshot(HillSnapshot snapshot);
+    }
+
+    private final IHillStore mStore;
+    private final HillProjector mProjector;
+    private final ExecutorService mExecutor;
+    private final Handler mMainHandler = new Handler(Looper.getMainLooper());
+    private final AtomicReference<HillSnapshot> mSnapshot = new AtomicReference<>(HillSnapshot.EMPTY);
+    private volatile OnSnapshotListener mListener;
+    private final LabelPlacer mPlacer = new LabelPlacer(); // query thread only
+    private volatile LabelStyle mLabelStyle;
+
+    private final AtomicReference<QueryRequest> mPending = new AtomicReference<>();
+    private final AtomicBoolean mDrainScheduled = new AtomicBoolean(false);
+
+    // metrics
+    private final AtomicLong mRequested = new AtomicLong();
+    private final AtomicLong mSuperseded = new AtomicLong();
+    private final AtomicLong mCompleted = new AtomicLong();
+    private final AtomicLong mTotalQueryMillis = new AtomicLong();
+    private volatile long mMaxQueryMillis;
+    private volatile long mLastQueryMillis;
+    private volatile long mLastWaitMillis;
+
+    private static class QueryRequest {
+        final Location location;
+        final int minheight, maxheight, mindistance, maxdistance;
+        final int limit;
+        final HillRanking ranking;
+        final long requestedAt;
+
+        QueryRequest(Location location, int minheight, int maxheight, int mindistance, int maxdistance,
+                     int limit, HillRanking ranking) {
+            this.location = location;
+            this.minheight = minheight;
+            this.maxheight = maxheight;
+            this.mindistance = mindistance;
+            this.maxdistance = maxdistance;
+            this.limit = limit;
+            this.ranking = ranking;
+            this.requestedAt = SystemClock.uptimeMillis();
+        }
+    }
+
+    public static class Stats {
+        public final long requested;       // calls to requestQuery
+        public final long superseded;      // requests dropped because a newer one came in first
+        public final long completed;       // queries actually run
+        public final boolean pending;      // a request is waiting to run
+        public final long lastQueryMillis;
+        public final long avgQueryMillis;
+        public final long maxQueryMillis;
+        public final long lastWaitMillis;  // time the last request spent waiting for the query thread
+        public final long fullFetches;     // queries that fetched the whole bounding box
+        public final long incrementalFetches; // queries that only fetched the strips the box moved into
+        public final long rowsFetched;     // rows read from the store, in total
+        public final long tooNear;         // fetched rows dropped for being nearer than mindistance
+        public final long tooFar;          // fetched rows dropped for being in the corners of the box
+        public final int lastCandidates;   // rows the last query looked at
+        public final int lastKept;         // and how many of them it kept
+        public final int tileHits;         // full fetches answered by the shared HillTileCache
+        public final int tileMisses;
+
+        Stats(long requested, long superseded, long completed, boolean pending,
+              long lastQueryMillis, long avgQueryMillis, long maxQueryMillis, long lastWaitMillis,
+              long fullFetches, long incrementalFetches, long rowsFetched,
+              long tooNear, long tooFar, int lastCandidates, int lastKept, int tileHits, int tileMisses) {
+            this.requested = requested;
+            this.superseded = superseded;
+            this.completed = completed;
+            this.pending = pending;
+            this.lastQueryMillis = lastQueryMillis;
+            this.avgQueryMillis = avgQueryMillis;
+            this.maxQueryMillis = maxQueryMillis;
+            this.lastWaitMillis = lastWaitMillis;
+            this.fullFetches = fullFetches;
+            this.incrementalFetches = incrementalFetches;
+            this.rowsFetched = rowsFetched;
+            this.tooNear = tooNear;
+            this.tooFar = tooFar;
+            this.lastCandidates = lastCandidates;
+            this.lastKept = lastKept;
+            this.tileHits = tileHits;
+            this.tileMisses = tileMisses;
+        }
+
+        @Override
+        public String toString() {
+            return "requested " + requested + ", superseded " + superseded + ", completed " + completed +
+                    (pending ? ", 1 pending" : "") + "; query ms last " + lastQueryMillis + " avg " + avgQueryMillis +
+                    " max " + maxQueryMillis + "; last wait " + lastWaitMillis + "ms; fetches full " + fullFetches +
+                    " incremental " + incrementalFetches + ", rows " + rowsFetched + " (too near " + tooNear +
+                    ", too far " + tooFar + "); last query kept " + lastKept + " of " + lastCandidates +
+                    "; tile cache hits " + tileHits + " misses " + tileMisses;
+        }
+    }
+
+    private final Runnable mDrain = new Runnable() {
+        @Override
+        public void run() {
+            // clear the flag before taking the request, so anything that arrives while this
+            // query runs schedules another drain rather than being left behind
+            mDrainScheduled.set(false);
+            QueryRequest request = mPending.getAndSet(null);
+            if (request != null) runQuery(request);
+        }
+    };
+
+    public HillQueryEngine(IHillStore store) {
+        mStore = store;
+        mProjector = new HillProjector(store, HillTileCache.getInstance());
+        mExecutor = Executors.newSingleThreadExecutor(new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread t = new Thread(r, "HillQueryEngine");
+                t.setDaemon(true);
+                return t;
+            }
+        });
+    }
+
+    public void setOnSnapshotListener(OnSnapshotListener listener) {
+        mListener = listener;
+    }
+
+    // places the labels of this and every later snapshot in this style (see LabelPlacer)
+    public void setLabelStyle(final LabelStyle style) {
+        mLabelStyle = style;
+        if (mExecutor.isShutdown()) return;
+        mExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                HillSnapshot snapshot = mSnapshot.get();
+                // a later style or a new query will see to it
+                if (style != mLabelStyle || snapshot == HillSnapshot.EMPTY) return;
+                if (snapshot.placement != null && snapshot.placement.style == style) return;
+                HillSnapshot placed = snapshot.withPlacement(mPlacer.place(snapshot.hills, style));
+                if (mSnapshot.compareAndSet(snapshot, placed)) {
+                    notifyListener(placed);
+                }
+            }
+        });
+    }
+
+    public HillSnapshot getSnapshot() {
+        return mSnapshot.get();
+    }
+
+    public Stats getStats() {
+        long completed = mCompleted.get();
+        return new Stats(mRequested.get(), mSuperseded.get(), completed, mPending.get() != null,
+                mLastQueryMillis, completed > 0 ? mTotalQueryMillis.get() / completed : 0, mMaxQueryMillis, mLastWaitMillis,
+                mProjector.getFullFetches(), mProjector.getIncrementalFetches(), mProjector.getRowsFetched(),
+                mProjector.getTooNear(), mProjector.getTooFar(), mProjector.getLastCandidates(), mProjector.getLastKept(),
+                HillTileCache.getInstance().getHits(), HillTileCache.getInstance().getMisses());
+    }
+
+    // see HillProjector; the default is HillProjector.DEFAULT_REUSE_FRACTION
+    public void setReuseFraction(final float fraction) {
+        mExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                mProjector.setReuseFraction(fraction);
+            }
+        });
+    }
+
+    // opens the store (waiting for the database install if need be) off the UI thread
+    public void open() {
+        mExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                mStore.createDataBase();
+            }
+        });
+    }
+
+    public void close() {
+        mExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                mStore.close();
+                mProjector.invalidate();
+            }
+        });
+    }
+
+    // stops the query thread; the engine can't be used afterwards
+    public void shutdown() {
+        close();
+        mExecutor.shutdown();
+        mListener = null;
+    }
+
+    public void requestQuery(Location curLocation, int minheight, int maxheight, int mindistance, int maxdistance) {
+        requestQuery(curLocation, minheight, maxheight, mindistance, maxdistance, 0, null);
+    }
+
+    // only the best limit hills under ranking are kept (see HillProjector); 0 keeps them all
+    public void requestQuery(Location curLocation, int minheight, int maxheight, int mindistance, int maxdistance,
+                             int limit, HillRanking ranking) {
+        if (curLocation == null || mExecutor.isShutdown()) return;
+        mRequested.incrementAndGet();
+        QueryRequest request = new QueryRequest(curLocation, minheight, maxheight, mindistance, maxdistance, limit, ranking);
+        if (mPending.getAndSet(request) != null) {
+            mSuperseded.incrementAndGet();
+        }
+        if (mDrainScheduled.compareAndSet(false, true)) {
+            mExecutor.execute(mDrain);
+        }
+    }
+
+    private void runQuery(QueryRequest request) {
+        long start = SystemClock.uptimeMillis();
+        HillSet hills;
+        try {
+            Location loc = request.location;
+            hills = mProjector.project(loc.getLatitude(), loc.getLongitude(), loc.getAltitude(),
+                    request.minheight, request.maxheight, request.mindistance, request.maxdistance,
+                    request.limit, request.ranking);
+        } catch (RuntimeException e) {
+            Log.e("showmehills", "hill query failed: " + e.getMessage());
+            return;
+        }
+        LabelStyle style = mLabelStyle;
+        LabelPlacement placement = (style != null) ? mPlacer.place(hills, style) : null;
+        long end = SystemClock.uptimeMillis();
+        final HillSnapshot snapshot = new HillSnapshot(hills, request.location.getLatitude(), request.location.getLongitude(),
+                request.minheight, request.maxheight, request.mindistance, request.maxdistance, end, end - start, placement);
+        mSnapshot.set(snapshot);
+
+        mLastWaitMillis = start - request.requestedAt;
+        mLastQueryMillis = end - start;
+        if (mLastQueryMillis > mMaxQueryMillis) mMaxQueryMillis = mLastQueryMillis;
+        mTotalQueryMillis.addAndGet(mLastQueryMillis);
+        mCompleted.incrementAndGet();
+        notifyListener(snapshot);
+    }
+
+    private void notifyListener(final HillSnapshot snapshot) {
+        final OnSnapshotListener listener = mListener;
+        if (listener != null) {
+            mMainHandler.post(new Runnable() {
+                @Override
+                public void run() {
+                    listener.onHillSnapshot(snapshot);
+                }
+            });
+        }
+    }
+}
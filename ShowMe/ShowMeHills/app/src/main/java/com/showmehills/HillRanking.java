@@ -0,0 +1,33 @@
+package com.showmehills;
+
+/*
+ * How to pick which hills to keep when a query is limited to the best K. Higher scores win.
+ * The kept hills are still handed back nearest first whichever ranking picked them.
+ */
+public interface HillRanking {
+
+    double score(HillSet hills, int i);
+
+    HillRanking BY_DISTANCE = new HillRanking() {
+        @Override
+        public double score(HillSet hills, int i) {
+            return -hills.distance[i];
+        }
+    };
+
+    HillRanking BY_HEIGHT = new HillRanking() {
+        @Override
+        public double score(HillSet hills, int i) {
+            return hills.height[i];
+        }
+    };
+
+    // The database has no topographic prominence, so this stands in with metres of height per km
+    // of distance: a big hill further off can beat a small one close by.
+    HillRanking BY_PROMINENCE = new HillRanking() {
+        @Override
+        public double score(HillSet hills, int i) {
+            return hills.height[i] / (hills.distance[i] + 1);
+        }
+    };
+}
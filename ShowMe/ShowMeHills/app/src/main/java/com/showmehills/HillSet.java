@@ -0,0 +1,305 @@
+package com.showmehills;
+
+/*
+ * A set of hills stored as parallel primitive arrays rather than one object per hill, so a
+ * query allocates a handful of arrays however many hills it finds, and the per-frame scan in
+ * DrawOnTop walks contiguous memory.
+ *
+ * Hills are added in whatever order the store finds them; sortByDistance() fills order[] so
+ * that order[0] is the index of the nearest, and sortByBearing() fills byBearing[] in order of
+ * direction so inView() can find the hills in the camera's field of view with two binary
+ * searches rather than a pass over the whole set. Once a set has been published in a
+ * HillSnapshot nothing changes it.
+ */
+public class HillSet {
+
+    int size;
+    int[] id;
+    String[] hillname;
+    double[] latitude;
+    double[] longitude;
+    double[] height;
+    double[] direction;
+    double[] distance;
+    double[] visualElevation; // vertical angle looking at peak
+    int[] order;              // indices, nearest first
+    int[] byBearing;          // indices, in order of direction from 0 to 360
+    int[] storeRow;           // where the store can find the name of a hill added without one, or -1
+
+    public HillSet(int capacity) {
+        capacity = Math.max(capacity, 16);
+        id = new int[capacity];
+        hillname = new String[capacity];
+        latitude = new double[capacity];
+        longitude = new double[capacity];
+        height = new double[capacity];
+        direction = new double[capacity];
+        distance = new double[capacity];
+        visualElevation = new double[capacity];
+        order = new int[capacity];
+        byBearing = new int[capacity];
+        storeRow = new int[capacity];
+    }
+
+    public int size() {
+        return size;
+    }
+
+    // index of the hill that is rank'th nearest
+    public int byDistance(int rank) {
+        return order[rank];
+    }
+
+    public void clear() {
+        for (int i = 0; i < size; i++) hillname[i] = null;
+        size = 0;
+    }
+
+    // adds a hill and returns its index; call SetDirection(index, ...) before sorting
+    public int add(int _id, String n, double lon, double lat, double ht) {
+        if (size == id.length) grow();
+        int i = size++;
+        id[i] = _id;
+        hillname[i] = n;
+        longitude[i] = lon;
+        latitude[i] = lat;
+        height[i] = ht;
+        order[i] = i;
+        byBearing[i] = i;
+        storeRow[i] = -1;
+        return i;
+    }
+
+    // Adds a hill whose name is left in the store until it's wanted, at row (see
+    // IHillStore.getName), so hills that are fetched and then filtered out never have one decoded.
+    public int addUnnamed(int _id, int row, double lon, double lat, double ht) {
+        int i = add(_id, null, lon, lat, ht);
+        storeRow[i] = row;
+        return i;
+    }
+
+    // fills in the name of hill i from store if it was added without one
+    public void resolveName(int i, IHillStore store) {
+        if (hillname[i] == null && storeRow[i] >= 0) hillname[i] = store.getName(storeRow[i]);
+    }
+
+    // adds a copy of hill i of another set, direction and all; returns its index here
+    public int addFrom(HillSet src, int i) {
+        int h = add(src.id[i], src.hillname[i], src.longitude[i], src.latitude[i], src.height[i]);
+        storeRow[h] = src.storeRow[i];
+        direction[h] = src.direction[i];
+        distance[h] = src.distance[i];
+        visualElevation[h] = src.visualElevation[i];
+        return h;
+    }
+
+    // drops the hill most recently added, eg. when it turns out to be out of range
+    public void removeLast() {
+        size--;
+        hillname[size] = null;
+    }
+
+    // moves hill 'from' into slot 'to', for compacting a set in place; call truncate() after
+    public void copyRow(int from, int to) {
+        id[to] = id[from];
+        hillname[to] = hillname[from];
+        storeRow[to] = storeRow[from];
+        latitude[to] = latitude[from];
+        longitude[to] = longitude[from];
+        height[to] = height[from];
+        direction[to] = direction[from];
+        distance[to] = distance[from];
+        visualElevation[to] = visualElevation[from];
+    }
+
+    public void truncate(int newSize) {
+        for (int i = newSize; i < size; i++) hillname[i] = null;
+        size = newSize;
+    }
+
+    private void grow() {
+        int capacity = id.length * 2;
+        id = copyOf(id, capacity);
+        order = copyOf(order, capacity);
+        byBearing = copyOf(byBearing, capacity);
+        storeRow = copyOf(storeRow, capacity);
+        latitude = copyOf(latitude, capacity);
+        longitude = copyOf(longitude, capacity);
+        height = copyOf(height, capacity);
+        direction = copyOf(direction, capacity);
+        distance = copyOf(distance, capacity);
+        visualElevation = copyOf(visualElevation, capacity);
+        String[] names = new String[capacity];
+        System.arraycopy(hillname, 0, names, 0, size);
+        hillname = names;
+    }
+
+    private static int[] copyOf(int[] a, int length) {
+        int[] b = new int[length];
+        System.arraycopy(a, 0, b, 0, a.length);
+        return b;
+    }
+
+    private static double[] copyOf(double[] a, int length) {
+        double[] b = new double[length];
+        System.arraycopy(a, 0, b, 0, a.length);
+        return b;
+    }
+
+    // sets direction, distance and visualElevation of hill i as seen from the given position
+    public void SetDirection(int i, double curLatitude, double curLongitude, double curAltitude)
+    {
+        double dLat = Math.toRadians(latitude[i] - curLatitude);
+        double dLon = Math.toRadians(longitude[i] - curLongitude);
+        double lat1 = Math.toRadians(curLatitude);
+        double lat2 = Math.toRadians(latitude[i]);
+
+        // direction calculation
+        double y = Math.sin(dLon) * Math.cos(lat2);
+        double x = Math.cos(lat1)*Math.sin(lat2) -
+                Math.sin(lat1)*Math.cos(lat2)*Math.cos(dLon);
+        double brng = Math.atan2(y, x)  * 180 / Math.PI;
+
+        direction[i] = (brng<0)?brng+360:brng;
+
+        // distance calculation
+        double a = Math.sin(dLat/2) * Math.sin(dLat/2) +
+                Math.cos(lat2) * Math.cos(lat1) *
+                Math.sin(dLon/2) * Math.sin(dLon/2);
+        double c = 2 * Math.atan2(Math.sqrt(a), Math.sqrt(1-a));
+        distance[i] = Math.floor(10 * 6371 * c) / 10.0; // Distance in km
+
+        // vertical angle
+        double dheight = height[i] - curAltitude;
+
+        visualElevation[i] = Math.atan2(dheight, distance[i]*1000);
+    }
+
+    // fills order[] with the hill indices, nearest first
+    public void sortByDistance() {
+        for (int i = 0; i < size; i++) order[i] = i;
+        sort(order, distance, 0, size - 1);
+    }
+
+    // fills byBearing[] with the hill indices in order of direction
+    public void sortByBearing() {
+        for (int i = 0; i < size; i++) byBearing[i] = i;
+        sort(byBearing, direction, 0, size - 1);
+    }
+
+    // Writes the indices of the hills less than half of fov either side of heading (degrees,
+    // 0..360) into out, in order of direction, and returns how many. Needs sortByBearing().
+    public int inView(double heading, double fov, int[] out) {
+        if (fov <= 0) return 0;
+        if (fov >= 360) {
+            System.arraycopy(byBearing, 0, out, 0, size);
+            return size;
+        }
+        double from = (heading - fov / 2 + 360) % 360;
+        double to = (heading + fov / 2) % 360;
+        int first = firstBearingAfter(from, false);
+        int last = firstBearingAfter(to, true);
+        if (from < to) {
+            System.arraycopy(byBearing, first, out, 0, last - first);
+            return last - first;
+        }
+        // the view spans north: the end of the list and then the start
+        System.arraycopy(byBearing, first, out, 0, size - first);
+        System.arraycopy(byBearing, 0, out, size - first, last);
+        return size - first + last;
+    }
+
+    // As inView(), but only the nearest max of them, nearest first. Needs both sorts.
+    public int nearestInView(double heading, double fov, int max, int[] out) {
+        if (max <= 0) return 0;
+        int inView = countInView(heading, fov);
+        if (inView == 0) return 0;
+        int wanted = Math.min(max, inView);
+
+        // Walking the whole set nearest first finds them after looking at about size*wanted/inView
+        // hills, which is quickest when most of what's loaded is in view or only a few labels
+        // fit. Otherwise sort just the ones in view, which costs about inView*log(inView).
+        double walk = (double)size * wanted / inView;
+        double sort = inView * (1 + Math.log(inView) / Math.log(2));
+        if (walk <= sort) {
+            int n = 0;
+            for (int r = 0; r < size && n < wanted; r++) {
+                int i = order[r];
+                if (Math.abs(offset(i, heading)) * 2 < fov) out[n++] = i;
+            }
+            return n;
+        }
+        inView = inView(heading, fov, out);
+        sort(out, distance, 0, inView - 1);
+        return wanted;
+    }
+
+    // how many hills inView() would return, without copying them
+    public int countInView(double heading, double fov) {
+        if (fov <= 0) return 0;
+        if (fov >= 360) return size;
+        double from = (heading - fov / 2 + 360) % 360;
+        double to = (heading + fov / 2) % 360;
+        int first = firstBearingAfter(from, false);
+        int last = firstBearingAfter(to, true);
+        return (from < to) ? last - first : size - first + last;
+    }
+
+    // position in byBearing[] of the first hill with a direction above (or from, if inclusive) bearing
+    private int firstBearingAfter(double bearing, boolean inclusive) {
+        int lo = 0, hi = size;
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            double d = direction[byBearing[mid]];
+            if (d < bearing || (!inclusive && d == bearing)) lo = mid + 1; else hi = mid;
+        }
+        return lo;
+    }
+
+    // the angle from heading round to the direction of hill i, -180..180 degrees; positive is right
+    public double offset(int i, double heading) {
+        double d = direction[i] - heading;
+        if (d > 180) d -= 360;
+        if (d <= -180) d += 360;
+        return d;
+    }
+
+    // quicksort of indices by key, without boxing or a Comparator. Equal keys go in order of index,
+    // so any subset sorts the same way as the whole set did.
+    static void sort(int[] idx, double[] key, int lo, int hi) {
+        while (hi - lo > 12) {
+            int pivot = idx[(lo + hi) >>> 1];
+            int i = lo, j = hi;
+            while (i <= j) {
+                while (before(idx[i], pivot, key)) i++;
+                while (before(pivot, idx[j], key)) j--;
+                if (i <= j) {
+                    int t = idx[i]; idx[i] = idx[j]; idx[j] = t;
+                    i++;
+                    j--;
+                }
+            }
+            // recurse into the smaller half, loop on the larger
+            if (j - lo < hi - i) {
+                sort(idx, key, lo, j);
+                lo = i;
+            } else {
+                sort(idx, key, i, hi);
+                hi = j;
+            }
+        }
+        for (int i = lo + 1; i <= hi; i++) {
+            int t = idx[i];
+            int j = i - 1;
+            while (j >= lo && before(t, idx[j], key)) {
+                idx[j + 1] = idx[j];
+                j--;
+            }
+            idx[j + 1] = t;
+        }
+    }
+
+    private static boolean before(int a, int b, double[] key) {
+        return key[a] < key[b] || key[a] == key[b] && a < b;
+    }
+}
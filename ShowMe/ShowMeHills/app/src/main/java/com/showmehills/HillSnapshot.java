@@ -0,0 +1,49 @@
+package com.showmehills;
+
+/*
+ * The result of one hill query. Never changed once published by HillQueryEngine, so the
+ * overlay can keep drawing from it while the next query runs. Nothing writes to the HillSet
+ * after it has been handed over here.
+ */
+public class HillSnapshot {
+
+    static final HillSnapshot EMPTY = new HillSnapshot(new HillSet(0), 0, 0, 0, 0, 0, 0, 0, 0);
+
+    final HillSet hills;     // sorted nearest first
+    final double latitude;
+    final double longitude;
+    final int minheight;
+    final int maxheight;
+    final int mindistance;
+    final int maxdistance;
+    final long timestamp;    // SystemClock.uptimeMillis() when the query finished
+    final long queryMillis;
+    final LabelPlacement placement; // for the camera view's labels, or null if it has no LabelStyle yet
+
+    HillSnapshot(HillSet hills, double latitude, double longitude,
+                 int minheight, int maxheight, int mindistance, int maxdistance,
+                 long timestamp, long queryMillis) {
+        this(hills, latitude, longitude, minheight, maxheight, mindistance, maxdistance, timestamp, queryMillis, null);
+    }
+
+    HillSnapshot(HillSet hills, double latitude, double longitude,
+                 int minheight, int maxheight, int mindistance, int maxdistance,
+                 long timestamp, long queryMillis, LabelPlacement placement) {
+        this.hills = hills;
+        this.latitude = latitude;
+        this.longitude = longitude;
+        this.minheight = minheight;
+        this.maxheight = maxheight;
+        this.mindistance = mindistance;
+        this.maxdistance = maxdistance;
+        this.timestamp = timestamp;
+        this.queryMillis = queryMillis;
+        this.placement = placement;
+    }
+
+    // the same hills, with their labels placed again
+    HillSnapshot withPlacement(LabelPlacement placement) {
+        return new HillSnapshot(hills, latitude, longitude, minheight, maxheight, mindistance, maxdistance,
+                timestamp, queryMillis, placement);
+    }
+}
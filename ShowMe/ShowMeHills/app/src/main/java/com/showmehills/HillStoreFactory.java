@@ -0,0 +1,18 @@
+package com.showmehills;
+
+import android.content.Context;
+import android.util.Log;
+
+public class HillStoreFactory {
+
+    // Uses the memory mapped peak store if the apk has one, otherwise the SQLite database.
+    // HillInfo always uses HillDatabase since it needs the columns the peak store leaves out.
+    public static IHillStore open(Context context) {
+        MappedHillStore peaks = MappedHillStore.openAsset(context, context.getString(R.string.peakstorename));
+        if (peaks != null) {
+            Log.d("showmehills", "Using peak store " + context.getString(R.string.peakstorename));
+            return peaks;
+        }
+        return new HillDatabase(context, context.getString(R.string.dbname), context.getString(R.string.dbpath));
+    }
+}
@@ -0,0 +1,132 @@
+package com.showmehills;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/*
+ * Candidate hills for recent queries, shared by every HillProjector in the process so flipping
+ * between the camera and map views, pausing and resuming, or dragging a seekbar back to where it
+ * was doesn't go back to the store.
+ *
+ * The observer's position is snapped to a grid cell of CELL_KM, and an entry holds the candidates
+ * around the whole cell for one set of height limits and search radius, so any observer in the
+ * same cell with the same filters can use it. Entries are never changed once they are in the
+ * cache. Eviction is least recently used, by total number of hills held. It's a LinkedHashMap in
+ * access order rather than android.util.LruCache, so the same code runs in the JVM tests.
+ */
+public class HillTileCache {
+
+    static final double CELL_KM = 2;
+    private static final double CELL_DEGREES = CELL_KM / 111.0;
+    private static final int MAX_HILLS = 60000;
+
+    private static HillTileCache sInstance;
+
+    private final int mMaxHills;
+    // least recently used first
+    private final LinkedHashMap<TileKey, HillSet> mTiles = new LinkedHashMap<>(16, 0.75f, true);
+    private int mSize;
+    private int mHits, mMisses, mEvictions;
+
+    public static synchronized HillTileCache getInstance() {
+        if (sInstance == null) {
+            sInstance = new HillTileCache(MAX_HILLS);
+        }
+        return sInstance;
+    }
+
+    HillTileCache(int maxHills) {
+        mMaxHills = maxHills;
+    }
+
+    private static int sizeOf(HillSet hills) {
+        // an empty tile still costs an entry
+        return Math.max(1, hills.size());
+    }
+
+    static final class TileKey {
+        final Class<?> source;
+        final int cellLat, cellLon;
+        final int minheight, maxheight, maxdistance;
+
+        TileKey(Class<?> source, double latitude, double longitude, int minheight, int maxheight, int maxdistance) {
+            this.source = source;
+            this.cellLat = (int)Math.floor(latitude / CELL_DEGREES);
+            this.cellLon = (int)Math.floor(longitude / CELL_DEGREES);
+            this.minheight = minheight;
+            this.maxheight = maxheight;
+            this.maxdistance = maxdistance;
+        }
+
+        // the box an entry has to cover: everything within maxdistance of any point in the cell
+        BoundingBox box() {
+            double lat = (cellLat + 0.5) * CELL_DEGREES;
+            double lon = (cellLon + 0.5) * CELL_DEGREES;
+            // the cell is at most CELL_KM across, so its corners are within CELL_KM of the centre
+            return BoundingBox.around(lat, lon, maxdistance + 0.1 + CELL_KM);
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof TileKey)) return false;
+            TileKey k = (TileKey)o;
+            return source == k.source && cellLat == k.cellLat && cellLon == k.cellLon
+                    && minheight == k.minheight && maxheight == k.maxheight && maxdistance == k.maxdistance;
+        }
+
+        @Override
+        public int hashCode() {
+            int h = source.hashCode();
+            h = 31 * h + cellLat;
+            h = 31 * h + cellLon;
+            h = 31 * h + minheight;
+            h = 31 * h + maxheight;
+            h = 31 * h + maxdistance;
+            return h;
+        }
+    }
+
+    // the candidates for the key's cell, or null if they need fetching
+    synchronized HillSet get(TileKey key) {
+        HillSet hills = mTiles.get(key);
+        if (hills == null) mMisses++; else mHits++;
+        return hills;
+    }
+
+    // hills must not be changed after this
+    synchronized void put(TileKey key, HillSet hills) {
+        HillSet old = mTiles.put(key, hills);
+        mSize += sizeOf(hills);
+        if (old != null) mSize -= sizeOf(old);
+        // drop the least recently used until it fits
+        Iterator<Map.Entry<TileKey, HillSet>> eldest = mTiles.entrySet().iterator();
+        while (mSize > mMaxHills && eldest.hasNext()) {
+            mSize -= sizeOf(eldest.next().getValue());
+            eldest.remove();
+            mEvictions++;
+        }
+    }
+
+    public synchronized void clear() {
+        mTiles.clear();
+        mSize = 0;
+    }
+
+    public synchronized int getHits() {
+        return mHits;
+    }
+
+    public synchronized int getMisses() {
+        return mMisses;
+    }
+
+    public synchronized int getEvictions() {
+        return mEvictions;
+    }
+
+    // hills held, across all tiles
+    public synchronized int getSize() {
+        return mSize;
+    }
+}
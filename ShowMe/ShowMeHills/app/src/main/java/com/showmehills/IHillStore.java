@@ -0,0 +1,19 @@
+package com.showmehills;
+
+/*
+ * Somewhere to look up hills near a location. HillDatabase does it with SQLite, MappedHillStore
+ * with a memory mapped columnar file made by Database/tools/peakstore/dbtopeaks.py.
+ */
+public interface IHillStore {
+
+	void createDataBase();
+	boolean checkDataBase();
+	// Not thread safe; HillQueryEngine makes all the calls from its own thread. Appends the hills
+	// inside the box and height limits to out, leaving their directions unset (HillProjector
+	// works those out), and returns how many were added.
+	int fetch(double minLat, double maxLat, double minLon, double maxLon, int minheight, int maxheight, HillSet out);
+	// The name of a hill fetch() added with HillSet.addUnnamed, from the row it gave. Same thread
+	// rules as fetch().
+	String getName(int row);
+	void close();
+}
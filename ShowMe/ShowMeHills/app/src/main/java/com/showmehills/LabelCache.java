@@ -0,0 +1,230 @@
+package com.showmehills;
+
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+import android.graphics.Paint;
+import android.graphics.Rect;
+import android.graphics.Typeface;
+import android.util.LruCache;
+
+import java.util.Arrays;
+
+/*
+ * Hill labels for the camera overlay, rendered once into bitmaps so a frame just blits them
+ * rather than laying out and stroking every name and its " (dir dist height)" line again.
+ *
+ * A label is keyed by hill id, text size, alphas and which extra info is shown, since each of those
+ * changes the pixels. The info text also depends on where we are, so an entry remembers the
+ * rounded values it was made from and is rendered again when a new fix changes them. Eviction is
+ * least recently used, by bitmap bytes. In front of that is a small table of the labels used most
+ * recently, looked up by the key as a long, so steady frames never box a key to ask the LruCache.
+ *
+ * For the UI thread only.
+ */
+public class LabelCache {
+
+    static final int SHOW_DIR = 1;
+    static final int SHOW_DIST = 2;
+    static final int SHOW_HEIGHT = 4;
+    static final int METRIC = 8;
+
+    private static final int MAX_BYTES = 8 * 1024 * 1024;
+    // room around the text for the stroke
+    private static final int PAD = 2;
+    private static final float STROKE_WIDTH = 2;
+    // a power of two; a few frames' worth of labels
+    private static final int RECENT = 128;
+
+    static final class Label {
+        long key;
+        Bitmap bitmap;
+        // where the bitmap's top left goes, from the label's anchor: the centre of the text at the
+        // bottom of its lines, as DrawOnTop positions them
+        int left, top;
+        // the touch region, from the anchor
+        final Rect bounds = new Rect();
+
+        // what the text was made from
+        int dirTenths, distTenths, height;
+        boolean moreinfo;
+    }
+
+    private final LruCache<Long, Label> mLabels;
+    private final Paint mTextPaint = new Paint();
+    private final Paint mStrokePaint = new Paint();
+    private final Rect mTextBounds = new Rect();
+    private final Label[] mRecent = new Label[RECENT];
+
+    public LabelCache() {
+        mLabels = new LruCache<Long, Label>(MAX_BYTES) {
+            @Override
+            protected int sizeOf(Long key, Label label) {
+                return label.bitmap.getByteCount();
+            }
+        };
+
+        // as DrawOnTop draws text
+        mTextPaint.setTextAlign(Paint.Align.CENTER);
+        mTextPaint.setTypeface(Typeface.DEFAULT_BOLD);
+
+        mStrokePaint.setTextAlign(Paint.Align.CENTER);
+        mStrokePaint.setTypeface(Typeface.DEFAULT_BOLD);
+        mStrokePaint.setStyle(Paint.Style.STROKE);
+        mStrokePaint.setStrokeWidth(STROKE_WIDTH);
+    }
+
+    static int flags(boolean showdir, boolean showdist, boolean showheight, boolean metric) {
+        return (showdir ? SHOW_DIR : 0) | (showdist ? SHOW_DIST : 0) | (showheight ? SHOW_HEIGHT : 0) | (metric ? METRIC : 0);
+    }
+
+    static long key(int id, float textsize, int alpha, int strokeAlpha, int flags) {
+        // text size to a quarter of a pixel
+        long size = Math.round(textsize * 4) & 0xfff;
+        return ((long)id << 32) | (size << 20) | ((alpha & 0xff) << 12) | ((strokeAlpha & 0xff) << 4) | (flags & 0xf);
+    }
+
+    // the label for a hill, direction in degrees, distance in km and height in metres; drawn with
+    // a paint of the given alpha it looks as text and stroke drawn with their own alphas
+    public Label get(int id, String name, float textsize, int alpha, int strokeAlpha, int flags,
+                     double direction, double distance, double height) {
+        boolean metric = (flags & METRIC) != 0;
+        int dirTenths = (int)Math.floor(10 * direction);
+        int distTenths = distanceTenths(distance, metric);
+        int units = heightUnits(height, metric);
+        boolean moreinfo = moreinfo(flags, height);
+
+        long key = key(id, textsize, alpha, strokeAlpha, flags);
+        int slot = recentSlot(key);
+        Label label = mRecent[slot];
+        if (label == null || label.key != key) {
+            label = mLabels.get(key);
+        }
+        if (label != null && label.moreinfo == moreinfo && (!moreinfo || label.dirTenths == dirTenths
+                && label.distTenths == distTenths && label.height == units)) {
+            mRecent[slot] = label;
+            return label;
+        }
+
+        label = new Label();
+        label.key = key;
+        label.dirTenths = dirTenths;
+        label.distTenths = distTenths;
+        label.height = units;
+        label.moreinfo = moreinfo;
+        render(label, name, moreinfo ? infoText(flags, dirTenths, distTenths, units, height > 0) : null, textsize, alpha, strokeAlpha);
+        mLabels.put(key, label);
+        mRecent[slot] = label;
+        return label;
+    }
+
+    private static int recentSlot(long key) {
+        int h = (int)(key >>> 32) * 31 + (int)key;
+        return (h ^ (h >>> 16)) & (RECENT - 1);
+    }
+
+    static boolean moreinfo(int flags, double height) {
+        return (flags & (SHOW_DIR | SHOW_DIST)) != 0 || (flags & SHOW_HEIGHT) != 0 && height > 0;
+    }
+
+    private static int distanceTenths(double distance, boolean metric) {
+        return (int)Math.floor(10 * distance * (metric ? 1 : 0.621371));
+    }
+
+    private static int heightUnits(double height, boolean metric) {
+        return metric ? (int)height : (int)(height * 3.2808399);
+    }
+
+    // the line under the name for a hill, direction in degrees, distance in km and height in metres
+    static String infoText(int flags, double direction, double distance, double height) {
+        boolean metric = (flags & METRIC) != 0;
+        return infoText(flags, (int)Math.floor(10 * direction), distanceTenths(distance, metric),
+                heightUnits(height, metric), height > 0);
+    }
+
+    // the line under the name, as DrawOnTop used to build it
+    static String infoText(int flags, int dirTenths, int distTenths, int units, boolean hasHeight) {
+        boolean showdir = (flags & SHOW_DIR) != 0;
+        boolean showdist = (flags & SHOW_DIST) != 0;
+        boolean metric = (flags & METRIC) != 0;
+        String marker = " (";
+        if (showdir)
+        {
+            marker += dirTenths / 10.0 + "\u00B0";
+        }
+        if (showdist)
+        {
+            marker += (showdir ? " " : "") + distTenths / 10.0;
+            if (metric) marker += "km"; else marker += "miles";
+        }
+        if ((flags & SHOW_HEIGHT) != 0 && hasHeight)
+        {
+            marker += ((showdir || showdist) ? " " : "") + units + (metric ? "m" : "ft");
+        }
+        marker += ")";
+        return marker;
+    }
+
+    private void render(Label label, String name, String info, float textsize, int alpha, int strokeAlpha) {
+        mTextPaint.setTextSize(textsize);
+        mStrokePaint.setTextSize(textsize);
+        Paint.FontMetrics fm = mStrokePaint.getFontMetrics();
+
+        // baselines from the anchor, as DrawOnTop draws them
+        float nameBaseline = -((info != null) ? textsize : 0) - 5;
+        float infoBaseline = -5;
+
+        float width = mStrokePaint.measureText(name);
+        if (info != null) width = Math.max(width, mStrokePaint.measureText(info));
+        int halfWidth = (int)Math.ceil(width / 2 + STROKE_WIDTH) + PAD;
+        label.left = -halfWidth;
+        label.top = (int)Math.floor(nameBaseline + fm.ascent - STROKE_WIDTH) - PAD;
+        int bottom = (int)Math.ceil(((info != null) ? infoBaseline : nameBaseline) + fm.descent + STROKE_WIDTH) + PAD;
+
+        label.bitmap = Bitmap.createBitmap(2 * halfWidth, bottom - label.top, Bitmap.Config.ARGB_8888);
+        Canvas canvas = new Canvas(label.bitmap);
+        canvas.translate(halfWidth, -label.top);
+
+        // the whole label is faded by the paint it's drawn with, so bake in how much more the
+        // stroke is faded than the fill
+        mTextPaint.setARGB(255, 255, 255, 255);
+        mStrokePaint.setARGB(Math.min(255, 255 * strokeAlpha / Math.max(alpha, 1)), 0, 0, 0);
+        canvas.drawText(name, 0, nameBaseline, mStrokePaint);
+        canvas.drawText(name, 0, nameBaseline, mTextPaint);
+        if (info != null) {
+            canvas.drawText(info, 0, infoBaseline, mStrokePaint);
+            canvas.drawText(info, 0, infoBaseline, mTextPaint);
+        }
+
+        // the touch region is the name's bounds, reaching down to the last line
+        mStrokePaint.getTextBounds(name, 0, name.length(), mTextBounds);
+        int shift = (int)Math.floor(-mTextPaint.measureText(name) / 2.0);
+        label.bounds.set(mTextBounds.left + shift, mTextBounds.top + (int)infoBaseline - ((info != null) ? (int)textsize : 0),
+                mTextBounds.right + shift, mTextBounds.bottom + (int)infoBaseline);
+    }
+
+    // Measures labels as they are rendered here, for LabelPlacer on the query thread. It has a
+    // paint of its own, so it doesn't need the UI thread.
+    static final class PaintMeasure implements LabelPlacer.Measure {
+        private final Paint mPaint = new Paint();
+
+        PaintMeasure() {
+            mPaint.setTypeface(Typeface.DEFAULT_BOLD);
+        }
+
+        @Override
+        public synchronized float width(HillSet hills, int i, float textsize, int flags) {
+            mPaint.setTextSize(textsize);
+            float width = mPaint.measureText(hills.hillname[i]);
+            if (moreinfo(flags, hills.height[i])) {
+                String info = infoText(flags, hills.direction[i], hills.distance[i], hills.height[i]);
+                width = Math.max(width, mPaint.measureText(info));
+            }
+            return width + 2 * STROKE_WIDTH;
+        }
+    }
+
+    public void clear() {
+        Arrays.fill(mRecent, null);
+        mLabels.evictAll();
+    }
+}
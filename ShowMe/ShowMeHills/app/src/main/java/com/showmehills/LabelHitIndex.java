@@ -0,0 +1,149 @@
+package com.showmehills;
+
+import java.util.Arrays;
+
+/*
+ * The labels on the camera view, for finding the one a touch was meant for. It's made from where
+ * the labels were drawn at one heading, and a touch at another heading is slid back to it, just as
+ * the labels are slid.
+ *
+ * The screen is cut into columns COLUMN_PX wide, each listing the labels within TOLERANCE_PX of it,
+ * so a lookup only looks at the labels stacked above the touch, however many there are in all.
+ * Never changed once built, so the touch handler can use whichever one was published last without
+ * caring what the drawing is doing.
+ */
+public class LabelHitIndex {
+
+    static final int COLUMN_PX = 32;
+    // how far off a label a touch can be and still pick it
+    static final int TOLERANCE_PX = 24;
+
+    static final LabelHitIndex EMPTY = new LabelHitIndex(0, 1, 0, 0, new int[] { 0 }, new int[0],
+            new int[0], new int[0], new int[0], new int[0], new int[0]);
+
+    // the heading and field of view the labels were drawn at, and the screen width they were drawn for
+    private final double mHeading, mHfov;
+    private final int mWidth;
+
+    // column c starts at mOrigin + c * COLUMN_PX and lists labels mEntries[mColumnStart[c]..mColumnStart[c + 1]]
+    private final int mOrigin;
+    private final int[] mColumnStart;
+    private final int[] mEntries;
+
+    // for each label, in the order they were drawn
+    private final int[] mId, mLeft, mTop, mRight, mBottom;
+
+    private LabelHitIndex(double heading, double hfov, int width, int origin, int[] columnStart, int[] entries,
+                          int[] id, int[] left, int[] top, int[] right, int[] bottom) {
+        mHeading = heading;
+        mHfov = hfov;
+        mWidth = width;
+        mOrigin = origin;
+        mColumnStart = columnStart;
+        mEntries = entries;
+        mId = id;
+        mLeft = left;
+        mTop = top;
+        mRight = right;
+        mBottom = bottom;
+    }
+
+    public int size() {
+        return mId.length;
+    }
+
+    // The id of the hill whose label is nearest (x, y) with the phone pointing at heading, or -1 if
+    // none is within TOLERANCE_PX. A touch on two labels at once goes to the one drawn on top.
+    public int find(float x, float y, double heading) {
+        double d = heading - mHeading;
+        if (d > 180) d -= 360;
+        if (d <= -180) d += 360;
+        // back to where the labels were drawn
+        double lx = x + mWidth * d / mHfov;
+        int c = (int)Math.floor((lx - mOrigin) / COLUMN_PX);
+        if (c < 0 || c >= mColumnStart.length - 1) return -1;
+
+        int best = -1;
+        double bestDist = (double)TOLERANCE_PX * TOLERANCE_PX;
+        for (int e = mColumnStart[c]; e < mColumnStart[c + 1]; e++) {
+            int i = mEntries[e];
+            double dx = Math.max(0, Math.max(mLeft[i] - lx, lx - mRight[i]));
+            double dy = Math.max(0, Math.max(mTop[i] - y, y - mBottom[i]));
+            double dist = dx * dx + dy * dy;
+            // entries are in drawing order, so later ones are on top
+            if (dist <= bestDist) {
+                best = i;
+                bestDist = dist;
+            }
+        }
+        return best < 0 ? -1 : mId[best];
+    }
+
+    /*
+     * Collects the labels as they are drawn. Its arrays are kept and only grow, so collecting
+     * allocates nothing once they're big enough; only build() does.
+     */
+    public static class Builder {
+        private int mCount;
+        private int[] mId = new int[0], mLeft = new int[0], mTop = new int[0], mRight = new int[0], mBottom = new int[0];
+
+        public Builder clear() {
+            mCount = 0;
+            return this;
+        }
+
+        public void add(int id, int left, int top, int right, int bottom) {
+            if (mCount == mId.length) {
+                int n = Math.max(16, mCount * 2);
+                mId = Arrays.copyOf(mId, n);
+                mLeft = Arrays.copyOf(mLeft, n);
+                mTop = Arrays.copyOf(mTop, n);
+                mRight = Arrays.copyOf(mRight, n);
+                mBottom = Arrays.copyOf(mBottom, n);
+            }
+            mId[mCount] = id;
+            mLeft[mCount] = left;
+            mTop[mCount] = top;
+            mRight[mCount] = right;
+            mBottom[mCount] = bottom;
+            mCount++;
+        }
+
+        // the labels added since clear(), drawn at heading for a screen width pixels across
+        public LabelHitIndex build(double heading, double hfov, int width) {
+            int n = mCount;
+            if (n == 0) return new LabelHitIndex(heading, hfov, width, 0, new int[] { 0 }, new int[0],
+                    new int[0], new int[0], new int[0], new int[0], new int[0]);
+
+            int lo = Integer.MAX_VALUE, hi = Integer.MIN_VALUE;
+            for (int i = 0; i < n; i++) {
+                lo = Math.min(lo, mLeft[i]);
+                hi = Math.max(hi, mRight[i]);
+            }
+            int origin = lo - TOLERANCE_PX;
+            int columns = (hi + TOLERANCE_PX - origin) / COLUMN_PX + 1;
+
+            // count each column's labels, then fill them in, as a compressed sparse row
+            int[] start = new int[columns + 1];
+            for (int i = 0; i < n; i++) {
+                for (int c = firstColumn(i, origin); c <= lastColumn(i, origin); c++) start[c + 1]++;
+            }
+            for (int c = 0; c < columns; c++) start[c + 1] += start[c];
+            int[] entries = new int[start[columns]];
+            int[] next = Arrays.copyOf(start, columns);
+            for (int i = 0; i < n; i++) {
+                for (int c = firstColumn(i, origin); c <= lastColumn(i, origin); c++) entries[next[c]++] = i;
+            }
+            return new LabelHitIndex(heading, hfov, width, origin, start, entries, Arrays.copyOf(mId, n),
+                    Arrays.copyOf(mLeft, n), Arrays.copyOf(mTop, n), Arrays.copyOf(mRight, n), Arrays.copyOf(mBottom, n));
+        }
+
+        private int firstColumn(int i, int origin) {
+            return (mLeft[i] - TOLERANCE_PX - origin) / COLUMN_PX;
+        }
+
+        private int lastColumn(int i, int origin) {
+            return (mRight[i] + TOLERANCE_PX - origin) / COLUMN_PX;
+        }
+    }
+}
@@ -0,0 +1,231 @@
+package com.showmehills;
+
+/*
+ * Where the hill labels go on the camera overlay. Given a LabelPlacement, the labels are the
+ * placed ones in view. Until one is ready for the current settings, the nearest hills in view are
+ * stacked up the screen from the given height, one to a row, each label a step smaller than the
+ * one below it, until they run out of room.
+ *
+ * Which hills get labels, and where their labels sit in the stack, only change when the edge of
+ * the view passes a hill that matters: one with a label, or one near enough to take a label's
+ * place. So a layout is made for one heading along with the range of headings it holds for, and
+ * while the phone turns within that range the labels just slide across the screen; see covers()
+ * and shift(). Everything is in angles, so only the drawing needs to know about pixels.
+ *
+ * The result is left in arrays that are kept from one layout to the next and only grow, so once
+ * they are big enough nothing is allocated. For the UI thread only.
+ */
+public class LabelLayout {
+
+    static final float TEXT_SIZE_DECREMENT = 1;
+    static final float TEXT_SIZE_MIN = 7;
+
+    // the set the labels index into, and how many there are
+    HillSet hills;
+    int count;
+    // the top of the stack, adjusted so the smallest text isn't clipped
+    int top;
+    // goes up by one with every layout, for anything drawn from one
+    int generation;
+
+    // for each label, nearest first, or by priority when from a placement
+    int[] hill = new int[0];          // index into hills
+    double[] ratio = new double[0];   // across the screen from its centre, in widths, at the layout's heading
+    int[] toppt = new int[0];         // where the label's line meets it, before the adjustment above
+    float[] textsize = new float[0];
+    int[] row = new int[0];           // counting up from the bottom, for the fading
+
+    // scratch for HillSet.nearestInView
+    private int[] mVisible = new int[0];
+
+    // what the layout was made from, and how far either way from mHeading it holds
+    private LabelPlacement mPlacement;
+    private double mHeading, mHfov;
+    private int mTopPt;
+    private float mTextsize;
+    private boolean mShowdir, mShowdist, mShowheight;
+    private double mFrom, mTo;
+
+    // lays out the labels for the hills in view of heading (degrees) and returns the adjusted top
+    public int layout(HillSet hills, double heading, double hfov, int topPt, float textsize,
+                      boolean showdir, boolean showdist, boolean showheight) {
+        float drawtextsize = textsize;
+        this.hills = hills;
+        count = 0;
+        generation++;
+        mPlacement = null;
+        mHeading = heading;
+        mHfov = hfov;
+        mTopPt = topPt;
+        mTextsize = textsize;
+        mShowdir = showdir;
+        mShowdist = showdist;
+        mShowheight = showheight;
+
+        // only the hills in our line of sight, nearest first, and no more than could have labels
+        if (mVisible.length < hills.size()) mVisible = new int[hills.size()];
+        int visible = hills.nearestInView(heading, hfov, maxLabels(topPt, textsize), mVisible);
+        ensureCapacity(visible);
+
+        for (int v = 0; v < visible && topPt > 0; v++)
+        {
+            int h = mVisible[v];
+            hill[count] = h;
+            // where the peak is across the screen, from the angle to it from our line of sight
+            ratio[count] = hills.offset(h, heading) / hfov;
+            toppt[count] = topPt;
+            this.textsize[count] = drawtextsize;
+            row[count] = count;
+            count++;
+
+            topPt -= (showdir || showdist || showheight && hills.height[h] > 0)?(1 + drawtextsize*2):drawtextsize;
+
+            if (drawtextsize - TEXT_SIZE_DECREMENT >= TEXT_SIZE_MIN)
+            {
+                drawtextsize -= TEXT_SIZE_DECREMENT;
+            }
+        }
+
+        // Fudge-factor because we don't know exactly how high label text will display until we draw it later.
+        // A tiny font at the top needs to be moved down slightly to avoid being clipped; larger fonts seem OK.
+        topPt -= Math.max(0, 13 - drawtextsize);
+        top = topPt;
+
+        findWindow(hills.countInView(heading, hfov) > count);
+        return topPt;
+    }
+
+    // lays out the labels of a placement whose hills are in view of heading (degrees)
+    public void layout(LabelPlacement placement, double heading, double hfov) {
+        hills = placement.hills;
+        count = 0;
+        generation++;
+        mPlacement = placement;
+        mHeading = heading;
+        mHfov = hfov;
+        top = placement.top;
+        ensureCapacity(placement.count);
+
+        // the same hills stay in view until the edge of the view passes one of them
+        double half = hfov / 2;
+        double from = -180, to = 180;
+        for (int p = 0; p < placement.count; p++) {
+            int h = placement.hill[p];
+            double offset = hills.offset(h, heading);
+            if (Math.abs(offset) < half) {
+                hill[count] = h;
+                ratio[count] = offset / hfov;
+                row[count] = placement.row[p];
+                toppt[count] = placement.rowTop[row[count]];
+                textsize[count] = placement.rowSize[row[count]];
+                count++;
+                from = Math.max(from, offset - half);
+                to = Math.min(to, offset + half);
+            } else if (offset > 0) {
+                to = Math.min(to, offset - half);
+                from = Math.max(from, offset - 360 + half);
+            } else {
+                from = Math.max(from, offset + half);
+                to = Math.min(to, offset + 360 - half);
+            }
+        }
+        setWindow(half, from, to);
+    }
+
+    // whether the last layout is still right for this placement, heading having turned by shift(heading)
+    public boolean covers(LabelPlacement placement, double heading, double hfov) {
+        if (placement != mPlacement || hfov != mHfov) return false;
+        double shift = shift(heading);
+        return shift > mFrom && shift < mTo;
+    }
+
+    // whether the last layout is still right for these, heading having turned by shift(heading)
+    public boolean covers(HillSet hills, double heading, double hfov, int topPt, float textsize,
+                          boolean showdir, boolean showdist, boolean showheight) {
+        if (mPlacement != null || hills != this.hills || hfov != mHfov || topPt != mTopPt || textsize != mTextsize
+                || showdir != mShowdir || showdist != mShowdist || showheight != mShowheight) {
+            return false;
+        }
+        double shift = shift(heading);
+        return shift > mFrom && shift < mTo;
+    }
+
+    // the heading the layout was made for
+    public double heading() {
+        return mHeading;
+    }
+
+    // degrees the heading has turned since the layout, -180..180
+    public double shift(double heading) {
+        double d = heading - mHeading;
+        if (d > 180) d -= 360;
+        if (d <= -180) d += 360;
+        return d;
+    }
+
+    // The range of shifts for which the same hills would be labelled in the same order. Each
+    // labelled hill has to stay in view, and each hill that could take a label from one of them has
+    // to stay out of it: if the stack was full that's anything no farther than the last label,
+    // otherwise it's anything at all.
+    private void findWindow(boolean full) {
+        double half = mHfov / 2;
+        double from = -180, to = 180;
+        for (int i = 0; i < count; i++) {
+            double offset = hills.offset(hill[i], mHeading);
+            from = Math.max(from, offset - half);
+            to = Math.min(to, offset + half);
+        }
+        double farthest = (full && count > 0) ? hills.distance[hill[count - 1]] : Double.POSITIVE_INFINITY;
+        for (int r = 0; r < hills.size(); r++) {
+            int i = hills.order[r];
+            if (hills.distance[i] > farthest) break;
+            double offset = hills.offset(i, mHeading);
+            if (Math.abs(offset) < half) continue;
+            // it can come into view from either side
+            if (offset > 0) {
+                to = Math.min(to, offset - half);
+                from = Math.max(from, offset - 360 + half);
+            } else {
+                from = Math.max(from, offset + half);
+                to = Math.min(to, offset + 360 - half);
+            }
+        }
+        setWindow(half, from, to);
+    }
+
+    private void setWindow(double half, double from, double to) {
+        if (half >= 180) {
+            // everything is always in view
+            mFrom = Double.NEGATIVE_INFINITY;
+            mTo = Double.POSITIVE_INFINITY;
+            return;
+        }
+        // a little short of the edges, where rounding could go either way
+        mFrom = from + 1e-6;
+        mTo = to - 1e-6;
+    }
+
+    // the most labels that could be stacked in topPt, if none needed a second line
+    static int maxLabels(int topPt, float textsize) {
+        float drawtextsize = textsize;
+        int labels = 0;
+        while (topPt > 0) {
+            topPt -= Math.max(drawtextsize, 1);
+            labels++;
+            if (drawtextsize - TEXT_SIZE_DECREMENT >= TEXT_SIZE_MIN)
+            {
+                drawtextsize -= TEXT_SIZE_DECREMENT;
+            }
+        }
+        return labels;
+    }
+
+    private void ensureCapacity(int n) {
+        if (hill.length >= n) return;
+        hill = new int[n];
+        ratio = new double[n];
+        toppt = new int[n];
+        textsize = new float[n];
+        row = new int[n];
+    }
+}
@@ -0,0 +1,37 @@
+package com.showmehills;
+
+/*
+ * Where LabelPlacer put the labels for one HillSet: a row for each hill that got one, in order of
+ * priority. Rows count up from the bottom of the stack, getting smaller as they go. Nothing here
+ * depends on the heading, so it's made once per snapshot and style. Never changed once made.
+ */
+public class LabelPlacement {
+
+    final HillSet hills;
+    final LabelStyle style;
+
+    // the labelled hills, highest priority first, and the row each is in
+    final int count;
+    final int[] hill;
+    final int[] row;
+
+    // for each row, where its labels' lines meet them and their text size
+    final int rows;
+    final int[] rowTop;
+    final float[] rowSize;
+    // the top of the stack, adjusted so the smallest text isn't clipped; as LabelLayout.top
+    final int top;
+
+    LabelPlacement(HillSet hills, LabelStyle style, int count, int[] hill, int[] row,
+                   int rows, int[] rowTop, float[] rowSize, int top) {
+        this.hills = hills;
+        this.style = style;
+        this.count = count;
+        this.hill = hill;
+        this.row = row;
+        this.rows = rows;
+        this.rowTop = rowTop;
+        this.rowSize = rowSize;
+        this.top = top;
+    }
+}
@@ -0,0 +1,141 @@
+package com.showmehills;
+
+import java.util.Arrays;
+
+/*
+ * Decides which hills get labels on the camera view, and where, so crowded views stay readable.
+ *
+ * Labels sit in rows stacked up the screen, smaller as they go up, as DrawOnTop has always stacked
+ * them, but a row holds as many labels as fit across it without overlapping. Hills are taken in
+ * order of priority, and each goes in the lowest row with room for it; a hill with no room in any
+ * row doesn't get a label. It's all done over the whole horizon in degrees, so a placement holds
+ * whichever way the phone points and is only redone for a new snapshot or style.
+ *
+ * Each row is a uniform grid of CELL_PX wide cells round the horizon, kept as a bitmap, so finding
+ * and claiming room for a label is a few word operations. Sorting by priority is the O(n log n)
+ * part. HillQueryEngine runs this on its own thread as each snapshot is made.
+ *
+ * Not thread safe; keep one per thread.
+ */
+public class LabelPlacer {
+
+    public interface Measure {
+        // width in pixels of the wider line of a hill's label, at the given text size
+        float width(HillSet hills, int i, float textsize, int flags);
+    }
+
+    static final int CELL_PX = 4;
+    // room kept between labels in a row
+    static final int GAP_PX = 8;
+    // the crossbar a label sits on is this wide, so a label takes at least this much room
+    static final int CROSSBAR_PX = 40;
+
+    // scratch, grown as needed
+    private int[] mPositions = new int[0];
+    private double[] mKeys = new double[0];
+    private long[] mGrid = new long[0];
+
+    public LabelPlacement place(HillSet hills, LabelStyle style) {
+        // the rows, from the bottom up
+        int maxRows = LabelLayout.maxLabels(style.topPt, style.textsize);
+        int[] rowTop = new int[maxRows];
+        float[] rowSize = new float[maxRows];
+        int rows = 0;
+        int topPt = style.topPt;
+        float size = style.textsize;
+        boolean moreinfo = style.moreinfo();
+        while (topPt > 0 && rows < maxRows)
+        {
+            rowTop[rows] = topPt;
+            rowSize[rows] = size;
+            rows++;
+
+            topPt -= Math.max(1, moreinfo ? (1 + size*2) : size);
+
+            if (size - LabelLayout.TEXT_SIZE_DECREMENT >= LabelLayout.TEXT_SIZE_MIN)
+            {
+                size -= LabelLayout.TEXT_SIZE_DECREMENT;
+            }
+        }
+        // as LabelLayout adjusts the top of its stack
+        topPt -= Math.max(0, 13 - size);
+
+        // highest priority first; sorting positions in the nearest first order means ties go to the nearer
+        int n = hills.size();
+        if (mPositions.length < n) {
+            mPositions = new int[n];
+            mKeys = new double[n];
+        }
+        for (int p = 0; p < n; p++) {
+            mPositions[p] = p;
+            mKeys[p] = -style.priority.score(hills, hills.byDistance(p));
+        }
+        HillSet.sort(mPositions, mKeys, 0, n - 1);
+
+        // Whole cells round the horizon, so the grid wraps where the horizon does. Rounding down means
+        // the grid is a touch narrower than the screen, so labels apart in it are apart on it too.
+        int cells = Math.max(1, (int)(360 * style.pixelsPerDegree / CELL_PX));
+        double cellsPerDegree = cells / 360.0;
+        int words = (cells + 63) >>> 6;
+        if (mGrid.length < rows * words) mGrid = new long[rows * words];
+        Arrays.fill(mGrid, 0, rows * words, 0);
+
+        int[] hill = new int[n];
+        int[] row = new int[n];
+        int count = 0;
+        for (int p = 0; p < n; p++) {
+            int h = hills.byDistance(mPositions[p]);
+            float width = style.measure.width(hills, h, style.textsize, style.flags);
+            double centre = hills.direction[h] * cellsPerDegree;
+            for (int r = 0; r < rows; r++) {
+                // text scales with its size; the crossbar doesn't
+                double w = (Math.max(width * rowSize[r] / style.textsize, CROSSBAR_PX) + GAP_PX) / CELL_PX;
+                int first = (int)Math.floor(centre - w / 2);
+                int last = (int)Math.floor(centre + w / 2);
+                if (last - first + 1 >= cells) break;
+                first = ((first % cells) + cells) % cells;
+                last = ((last % cells) + cells) % cells;
+                if (claim(r * words, first, last, cells)) {
+                    hill[count] = h;
+                    row[count] = r;
+                    count++;
+                    break;
+                }
+            }
+        }
+        return new LabelPlacement(hills, style, count, hill, row, rows, rowTop, rowSize, topPt);
+    }
+
+    // takes cells first..last of a row, wrapping past the end, if none of them are taken yet
+    private boolean claim(int base, int first, int last, int cells) {
+        if (first <= last) {
+            if (taken(base, first, last)) return false;
+            mark(base, first, last);
+        } else {
+            if (taken(base, first, cells - 1) || taken(base, 0, last)) return false;
+            mark(base, first, cells - 1);
+            mark(base, 0, last);
+        }
+        return true;
+    }
+
+    private boolean taken(int base, int from, int to) {
+        for (int w = from >>> 6; w <= to >>> 6; w++) {
+            if ((mGrid[base + w] & mask(w, from, to)) != 0) return true;
+        }
+        return false;
+    }
+
+    private void mark(int base, int from, int to) {
+        for (int w = from >>> 6; w <= to >>> 6; w++) {
+            mGrid[base + w] |= mask(w, from, to);
+        }
+    }
+
+    // the bits of word w that are in from..to
+    private static long mask(int w, int from, int to) {
+        int lo = Math.max(from - (w << 6), 0);
+        int hi = Math.min(to - (w << 6), 63);
+        return (-1L >>> (63 - hi)) & (-1L << lo);
+    }
+}
@@ -0,0 +1,36 @@
+package com.showmehills;
+
+/*
+ * Everything about the camera view that decides where LabelPlacer puts the labels. Immutable, and
+ * replaced with a new one whenever a setting or the field of view changes, so a LabelPlacement can
+ * be checked against the current style with ==.
+ */
+public class LabelStyle {
+
+    final float textsize;
+    final int topPt;                // the height the rows are stacked up from
+    final double pixelsPerDegree;   // across the screen
+    final int flags;                // LabelCache flags: which info is shown, and its units
+    final HillRanking priority;     // which hills get first pick of the rows
+    final LabelPlacer.Measure measure;
+
+    public LabelStyle(float textsize, int topPt, double pixelsPerDegree, int flags, HillRanking priority,
+                      LabelPlacer.Measure measure) {
+        this.textsize = textsize;
+        this.topPt = topPt;
+        this.pixelsPerDegree = pixelsPerDegree;
+        this.flags = flags;
+        this.priority = priority;
+        this.measure = measure;
+    }
+
+    // whether the labels have a second line, of direction, distance or height
+    boolean moreinfo() {
+        return (flags & (LabelCache.SHOW_DIR | LabelCache.SHOW_DIST | LabelCache.SHOW_HEIGHT)) != 0;
+    }
+
+    boolean matches(float textsize, int topPt, double pixelsPerDegree, int flags) {
+        return textsize == this.textsize && topPt == this.topPt && pixelsPerDegree == this.pixelsPerDegree
+                && flags == this.flags;
+    }
+}
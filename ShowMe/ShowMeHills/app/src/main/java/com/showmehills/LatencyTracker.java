@@ -0,0 +1,55 @@
+package com.showmehills;
+
+/*
+ * Keeps count of how old each sensor reading was by the time it reached the screen. Only ever
+ * updated from one thread (the UI thread, from onDraw); the getters may be called from anywhere
+ * and see values at most one frame stale.
+ */
+public class LatencyTracker {
+
+    // weight of the newest sample in the running average, about the last 30 frames
+    private static final double SMOOTHING = 1.0 / 32;
+
+    private volatile long mCount;
+    private volatile long mLast;
+    private volatile long mMax;
+    private volatile double mAverage;
+
+    // latency in ns
+    public void record(long nanos) {
+        if (nanos < 0) return;
+        mLast = nanos;
+        if (nanos > mMax) mMax = nanos;
+        mAverage = (mCount == 0) ? nanos : mAverage + (nanos - mAverage) * SMOOTHING;
+        mCount++;
+    }
+
+    public void reset() {
+        mCount = 0;
+        mLast = 0;
+        mMax = 0;
+        mAverage = 0;
+    }
+
+    public long getCount() {
+        return mCount;
+    }
+
+    public double getLastMillis() {
+        return mLast / 1e6;
+    }
+
+    public double getMaxMillis() {
+        return mMax / 1e6;
+    }
+
+    public double getAverageMillis() {
+        return mAverage / 1e6;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("%d frames, latency avg %.1fms, last %.1fms, max %.1fms",
+                mCount, getAverageMillis(), getLastMillis(), getMaxMillis());
+    }
+}
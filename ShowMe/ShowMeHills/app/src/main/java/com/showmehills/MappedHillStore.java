@@ -0,0 +1,177 @@
+package com.showmehills;
+
+import android.content.Context;
+import android.content.res.AssetFileDescriptor;
+import android.util.Log;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.IntBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.ShortBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+
+/*
+ * Read-only hill store backed by a memory mapped columnar file (see
+ * Database/tools/peakstore/dbtopeaks.py for the layout). Peaks are sorted by latitude so
+ * fetch() bisects the latitude column for the bounding box and then scans the primitive
+ * columns. Names aren't decoded there: the hills are added by row, and HillProjector asks for
+ * the names of just the ones it keeps, usually a small part of the box.
+ */
+public class MappedHillStore implements IHillStore {
+
+    private static final int MAGIC = 0x50484d53; // "SMHP" read little endian
+    private static final int FORMAT_VERSION = 1;
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
+    private final int mDatabaseVersion;
+    private final int mCount;
+    private final IntBuffer mLat;
+    private final IntBuffer mLon;
+    private final IntBuffer mIds;
+    private final ShortBuffer mHeights;
+    private final IntBuffer mNameOffsets;
+    private final ByteBuffer mNames;
+    private byte[] mNameScratch = new byte[64];
+
+    // Maps an uncompressed asset straight out of the apk. Returns null if there isn't one, or if it
+    // was made from another version of the database than HillDatabase expects, so a stale peak
+    // store left in the assets doesn't hide a newer database.
+    public static MappedHillStore openAsset(Context context, String name) {
+        try {
+            AssetFileDescriptor afd = context.getAssets().openFd(name);
+            try {
+                FileInputStream in = afd.createInputStream();
+                try {
+                    MappedHillStore store = new MappedHillStore(in.getChannel().map(FileChannel.MapMode.READ_ONLY, afd.getStartOffset(), afd.getLength()));
+                    if (store.getDatabaseVersion() != HillDatabase.mDatabaseVersion) {
+                        Log.e("showmehills", "Peak store " + name + " is from database version " + store.getDatabaseVersion()
+                                + ", not " + HillDatabase.mDatabaseVersion + "; using the database");
+                        return null;
+                    }
+                    return store;
+                } finally {
+                    in.close();
+                }
+            } finally {
+                afd.close();
+            }
+        } catch (IOException e) {
+            // not in the apk, or compressed (check aaptOptions in build.gradle)
+            return null;
+        } catch (IllegalArgumentException e) {
+            Log.e("showmehills", "Bad peak store " + name + ": " + e.getMessage());
+            return null;
+        }
+    }
+
+    public static MappedHillStore open(File file) throws IOException {
+        FileInputStream in = new FileInputStream(file);
+        try {
+            FileChannel ch = in.getChannel();
+            return new MappedHillStore(ch.map(FileChannel.MapMode.READ_ONLY, 0, ch.size()));
+        } finally {
+            in.close();
+        }
+    }
+
+    MappedHillStore(MappedByteBuffer map) {
+        ByteBuffer buf = map.order(ByteOrder.LITTLE_ENDIAN);
+        if (buf.getInt(0) != MAGIC || buf.getInt(4) != FORMAT_VERSION) {
+            throw new IllegalArgumentException("not a version " + FORMAT_VERSION + " peak store");
+        }
+        mDatabaseVersion = buf.getInt(8);
+        mCount = buf.getInt(12);
+        int nameBytes = buf.getInt(16);
+
+        int pos = 20;
+        mLat = section(buf, pos, mCount * 4).asIntBuffer();
+        pos += mCount * 4;
+        mLon = section(buf, pos, mCount * 4).asIntBuffer();
+        pos += mCount * 4;
+        mIds = section(buf, pos, mCount * 4).asIntBuffer();
+        pos += mCount * 4;
+        mHeights = section(buf, pos, mCount * 2).asShortBuffer();
+        pos += (mCount * 2 + 3) & ~3;
+        mNameOffsets = section(buf, pos, (mCount + 1) * 4).asIntBuffer();
+        pos += (mCount + 1) * 4;
+        mNames = section(buf, pos, nameBytes);
+    }
+
+    private static ByteBuffer section(ByteBuffer buf, int pos, int length) {
+        ByteBuffer dup = buf.duplicate();
+        dup.position(pos);
+        dup.limit(pos + length);
+        return dup.slice().order(ByteOrder.LITTLE_ENDIAN);
+    }
+
+    public int size() {
+        return mCount;
+    }
+
+    // the version of the hill database the store was made from (see HillDatabase.mDatabaseVersion)
+    public int getDatabaseVersion() {
+        return mDatabaseVersion;
+    }
+
+    // nothing to install or open, the file is mapped for as long as the store exists
+    public void createDataBase() {}
+
+    public boolean checkDataBase() {
+        return true;
+    }
+
+    public void close() {}
+
+    public int fetch(double minLat, double maxLat, double minLon, double maxLon, int minheight, int maxheight, HillSet out)
+    {
+        int loLat = toMicro(minLat);
+        int hiLat = toMicro(maxLat);
+        int loLon = toMicro(minLon);
+        int hiLon = toMicro(maxLon);
+
+        int added = 0;
+        for (int i = lowerBound(loLat); i < mCount && mLat.get(i) <= hiLat; i++)
+        {
+            int lon = mLon.get(i);
+            if (lon < loLon || lon > hiLon) continue;
+            int height = mHeights.get(i);
+            if (minheight > 0 && height <= minheight) continue;
+            if (maxheight < 9000 && height >= maxheight) continue;
+
+            out.addUnnamed(mIds.get(i), i, lon / 1e6, mLat.get(i) / 1e6, height);
+            added++;
+        }
+        return added;
+    }
+
+    // first index whose latitude is >= lat
+    private int lowerBound(int lat) {
+        int lo = 0, hi = mCount;
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (mLat.get(mid) < lat) lo = mid + 1;
+            else hi = mid;
+        }
+        return lo;
+    }
+
+    public String getName(int i) {
+        if (i < 0 || i >= mCount) return null;
+        int start = mNameOffsets.get(i);
+        int length = mNameOffsets.get(i + 1) - start;
+        if (length > mNameScratch.length) mNameScratch = new byte[length];
+        for (int b = 0; b < length; b++) {
+            mNameScratch[b] = mNames.get(start + b);
+        }
+        return new String(mNameScratch, 0, length, UTF8);
+    }
+
+    private static int toMicro(double degrees) {
+        return (int)Math.round(degrees * 1e6);
+    }
+}
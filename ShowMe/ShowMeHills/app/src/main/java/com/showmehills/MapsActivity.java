@@ -3,7 +3,6 @@ package com.showmehills;
 import android.content.Context;
 import android.content.Intent;
 import android.content.SharedPreferences;
-import android.database.SQLException;
 import android.graphics.Matrix;
 import android.hardware.Sensor;
 import android.hardware.SensorEvent;
@@ -26,15 +25,15 @@ import com.google.android.gms.maps.model.BitmapDescriptorFactory;
 import com.google.android.gms.maps.model.LatLng;
 import com.google.android.gms.maps.model.Marker;
 import com.google.android.gms.maps.model.MarkerOptions;
-import java.util.ArrayList;
 import java.util.Timer;
 import java.util.TimerTask;
 
-public class MapsActivity extends FragmentActivity implements OnMapReadyCallback, IShowMeHillsActivity, SensorEventListener {
+public class MapsActivity extends FragmentActivity implements OnMapReadyCallback, IShowMeHillsActivity, SensorEventListener,
+        HillQueryEngine.OnSnapshotListener {
 
     private GoogleMap mMap;
 
-    private HillDatabase myDbHelper;
+    private HillQueryEngine mQueryEngine;
     private Location curLocation;
 
     Marker compassMarker = null;
@@ -43,6 +42,9 @@ public class MapsActivity extends FragmentActivity implements OnMapReadyCallback
     private SensorManager mSensorManager;
     Sensor accelerometer;
     Sensor magnetometer;
+    // the map only turns a compass arrow, so the sensors always run slow and batched
+    private SensorRateController mSensorRates;
+    private static final int MAP_REPORT_LATENCY_US = 500000;
     float[] mGravity;
     float[] mGeomagnetic;
     float mDeclination = 0;
@@ -61,15 +63,17 @@ public class MapsActivity extends FragmentActivity implements OnMapReadyCallback
         accelerometer = mSensorManager.getDefaultSensor(Sensor.TYPE_ACCELEROMETER);
         magnetometer = mSensorManager.getDefaultSensor(Sensor.TYPE_MAGNETIC_FIELD);
 
-        mSensorManager.registerListener(this, accelerometer, SensorManager.SENSOR_DELAY_GAME);
-        mSensorManager.registerListener(this, magnetometer, SensorManager.SENSOR_DELAY_GAME);
+        mSensorRates = new SensorRateController(mSensorManager, this, null, MAP_REPORT_LATENCY_US);
+        mSensorRates.add(accelerometer, SensorManager.SENSOR_DELAY_GAME, SensorManager.SENSOR_DELAY_UI);
+        mSensorRates.add(magnetometer, SensorManager.SENSOR_DELAY_GAME, SensorManager.SENSOR_DELAY_UI);
 
         mGPS = new RapidGPSLock(this);
         mGPS.switchOn();
         mGPS.findLocation();
 
-        myDbHelper = new HillDatabase(this, getString(R.string.dbname), getString(R.string.dbpath));
-        myDbHelper.createDataBase();
+        mQueryEngine = new HillQueryEngine(HillStoreFactory.open(this));
+        mQueryEngine.setOnSnapshotListener(this);
+        mQueryEngine.open();
 
         setContentView(R.layout.activity_maps);
 
@@ -96,7 +100,6 @@ public class MapsActivity extends FragmentActivity implements OnMapReadyCallback
         if (mMap == null) return;
         curLocation = mGPS.getCurrentLocation();
         if (curLocation == null) return;
-        if (!myDbHelper.checkDataBase()) return;
         SharedPreferences prefs = PreferenceManager.getDefaultSharedPreferences(getBaseContext());
         String md = prefs.getString("distance", "25");
         if (md.equals("")) md = "25";
@@ -109,7 +112,8 @@ public class MapsActivity extends FragmentActivity implements OnMapReadyCallback
         md = prefs.getString("minheight", "0");
         if (md.equals("")) md = "0";
         int minheight = Integer.parseInt(md);
-        myDbHelper.SetDirections(curLocation, minheight, 9000, mindistance, (int)maxdistance);
+        // markers are added in onHillSnapshot once the query has run
+        mQueryEngine.requestQuery(curLocation, minheight, 9000, mindistance, (int)maxdistance);
 
 
         LatLng pt = new LatLng(curLocation.getLatitude(), curLocation.getLongitude());
@@ -118,15 +122,19 @@ public class MapsActivity extends FragmentActivity implements OnMapReadyCallback
                     .anchor(0.5f, 0.5f)
                     .icon(BitmapDescriptorFactory.fromResource(R.drawable.bluearrow)));
         }
+    }
 
-        ArrayList<Hills> localhills = myDbHelper.localhills;
+    public void onHillSnapshot(HillSnapshot snapshot)
+    {
+        if (mMap == null) return;
+        HillSet localhills = snapshot.hills;
         for (int h = 0; h < localhills.size(); h++)
         {
-            Hills h1 = localhills.get(h);
-            Log.d("showmehills", "adding " + h1.hillname);
-            pt = new LatLng(h1.latitude, h1.longitude);
+            int h1 = localhills.byDistance(h);
+            Log.d("showmehills", "adding " + localhills.hillname[h1]);
+            LatLng pt = new LatLng(localhills.latitude[h1], localhills.longitude[h1]);
             mMap.addMarker(new MarkerOptions().position(pt)
-                                                .title(h1.hillname)
+                                                .title(localhills.hillname[h1])
                                                 .icon(BitmapDescriptorFactory.fromResource(R.drawable.androidmarker)));
         }
     }
@@ -221,15 +229,13 @@ public class MapsActivity extends FragmentActivity implements OnMapReadyCallback
         Log.d("showmehills", "onResume");
         super.onResume();
         mGPS.switchOn();
-        mSensorManager.registerListener(this, accelerometer, SensorManager.SENSOR_DELAY_GAME);
-        mSensorManager.registerListener(this, magnetometer, SensorManager.SENSOR_DELAY_GAME);
+        mSensorRates.start(true);
 
         timer = new Timer();
         timer.scheduleAtFixedRate(new LocationTimerTask(),GPSretryTime* 1000,GPSretryTime* 1000);
 
+        mQueryEngine.open();
         UpdateMarkers();
-
-        myDbHelper.checkDataBase();
     }
 
     @Override
@@ -238,23 +244,22 @@ public class MapsActivity extends FragmentActivity implements OnMapReadyCallback
         super.onPause();
         timer.cancel();
         mGPS.switchOff();
-        mSensorManager.unregisterListener(this);
+        mSensorRates.stop();
 
-        try {
-            myDbHelper.close();
-        }catch(SQLException sqle){
-            throw sqle;
-        }
+        mQueryEngine.close();
     }
     @Override
     protected void onStop()
     {
-        try {
-            myDbHelper.close();
-        }catch(SQLException sqle){
-            throw sqle;
-        }
+        mQueryEngine.close();
         super.onStop();
     }
 
+    @Override
+    protected void onDestroy()
+    {
+        mQueryEngine.shutdown();
+        super.onDestroy();
+    }
+
 }
@@ -0,0 +1,52 @@
+package com.showmehills;
+
+/*
+ * Tells whether the phone is being held still, from the spread of the recent compass readings
+ * and how far the latest one is from the smoothed heading. Going still needs STILL_NANOS of
+ * quiet readings; any clear movement counts as moving straight away, so the fast sensor rate
+ * comes back the moment the user turns.
+ */
+public class MotionDetector {
+
+    // filteredDirection.GetVariation() units
+    static final int STILL_VARIATION = 2;
+    static final int MOVING_VARIATION = 5;
+    // degrees between the latest reading and the smoothed heading
+    static final double STILL_TURN = 1.0;
+    static final double MOVING_TURN = 3.0;
+    static final long STILL_NANOS = 2000000000L;
+
+    private boolean mStill = false;
+    private long mQuietSince = -1;
+
+    // timestamp in ns, any monotonic clock; returns whether the phone is now reckoned to be still
+    public boolean update(int variation, double turnDegrees, long timestamp) {
+        turnDegrees = Math.abs(turnDegrees);
+        if (variation >= MOVING_VARIATION || turnDegrees >= MOVING_TURN) {
+            mStill = false;
+            mQuietSince = -1;
+        } else if (variation <= STILL_VARIATION && turnDegrees <= STILL_TURN) {
+            if (mQuietSince < 0) mQuietSince = timestamp;
+            if (timestamp - mQuietSince >= STILL_NANOS) mStill = true;
+        } else if (!mStill) {
+            // somewhere in between: not moving enough to wake up, not quiet enough to count
+            mQuietSince = -1;
+        }
+        return mStill;
+    }
+
+    public boolean isStill() {
+        return mStill;
+    }
+
+    public void reset() {
+        mStill = false;
+        mQuietSince = -1;
+    }
+
+    // smallest angle between two headings in degrees, 0..180
+    static double turn(double a, double b) {
+        double d = Math.abs(a - b) % 360;
+        return (d > 180) ? 360 - d : d;
+    }
+}
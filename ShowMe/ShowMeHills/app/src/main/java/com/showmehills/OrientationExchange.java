@@ -0,0 +1,49 @@
+package com.showmehills;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+/*
+ * Hands the latest OrientationSnapshot from the sensor thread to the UI thread without making a
+ * new one for every reading. Three snapshots go round: the sensor thread fills in the one it
+ * holds and swaps it for the one waiting, and the UI thread swaps the one it holds for the
+ * waiting one whenever that is newer. Each side only touches the snapshot it holds, so neither
+ * locks, and a snapshot never changes while the UI is reading it.
+ *
+ * The snapshot the UI swaps away goes back round to be written over, so anything kept from one
+ * latest() to the next has to be copied (see OrientationSnapshot.copyFrom). Until the first
+ * publish() latest() gives a snapshot of all zeroes, with sequence 0.
+ *
+ * One thread writes and one thread reads.
+ */
+public class OrientationExchange {
+
+    // set on the waiting slot's number from publish() until the reader takes it
+    private static final int FRESH = 4;
+
+    private final OrientationSnapshot[] mSlots = {
+            new OrientationSnapshot(0, 0, 0, 0, 0),
+            new OrientationSnapshot(0, 0, 0, 0, 0),
+            new OrientationSnapshot(0, 0, 0, 0, 0)
+    };
+    private final AtomicInteger mWaiting = new AtomicInteger(1);
+    private int mWriting = 2;   // the writer's
+    private int mReading = 0;   // the reader's
+
+    // the snapshot for the writer to fill in and publish()
+    public OrientationSnapshot writable() {
+        return mSlots[mWriting];
+    }
+
+    // hands over what was written, taking back whichever snapshot was waiting
+    public void publish() {
+        mWriting = mWaiting.getAndSet(mWriting | FRESH) & ~FRESH;
+    }
+
+    // the newest snapshot published; the reader's until it next calls this
+    public OrientationSnapshot latest() {
+        if ((mWaiting.get() & FRESH) != 0) {
+            mReading = mWaiting.getAndSet(mReading) & ~FRESH;
+        }
+        return mSlots[mReading];
+    }
+}
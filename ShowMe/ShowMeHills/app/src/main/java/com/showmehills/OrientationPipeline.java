@@ -0,0 +1,416 @@
+package com.showmehills;
+
+/*
+ * Works out the camera's azimuth, pitch and roll from the phone's sensors, without allocating
+ * anything per sensor event.
+ *
+ * Where the attitude comes from is picked with setSource():
+ *  SOURCE_ACCEL_MAG - accelerometer and magnetometer only. Noisy, so it needs a lot of smoothing.
+ *  SOURCE_ROTATION_VECTOR - the platform's own fused TYPE_ROTATION_VECTOR; one sensor, low lag.
+ *  SOURCE_GYRO - a complementary filter: the gyroscope is integrated for quick, smooth changes
+ *      and the attitude is pulled a little towards the accelerometer/magnetometer one on each of
+ *      their readings, which cancels out the gyro's drift.
+ *  SOURCE_GAME_ROTATION_VECTOR - the same filter, but with the changes in TYPE_GAME_ROTATION_VECTOR
+ *      (fused gyro and accelerometer, no magnetometer) in place of the raw gyro. On its own it
+ *      doesn't know where north is; the magnetometer supplies that.
+ *
+ * The framework reuses SensorEvent.values, so readings are copied into arrays owned here. The
+ * rotation matrix, remapping and orientation are the same sums as SensorManager's
+ * getRotationMatrix, remapCoordinateSystem and getOrientation, done in place on preallocated
+ * arrays. Magnetic declination is applied by rotating the matrix about the vertical directly
+ * rather than through an android.graphics.Matrix, and the display rotation is set by the owner
+ * (from a DisplayListener) rather than asked for on every event. Pure Java, so it can be tested
+ * off the device.
+ */
+public class OrientationPipeline {
+
+    // same values as SensorManager.AXIS_* and Surface.ROTATION_*
+    static final int AXIS_X = 1;
+    static final int AXIS_Z = 3;
+    static final int AXIS_MINUS_Z = AXIS_Z | 0x80;
+    static final int ROTATION_270 = 3;
+
+    public static final int SOURCE_ACCEL_MAG = 0;
+    public static final int SOURCE_ROTATION_VECTOR = 1;
+    public static final int SOURCE_GAME_ROTATION_VECTOR = 2;
+    public static final int SOURCE_GYRO = 3;
+
+    private static final float FREE_FALL_GRAVITY_SQUARED = 0.01f * 9.81f * 9.81f;
+    private static final float NS2S = 1.0f / 1000000000.0f;
+    // gaps longer than this (eg. while paused) aren't integrated
+    private static final float MAX_GYRO_DT = 0.1f;
+    // how far the fused attitude is pulled towards the accelerometer/magnetometer one per reading;
+    // with both at about 50Hz any drift dies away over a second or so
+    static final float FUSION_GAIN = 0.02f;
+
+    private int mSource = SOURCE_ACCEL_MAG;
+
+    private final float[] mGravity = new float[3];
+    private final float[] mGeomagnetic = new float[3];
+    private boolean mHasGravity = false;
+    private boolean mHasGeomagnetic = false;
+
+    // quaternions, { w, x, y, z }, rotating device coordinates to world ones
+    private final float[] mRotationVector = new float[4];
+    private boolean mHasRotationVector = false;
+    private final float[] mFused = new float[4];
+    private boolean mFusedValid = false;
+    private final float[] mGamePrevious = new float[4];
+    private boolean mHasGamePrevious = false;
+    private long mGyroTimestamp = 0;
+    private final float[] mAccelMag = new float[4];
+    private final float[] mDelta = new float[4];
+
+    private final float[] mRotationMatrixA = new float[9];
+    private final float[] mRotationMatrixB = new float[9];
+    private final float[] mOrientation = new float[3];
+
+    private volatile int mDisplayRotation = 0;
+    private volatile float mCosDeclination = 1;
+    private volatile float mSinDeclination = 0;
+
+    // one of SOURCE_*; forgets any fused attitude
+    public void setSource(int source) {
+        mSource = source;
+        reset();
+    }
+
+    public int getSource() {
+        return mSource;
+    }
+
+    // forget all readings, eg. when the sensors are re-registered after a pause
+    public void reset() {
+        mHasGravity = false;
+        mHasGeomagnetic = false;
+        mHasRotationVector = false;
+        mFusedValid = false;
+        mHasGamePrevious = false;
+        mGyroTimestamp = 0;
+    }
+
+    public void setDisplayRotation(int rotation) {
+        mDisplayRotation = rotation;
+    }
+
+    public int getDisplayRotation() {
+        return mDisplayRotation;
+    }
+
+    // degrees east of true north, eg. from GeomagneticField.getDeclination()
+    public void setDeclination(float degrees) {
+        double r = Math.toRadians(-degrees);
+        mCosDeclination = (float)Math.cos(r);
+        mSinDeclination = (float)Math.sin(r);
+    }
+
+    public void onAccelerometer(float[] values) {
+        mGravity[0] = values[0];
+        mGravity[1] = values[1];
+        mGravity[2] = values[2];
+        mHasGravity = true;
+    }
+
+    public void onMagneticField(float[] values) {
+        mGeomagnetic[0] = values[0];
+        mGeomagnetic[1] = values[1];
+        mGeomagnetic[2] = values[2];
+        mHasGeomagnetic = true;
+        if (mSource == SOURCE_GYRO || mSource == SOURCE_GAME_ROTATION_VECTOR) correctFused();
+    }
+
+    // TYPE_ROTATION_VECTOR or TYPE_GAME_ROTATION_VECTOR values, depending on the source
+    public void onRotationVector(float[] values) {
+        if (mSource == SOURCE_GAME_ROTATION_VECTOR) {
+            quaternionFromVector(mDelta, values);
+            if (mHasGamePrevious && mFusedValid) {
+                // the change since the last reading, in device coordinates: previous^-1 * current
+                float w = mGamePrevious[0], x = -mGamePrevious[1], y = -mGamePrevious[2], z = -mGamePrevious[3];
+                float dw = mDelta[0], dx = mDelta[1], dy = mDelta[2], dz = mDelta[3];
+                mGamePrevious[0] = dw;
+                mGamePrevious[1] = dx;
+                mGamePrevious[2] = dy;
+                mGamePrevious[3] = dz;
+                mDelta[0] = w * dw - x * dx - y * dy - z * dz;
+                mDelta[1] = w * dx + x * dw + y * dz - z * dy;
+                mDelta[2] = w * dy - x * dz + y * dw + z * dx;
+                mDelta[3] = w * dz + x * dy - y * dx + z * dw;
+                multiply(mFused, mDelta);
+            } else {
+                System.arraycopy(mDelta, 0, mGamePrevious, 0, 4);
+                mHasGamePrevious = true;
+            }
+        } else {
+            quaternionFromVector(mRotationVector, values);
+            mHasRotationVector = true;
+        }
+    }
+
+    // gyroscope rates in rad/s, with the event timestamp in ns
+    public void onGyroscope(float[] values, long timestamp) {
+        if (mGyroTimestamp != 0 && mFusedValid) {
+            float dt = (timestamp - mGyroTimestamp) * NS2S;
+            if (dt > 0 && dt < MAX_GYRO_DT) {
+                float wx = values[0], wy = values[1], wz = values[2];
+                float omega = (float)Math.sqrt(wx * wx + wy * wy + wz * wz);
+                if (omega > 1e-6f) {
+                    float half = omega * dt / 2;
+                    float sin = (float)Math.sin(half) / omega;
+                    mDelta[0] = (float)Math.cos(half);
+                    mDelta[1] = wx * sin;
+                    mDelta[2] = wy * sin;
+                    mDelta[3] = wz * sin;
+                    multiply(mFused, mDelta);
+                }
+            }
+        }
+        mGyroTimestamp = timestamp;
+    }
+
+    public boolean hasReadings() {
+        switch (mSource) {
+            case SOURCE_ROTATION_VECTOR: return mHasRotationVector;
+            case SOURCE_GYRO:
+            case SOURCE_GAME_ROTATION_VECTOR: return mFusedValid;
+            default: return mHasGravity && mHasGeomagnetic;
+        }
+    }
+
+    // nudges the fused attitude towards the accelerometer/magnetometer one, or starts it there
+    private void correctFused() {
+        if (!mHasGravity || !mHasGeomagnetic) return;
+        if (!getRotationMatrix(mRotationMatrixA, mGravity, mGeomagnetic)) return;
+        quaternionFromMatrix(mAccelMag, mRotationMatrixA);
+        if (!mFusedValid) {
+            System.arraycopy(mAccelMag, 0, mFused, 0, 4);
+            mFusedValid = true;
+            return;
+        }
+        // q and -q are the same rotation; blend towards whichever is nearer
+        float dot = mFused[0] * mAccelMag[0] + mFused[1] * mAccelMag[1] + mFused[2] * mAccelMag[2] + mFused[3] * mAccelMag[3];
+        float k = dot < 0 ? -FUSION_GAIN : FUSION_GAIN;
+        for (int i = 0; i < 4; i++) {
+            mFused[i] = (1 - FUSION_GAIN) * mFused[i] + k * mAccelMag[i];
+        }
+        normalize(mFused);
+    }
+
+    // works out the orientation from the latest readings; false if there isn't one (no readings
+    // yet, free fall, or the magnetic field is parallel to gravity)
+    public boolean update() {
+        if (!hasReadings()) return false;
+        switch (mSource) {
+            case SOURCE_ROTATION_VECTOR:
+                getRotationMatrixFromQuaternion(mRotationMatrixA, mRotationVector);
+                break;
+            case SOURCE_GYRO:
+            case SOURCE_GAME_ROTATION_VECTOR:
+                getRotationMatrixFromQuaternion(mRotationMatrixA, mFused);
+                break;
+            default:
+                if (!getRotationMatrix(mRotationMatrixA, mGravity, mGeomagnetic)) return false;
+                break;
+        }
+        rotateAboutVertical(mRotationMatrixA, mCosDeclination, mSinDeclination);
+
+        // rotated right (landscape) needs the axes swapping round; the other orientations don't
+        if (mDisplayRotation == ROTATION_270) {
+            remapCoordinateSystem(mRotationMatrixA, AXIS_MINUS_Z, AXIS_X, mRotationMatrixB);
+        } else {
+            remapCoordinateSystem(mRotationMatrixA, AXIS_X, AXIS_Z, mRotationMatrixB);
+        }
+        getOrientation(mRotationMatrixB, mOrientation);
+        return true;
+    }
+
+    // radians, as SensorManager.getOrientation
+    public float getAzimuth() {
+        return mOrientation[0];
+    }
+
+    public float getPitch() {
+        return mOrientation[1];
+    }
+
+    public float getRoll() {
+        return mOrientation[2];
+    }
+
+    static boolean getRotationMatrix(float[] R, float[] gravity, float[] geomagnetic) {
+        float Ax = gravity[0];
+        float Ay = gravity[1];
+        float Az = gravity[2];
+        final float normsqA = (Ax * Ax + Ay * Ay + Az * Az);
+        if (normsqA < FREE_FALL_GRAVITY_SQUARED) {
+            // gravity less than 10% of normal value
+            return false;
+        }
+        final float Ex = geomagnetic[0];
+        final float Ey = geomagnetic[1];
+        final float Ez = geomagnetic[2];
+        float Hx = Ey * Az - Ez * Ay;
+        float Hy = Ez * Ax - Ex * Az;
+        float Hz = Ex * Ay - Ey * Ax;
+        final float normH = (float)Math.sqrt(Hx * Hx + Hy * Hy + Hz * Hz);
+        if (normH < 0.1f) {
+            // device is close to free fall (or in space?), or close to magnetic north pole
+            return false;
+        }
+        final float invH = 1.0f / normH;
+        Hx *= invH;
+        Hy *= invH;
+        Hz *= invH;
+        final float invA = 1.0f / (float)Math.sqrt(normsqA);
+        Ax *= invA;
+        Ay *= invA;
+        Az *= invA;
+        final float Mx = Ay * Hz - Az * Hy;
+        final float My = Az * Hx - Ax * Hz;
+        final float Mz = Ax * Hy - Ay * Hx;
+        R[0] = Hx; R[1] = Hy; R[2] = Hz;
+        R[3] = Mx; R[4] = My; R[5] = Mz;
+        R[6] = Ax; R[7] = Ay; R[8] = Az;
+        return true;
+    }
+
+    // rotation vector values { x, y, z[, w] } to a unit quaternion { w, x, y, z }
+    static void quaternionFromVector(float[] q, float[] rv) {
+        float x = rv[0], y = rv[1], z = rv[2];
+        float w;
+        if (rv.length >= 4) {
+            w = rv[3];
+        } else {
+            w = 1 - x * x - y * y - z * z;
+            w = (w > 0) ? (float)Math.sqrt(w) : 0;
+        }
+        q[0] = w;
+        q[1] = x;
+        q[2] = y;
+        q[3] = z;
+        normalize(q);
+    }
+
+    // as SensorManager.getRotationMatrixFromVector
+    static void getRotationMatrixFromQuaternion(float[] R, float[] q) {
+        float q0 = q[0], q1 = q[1], q2 = q[2], q3 = q[3];
+        float sq_q1 = 2 * q1 * q1;
+        float sq_q2 = 2 * q2 * q2;
+        float sq_q3 = 2 * q3 * q3;
+        float q1_q2 = 2 * q1 * q2;
+        float q3_q0 = 2 * q3 * q0;
+        float q1_q3 = 2 * q1 * q3;
+        float q2_q0 = 2 * q2 * q0;
+        float q2_q3 = 2 * q2 * q3;
+        float q1_q0 = 2 * q1 * q0;
+        R[0] = 1 - sq_q2 - sq_q3;
+        R[1] = q1_q2 - q3_q0;
+        R[2] = q1_q3 + q2_q0;
+        R[3] = q1_q2 + q3_q0;
+        R[4] = 1 - sq_q1 - sq_q3;
+        R[5] = q2_q3 - q1_q0;
+        R[6] = q1_q3 - q2_q0;
+        R[7] = q2_q3 + q1_q0;
+        R[8] = 1 - sq_q1 - sq_q2;
+    }
+
+    static void quaternionFromMatrix(float[] q, float[] R) {
+        float trace = R[0] + R[4] + R[8];
+        if (trace > 0) {
+            float s = 0.5f / (float)Math.sqrt(trace + 1);
+            q[0] = 0.25f / s;
+            q[1] = (R[7] - R[5]) * s;
+            q[2] = (R[2] - R[6]) * s;
+            q[3] = (R[3] - R[1]) * s;
+        } else if (R[0] > R[4] && R[0] > R[8]) {
+            float s = 2 * (float)Math.sqrt(1 + R[0] - R[4] - R[8]);
+            q[0] = (R[7] - R[5]) / s;
+            q[1] = 0.25f * s;
+            q[2] = (R[1] + R[3]) / s;
+            q[3] = (R[2] + R[6]) / s;
+        } else if (R[4] > R[8]) {
+            float s = 2 * (float)Math.sqrt(1 + R[4] - R[0] - R[8]);
+            q[0] = (R[2] - R[6]) / s;
+            q[1] = (R[1] + R[3]) / s;
+            q[2] = 0.25f * s;
+            q[3] = (R[5] + R[7]) / s;
+        } else {
+            float s = 2 * (float)Math.sqrt(1 + R[8] - R[0] - R[4]);
+            q[0] = (R[3] - R[1]) / s;
+            q[1] = (R[2] + R[6]) / s;
+            q[2] = (R[5] + R[7]) / s;
+            q[3] = 0.25f * s;
+        }
+        normalize(q);
+    }
+
+    // q = q * r
+    static void multiply(float[] q, float[] r) {
+        float w = q[0], x = q[1], y = q[2], z = q[3];
+        q[0] = w * r[0] - x * r[1] - y * r[2] - z * r[3];
+        q[1] = w * r[1] + x * r[0] + y * r[3] - z * r[2];
+        q[2] = w * r[2] - x * r[3] + y * r[0] + z * r[1];
+        q[3] = w * r[3] + x * r[2] - y * r[1] + z * r[0];
+        normalize(q);
+    }
+
+    static void normalize(float[] q) {
+        float n = (float)Math.sqrt(q[0] * q[0] + q[1] * q[1] + q[2] * q[2] + q[3] * q[3]);
+        if (n > 0) {
+            q[0] /= n;
+            q[1] /= n;
+            q[2] /= n;
+            q[3] /= n;
+        }
+    }
+
+    // R = Rz * R, the same as Matrix.postRotate on the 3x3 values
+    static void rotateAboutVertical(float[] R, float cos, float sin) {
+        for (int i = 0; i < 3; i++) {
+            float east = R[i];
+            float north = R[3 + i];
+            R[i] = cos * east - sin * north;
+            R[3 + i] = sin * east + cos * north;
+        }
+    }
+
+    static boolean remapCoordinateSystem(float[] inR, int X, int Y, float[] outR) {
+        if ((X & 0x7C) != 0 || (Y & 0x7C) != 0) return false;   // invalid parameter
+        if (((X & 0x3) == 0) || ((Y & 0x3) == 0)) return false; // no axis specified
+        if ((X & 0x3) == (Y & 0x3)) return false;                // same axis specified
+
+        // Z is "the other" axis, its sign is either +/- sign(X)*sign(Y)
+        // this can be calculated by exclusive-or'ing X and Y; except for
+        // the sign inversion (+/-) which is calculated below.
+        int Z = X ^ Y;
+
+        // extract the axis (remove the sign), offset in the range 0 to 2.
+        final int x = (X & 0x3) - 1;
+        final int y = (Y & 0x3) - 1;
+        final int z = (Z & 0x3) - 1;
+
+        // compute the sign of Z (whether it needs to be inverted)
+        final int axis_y = (z + 1) % 3;
+        final int axis_z = (z + 2) % 3;
+        if (((x ^ axis_y) | (y ^ axis_z)) != 0) Z ^= 0x80;
+
+        final boolean sx = (X >= 0x80);
+        final boolean sy = (Y >= 0x80);
+        final boolean sz = (Z >= 0x80);
+
+        for (int j = 0; j < 3; j++) {
+            final int offset = j * 3;
+            for (int i = 0; i < 3; i++) {
+                if (x == i) outR[offset + i] = sx ? -inR[offset] : inR[offset];
+                if (y == i) outR[offset + i] = sy ? -inR[offset + 1] : inR[offset + 1];
+                if (z == i) outR[offset + i] = sz ? -inR[offset + 2] : inR[offset + 2];
+            }
+        }
+        return true;
+    }
+
+    static void getOrientation(float[] R, float[] values) {
+        values[0] = (float)Math.atan2(R[1], R[4]);
+        values[1] = (float)Math.asin(-R[7]);
+        values[2] = (float)Math.atan2(-R[6], R[8]);
+    }
+}
@@ -0,0 +1,89 @@
+package com.showmehills;
+
+/*
+ * The smoothed camera orientation after one sensor event. Filled in on the sensor thread and
+ * handed to the UI thread through an OrientationExchange, which never writes over one the UI is
+ * holding, so a draw pass can read all of it without locking and know the azimuth, pitch and
+ * variation belong together. The exchange reuses them, so one kept longer is copied.
+ *
+ * It also carries how fast the phone was turning, so a frame drawn after the reading can show
+ * where the phone is likely pointing by the time the frame is on screen rather than where the
+ * smoothed reading says it was; see direction(float, long) and pitch(long).
+ */
+public class OrientationSnapshot {
+
+    // the furthest ahead it extrapolates; past that a guess is worse than standing still
+    static final long MAX_PREDICTION_NANOS = 500000000L;
+
+    double azimuth;        // degrees 0..360 from north, before the user's compass adjustment
+    double pitch;          // radians
+    int variation;         // spread of the recent azimuth readings, as filteredDirection.GetVariation()
+    long eventTimestamp;   // SensorEvent.timestamp of the reading, ns
+    long publishedAt;      // SystemClock.elapsedRealtimeNanos() when it was published
+    double azimuthRate;    // degrees per second, clockwise
+    double pitchRate;      // radians per second
+    long azimuthLagNanos;  // how far behind the reading the smoothing leaves azimuth
+    long pitchLagNanos;    // and pitch
+    long sequence;         // which of HeadingProcessor's readings it is, from 1; 0 if not one of them
+
+    OrientationSnapshot(double azimuth, double pitch, int variation, long eventTimestamp, long publishedAt) {
+        this(azimuth, pitch, variation, eventTimestamp, publishedAt, 0, 0, 0, 0);
+    }
+
+    OrientationSnapshot(double azimuth, double pitch, int variation, long eventTimestamp, long publishedAt,
+                        double azimuthRate, double pitchRate, long azimuthLagNanos, long pitchLagNanos) {
+        set(azimuth, pitch, variation, eventTimestamp, publishedAt, azimuthRate, pitchRate, azimuthLagNanos, pitchLagNanos);
+    }
+
+    void set(double azimuth, double pitch, int variation, long eventTimestamp, long publishedAt,
+             double azimuthRate, double pitchRate, long azimuthLagNanos, long pitchLagNanos) {
+        this.azimuth = azimuth;
+        this.pitch = pitch;
+        this.variation = variation;
+        this.eventTimestamp = eventTimestamp;
+        this.publishedAt = publishedAt;
+        this.azimuthRate = azimuthRate;
+        this.pitchRate = pitchRate;
+        this.azimuthLagNanos = azimuthLagNanos;
+        this.pitchLagNanos = pitchLagNanos;
+    }
+
+    void copyFrom(OrientationSnapshot o) {
+        set(o.azimuth, o.pitch, o.variation, o.eventTimestamp, o.publishedAt,
+                o.azimuthRate, o.pitchRate, o.azimuthLagNanos, o.pitchLagNanos);
+        sequence = o.sequence;
+    }
+
+    // the heading to show, with the compass adjustment applied, 0..360
+    double direction(float compassAdjustment) {
+        // Allow for (possibly large) negative direction and/or compass adjustment by adding
+        // two full circles before applying modulus to force a value between 0 and 360.
+        return (azimuth + compassAdjustment + 720) % 360;
+    }
+
+    // the heading to show at the given time, in the elapsedRealtimeNanos base, carried on at the
+    // rate it was turning; with the compass adjustment applied, 0..360
+    double direction(float compassAdjustment, long at) {
+        double ahead = azimuthRate * horizon(at, azimuthLagNanos) / 1e9;
+        return (azimuth + ahead + compassAdjustment + 720) % 360;
+    }
+
+    // the pitch at the given time, as direction(float, long)
+    double pitch(long at) {
+        return pitch + pitchRate * horizon(at, pitchLagNanos) / 1e9;
+    }
+
+    // how far to extrapolate to reach the given time, from where the smoothing left the reading
+    long horizon(long at, long lagNanos) {
+        return Math.max(0, Math.min(MAX_PREDICTION_NANOS, age(at) + lagNanos));
+    }
+
+    // how long ago the reading was taken, given the time now in the elapsedRealtimeNanos base
+    long age(long now) {
+        // sensor timestamps are in the same base on nearly every phone, but not all; where they
+        // plainly aren't, count from when the reading was published instead
+        long age = now - eventTimestamp;
+        if (eventTimestamp == 0 || age < 0 || age > 10000000000L) age = now - publishedAt;
+        return age;
+    }
+}
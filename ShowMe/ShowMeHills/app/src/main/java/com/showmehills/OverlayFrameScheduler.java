@@ -0,0 +1,174 @@
+package com.showmehills;
+
+import android.os.SystemClock;
+import android.view.Choreographer;
+import android.view.View;
+
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/*
+ * Decides when the hill overlay is worth redrawing. Sensor events arrive far more often than
+ * the display refreshes and mostly move the smoothed heading by a fraction of a pixel, so rather
+ * than invalidating on every event they just ask for a frame. At most one Choreographer callback
+ * is outstanding, and when it runs at the next vsync the view is only invalidated if the heading
+ * or pitch have moved the labels by more than PIXEL_THRESHOLD since the last draw, the variation
+ * dial would change, a new hill snapshot has arrived, or something else asked for a redraw.
+ *
+ * Headings are compared where the overlay will show them: extrapolated to when the frame reaches
+ * the screen (see getShowTime() and OrientationSnapshot.direction(float, long)). So while the phone
+ * is turning the labels keep moving between sensor events, and frames are asked for at every vsync
+ * until the extrapolation runs out or the phone stops.
+ *
+ * requestFrame() may be called from any thread; everything else is for the UI thread.
+ */
+public class OverlayFrameScheduler implements Choreographer.FrameCallback {
+
+    static final float PIXEL_THRESHOLD = 1.0f;
+    // one dash of the variation dial
+    static final int VARIATION_THRESHOLD = 15;
+    static final long DEFAULT_FRAME_NANOS = 16666667L;
+
+    public interface Source {
+        OrientationSnapshot getOrientation();
+        HillSnapshot getHills();
+    }
+
+    private final Choreographer mChoreographer;
+    private final View mView;
+    private final Source mSource;
+    private final AtomicBoolean mFramePosted = new AtomicBoolean(false);
+    private boolean mRedrawRequested = true;
+    private boolean mRunning = false;
+
+    // what the view last drew (a copy, as the exchange reuses snapshots), and its scale then
+    private OrientationSnapshot mDrawnOrientation;
+    private long mDrawnAt;
+    private HillSnapshot mDrawnHills;
+    private float mPixelsPerDegreeX = 1, mPixelsPerDegreeY = 1;
+
+    // the vsync of the frame being drawn, in the System.nanoTime() base, and the time between vsyncs
+    private long mFrameTimeNanos;
+    private long mFrameIntervalNanos = DEFAULT_FRAME_NANOS;
+
+    // metrics
+    private volatile long mFramesDrawn;
+    private volatile long mFramesSkipped;
+
+    // must be created on the UI thread, for its Choreographer
+    public OverlayFrameScheduler(View view, Source source) {
+        mChoreographer = Choreographer.getInstance();
+        mView = view;
+        mSource = source;
+    }
+
+    public void start() {
+        mRunning = true;
+        redraw();
+    }
+
+    public void stop() {
+        mRunning = false;
+        mChoreographer.removeFrameCallback(this);
+        mFramePosted.set(false);
+    }
+
+    // there may be something new to draw; it's checked against the thresholds at the next vsync
+    public void requestFrame() {
+        if (mFramePosted.compareAndSet(false, true)) {
+            mChoreographer.postFrameCallback(this);
+        }
+    }
+
+    // something the thresholds don't see has changed (settings, calibration, compass adjustment)
+    public void redraw() {
+        mRedrawRequested = true;
+        requestFrame();
+    }
+
+    // the display's refresh rate, for how long after its vsync a frame reaches the screen
+    public void setRefreshRate(float hz) {
+        mFrameIntervalNanos = (hz >= 1) ? (long)(1e9 / hz) : DEFAULT_FRAME_NANOS;
+    }
+
+    // When the frame being drawn will be on screen, one vsync after the one it's drawn for, in the
+    // elapsedRealtimeNanos base of the orientation snapshots. A draw the scheduler didn't ask
+    // for counts from now.
+    public long getShowTime() {
+        long now = System.nanoTime();
+        long frameTime = (now - mFrameTimeNanos > mFrameIntervalNanos) ? now : mFrameTimeNanos;
+        return SystemClock.elapsedRealtimeNanos() - (now - frameTime) + mFrameIntervalNanos;
+    }
+
+    @Override
+    public void doFrame(long frameTimeNanos) {
+        // cleared first, so anything published from here on asks for another frame
+        mFramePosted.set(false);
+        if (!mRunning) return;
+        mFrameTimeNanos = frameTimeNanos;
+        OrientationSnapshot orientation = mSource.getOrientation();
+        long showTime = getShowTime();
+        if (needsDraw(orientation, showTime, mSource.getHills())) {
+            mRedrawRequested = false;
+            mView.invalidate();
+        } else {
+            mFramesSkipped++;
+        }
+        // the labels go on moving without new readings, until the extrapolation stops
+        if (orientation.horizon(showTime, orientation.azimuthLagNanos) < OrientationSnapshot.MAX_PREDICTION_NANOS
+                && (orientation.azimuthRate != 0 || orientation.pitchRate != 0)) {
+            requestFrame();
+        }
+    }
+
+    private boolean needsDraw(OrientationSnapshot orientation, long showTime, HillSnapshot hills) {
+        if (mRedrawRequested || mDrawnOrientation == null || hills != mDrawnHills) return true;
+        return moved(mDrawnOrientation, mDrawnAt, orientation, showTime, mPixelsPerDegreeX, mPixelsPerDegreeY);
+    }
+
+    // whether the overlay drawn for one orientation would look any different for another
+    static boolean moved(OrientationSnapshot drawn, OrientationSnapshot now, float pixelsPerDegreeX, float pixelsPerDegreeY) {
+        return moved(drawn, drawn.eventTimestamp, now, now.eventTimestamp, pixelsPerDegreeX, pixelsPerDegreeY);
+    }
+
+    // the same, with each extrapolated to when it is (or would be) shown
+    static boolean moved(OrientationSnapshot drawn, long drawnAt, OrientationSnapshot now, long nowAt,
+                         float pixelsPerDegreeX, float pixelsPerDegreeY) {
+        boolean sameReading = now == drawn || now.sequence != 0 && now.sequence == drawn.sequence;
+        if (sameReading && nowAt == drawnAt) return false;
+        double turn = MotionDetector.turn(now.direction(0, nowAt), drawn.direction(0, drawnAt));
+        if (turn * pixelsPerDegreeX > PIXEL_THRESHOLD) return true;
+        double tilt = Math.abs(Math.toDegrees(now.pitch(nowAt) - drawn.pitch(drawnAt)));
+        if (tilt * pixelsPerDegreeY > PIXEL_THRESHOLD) return true;
+        return Math.abs(now.variation - drawn.variation) >= VARIATION_THRESHOLD;
+    }
+
+    // called from onDraw with what it drew, for when, whatever asked for the draw
+    void onDrawn(OrientationSnapshot orientation, long showTime, HillSnapshot hills,
+                 float pixelsPerDegreeX, float pixelsPerDegreeY) {
+        if (mDrawnOrientation == null) mDrawnOrientation = new OrientationSnapshot(0, 0, 0, 0, 0);
+        mDrawnOrientation.copyFrom(orientation);
+        mDrawnAt = showTime;
+        mDrawnHills = hills;
+        mPixelsPerDegreeX = pixelsPerDegreeX;
+        mPixelsPerDegreeY = pixelsPerDegreeY;
+        mFramesDrawn++;
+    }
+
+    public long getFramesDrawn() {
+        return mFramesDrawn;
+    }
+
+    public long getFramesSkipped() {
+        return mFramesSkipped;
+    }
+
+    public void resetStats() {
+        mFramesDrawn = 0;
+        mFramesSkipped = 0;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("%d frames drawn, %d skipped", mFramesDrawn, mFramesSkipped);
+    }
+}
@@ -0,0 +1,200 @@
+package com.showmehills;
+
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+import android.graphics.Paint;
+import android.graphics.RectF;
+import android.graphics.Typeface;
+
+/*
+ * The parts of the camera overlay that only change with the screen size: the settings button, the
+ * calibration instructions and the compass variation dials. The button and instructions are drawn
+ * once into bitmaps and the dial dashes are worked out once, so a frame only copies them onto the
+ * canvas. Everything is made again when the size changes; the instructions only when they're
+ * next drawn, since once the view is calibrated they aren't needed. For the UI thread only.
+ */
+public class OverlayLayers {
+
+    // a dash every DASH_DEGREES round the dial
+    static final int DASH_DEGREES = 15;
+    static final int DASHES = 360 / DASH_DEGREES;
+
+    static final String[] CALIBRATION_TEXT = {
+            "To calibrate, view an object at the very",
+            "left edge of the screen, and wait for",
+            "the direction sensor to stabilise. Then",
+            "tap the screen (gently, so you don't move",
+            "the view!). Then turn around until the ",
+            "object is at the very right edge of the ",
+            "screen, wait for stabilisation, and tap again."
+    };
+
+    private int mWidth = -1, mHeight = -1;
+    private Bitmap mSettingsButton;
+    private Bitmap mCalibration;    // of the panel only, at mCalibrationLeft, mCalibrationTop
+    private int mCalibrationLeft, mCalibrationTop;
+    private int mCalibrationTextSize = 20;
+
+    // the dashes of the dials, as drawLines points, on the camera view and while calibrating
+    private float[] mStatusDial = new float[0];
+    private float[] mCalibrationDial = new float[0];
+
+    private final Paint mRedPaint = new Paint();
+    private final Paint mGreenPaint = new Paint();
+
+    public OverlayLayers() {
+        mRedPaint.setARGB(255, 255, 0, 0);
+        mRedPaint.setStrokeWidth(4);
+        mGreenPaint.setARGB(255, 0, 255, 0);
+        mGreenPaint.setStrokeWidth(4);
+    }
+
+    // makes the layers again if the screen isn't the size they were made for
+    public void resize(int width, int height) {
+        if (width == mWidth && height == mHeight) return;
+        mWidth = width;
+        mHeight = height;
+
+        int dashlength = height / 10;
+        mStatusDial = dial(width / 7, height - (height / 2.7f), dashlength);
+        mCalibrationDial = dial(width / 10, height - (height / 5), dashlength);
+
+        if (mSettingsButton != null) mSettingsButton.recycle();
+        mSettingsButton = renderSettingsButton(width, height);
+        dropCalibration();
+    }
+
+    // frees the calibration instructions, until they're drawn again
+    public void dropCalibration() {
+        if (mCalibration == null) return;
+        mCalibration.recycle();
+        mCalibration = null;
+    }
+
+    // the text size the calibration instructions fit the screen at, once drawn
+    public int getCalibrationTextSize() {
+        return mCalibrationTextSize;
+    }
+
+    public void drawSettingsButton(Canvas canvas) {
+        canvas.drawBitmap(mSettingsButton, 0, 0, null);
+    }
+
+    public void drawCalibration(Canvas canvas) {
+        if (mCalibration == null) mCalibration = renderCalibration(mWidth, mHeight);
+        canvas.drawBitmap(mCalibration, mCalibrationLeft, mCalibrationTop, null);
+    }
+
+    public void drawStatusDial(Canvas canvas, int variation) {
+        drawDial(canvas, mStatusDial, variation);
+    }
+
+    public void drawCalibrationDial(Canvas canvas, int variation) {
+        drawDial(canvas, mCalibrationDial, variation);
+    }
+
+    // the dashes up to the variation are red and the rest green
+    private void drawDial(Canvas canvas, float[] dashes, int variation) {
+        int red = redDashes(variation);
+        canvas.drawLines(dashes, 0, red * 4, mRedPaint);
+        canvas.drawLines(dashes, red * 4, (DASHES - red) * 4, mGreenPaint);
+    }
+
+    // how many dashes, from the top clockwise, are no more degrees round than the variation
+    static int redDashes(int variation) {
+        if (variation < 0) return 0;
+        return Math.min(DASHES, variation / DASH_DEGREES + 1);
+    }
+
+    // a dash for every DASH_DEGREES, from a fifth of the way out to dashlength from (cx, cy)
+    static float[] dial(float cx, float cy, int dashlength) {
+        float[] pts = new float[DASHES * 4];
+        for (int d = 0; d < DASHES; d++) {
+            double angle = Math.toRadians(d * DASH_DEGREES);
+            float sin = (float)Math.sin(angle);
+            float cos = (float)Math.cos(angle);
+            pts[d * 4] = cx + (dashlength / 5 * sin);
+            pts[d * 4 + 1] = cy - (dashlength / 5 * cos);
+            pts[d * 4 + 2] = cx + (dashlength * sin);
+            pts[d * 4 + 3] = cy - (dashlength * cos);
+        }
+        return pts;
+    }
+
+    private static Bitmap renderSettingsButton(int width, int height) {
+        float barwidth = width/12.0f;
+        int startPtw = width/60;
+        int startPth = height/60;
+        int baroffset = width/50;
+
+        Paint settingPaint = new Paint();
+        Paint settingPaint2 = new Paint();
+        settingPaint2.setStyle(Paint.Style.STROKE);
+        settingPaint.setAntiAlias(true);
+        settingPaint2.setAntiAlias(true);
+        settingPaint2.setStrokeWidth((int)(width/100.0));
+        settingPaint2.setARGB(255, 255, 255, 255);
+        settingPaint.setARGB(255, 0, 0, 0);
+
+        Bitmap bitmap = Bitmap.createBitmap(Math.max(1, (int)Math.ceil(barwidth + (startPtw*2))),
+                Math.max(1, (int)Math.ceil(baroffset * 3.3f)), Bitmap.Config.ARGB_8888);
+        Canvas canvas = new Canvas(bitmap);
+        canvas.drawRect(0.0f, 0.0f, barwidth + (startPtw*2), baroffset * 3.3f, settingPaint);
+
+        canvas.drawLine(startPtw, startPth, startPtw + barwidth, startPth, settingPaint2);
+
+        canvas.drawLine(startPtw, startPth+baroffset, startPtw + barwidth, startPth+baroffset, settingPaint2);
+        baroffset += baroffset;
+        canvas.drawLine(startPtw, startPth+baroffset, startPtw + barwidth, startPth+baroffset, settingPaint2);
+        return bitmap;
+    }
+
+    private Bitmap renderCalibration(int width, int height) {
+        int subwidth = (int)(width*0.7);
+        int subheight = (int)(height*0.7);
+        int gap = (width - subwidth) / 2;
+        int txtgap = gap+(subwidth/30);
+        int vtxtgap = (subheight / 10);
+
+        Paint textPaint = new Paint();
+        textPaint.setTypeface(Typeface.DEFAULT_BOLD);
+        textPaint.setTextAlign(Paint.Align.LEFT);
+        textPaint.setARGB(255, 255, 255, 255);
+
+        // adjust text to fit any screen, starting from the last size that fitted
+        boolean happyWithSize = false;
+        do
+        {
+            textPaint.setTextSize(mCalibrationTextSize);
+            float sz = textPaint.measureText(CALIBRATION_TEXT[CALIBRATION_TEXT.length - 1]);
+            if (sz > width*0.7 && mCalibrationTextSize > 1)
+            {
+                mCalibrationTextSize--;
+            }
+            else if (sz < width*0.6)
+            {
+                mCalibrationTextSize++;
+            }
+            else
+            {
+                happyWithSize = true;
+            }
+        } while (!happyWithSize);
+
+        Paint paint = new Paint();
+        paint.setARGB(100, 0, 0, 0);
+
+        mCalibrationLeft = gap;
+        mCalibrationTop = vtxtgap;
+        Bitmap bitmap = Bitmap.createBitmap(Math.max(1, width - gap*2), Math.max(1, vtxtgap*10), Bitmap.Config.ARGB_8888);
+        Canvas canvas = new Canvas(bitmap);
+        canvas.translate(-gap, -vtxtgap);
+        // left, top, right, bottom
+        canvas.drawRoundRect(new RectF(gap,vtxtgap,width-gap,vtxtgap*11), 50,50,paint);
+        for (int line = 0; line < CALIBRATION_TEXT.length; line++)
+        {
+            canvas.drawText(CALIBRATION_TEXT[line], txtgap, vtxtgap*(3 + line), textPaint);
+        }
+        return bitmap;
+    }
+}
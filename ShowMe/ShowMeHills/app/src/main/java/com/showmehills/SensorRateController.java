@@ -0,0 +1,138 @@
+package com.showmehills;
+
+import android.hardware.Sensor;
+import android.hardware.SensorEventListener;
+import android.hardware.SensorManager;
+import android.os.Handler;
+import android.os.SystemClock;
+import android.util.Log;
+
+import java.util.ArrayList;
+
+/*
+ * Registers a listener's sensors at one of two rates and moves them between the two as needed:
+ * fast while the phone is moving, and slow, with events batched in the sensor hub FIFO for up to
+ * the given report latency, while it is held still or when the screen only needs a rough heading.
+ * Batching lets the application processor sleep between deliveries on phones that support it;
+ * elsewhere the latency is ignored and only the lower rate helps.
+ *
+ * Synchronized, since the rate is usually changed from the sensor thread while start and stop
+ * come from the UI thread; once stopped, a late call from a queued event can't re-register.
+ */
+public class SensorRateController {
+
+    private static class Registration {
+        final Sensor sensor;
+        final int fastDelay;
+        final int slowDelay;
+
+        Registration(Sensor sensor, int fastDelay, int slowDelay) {
+            this.sensor = sensor;
+            this.fastDelay = fastDelay;
+            this.slowDelay = slowDelay;
+        }
+    }
+
+    private final SensorManager mSensorManager;
+    private final SensorEventListener mListener;
+    private final Handler mHandler;
+    private final ArrayList<Registration> mRegistrations = new ArrayList<>();
+    private final int mMaxReportLatencyUs;
+
+    private boolean mStarted = false;
+    private boolean mSlow = false;
+
+    // metrics
+    private int mSwitches;
+    private long mSlowSince;
+    private long mSlowMillis;
+
+    public SensorRateController(SensorManager sensorManager, SensorEventListener listener, Handler handler, int maxReportLatencyUs) {
+        mSensorManager = sensorManager;
+        mListener = listener;
+        mHandler = handler;
+        mMaxReportLatencyUs = maxReportLatencyUs;
+    }
+
+    // delays are SENSOR_DELAY_* constants or sampling periods in microseconds
+    public synchronized void add(Sensor sensor, int fastDelay, int slowDelay) {
+        if (sensor == null) return;
+        mRegistrations.add(new Registration(sensor, fastDelay, slowDelay));
+        if (mStarted) register(mRegistrations.get(mRegistrations.size() - 1));
+    }
+
+    public synchronized void clear() {
+        stop();
+        mRegistrations.clear();
+    }
+
+    public synchronized void start(boolean slow) {
+        if (mStarted) stop();
+        mStarted = true;
+        mSlow = slow;
+        if (slow) mSlowSince = SystemClock.elapsedRealtime();
+        for (int i = 0; i < mRegistrations.size(); i++) {
+            register(mRegistrations.get(i));
+        }
+    }
+
+    public synchronized void stop() {
+        if (!mStarted) return;
+        mSensorManager.unregisterListener(mListener);
+        if (mSlow) mSlowMillis += SystemClock.elapsedRealtime() - mSlowSince;
+        mStarted = false;
+    }
+
+    public synchronized void setSlow(boolean slow) {
+        if (!mStarted || slow == mSlow) return;
+        long now = SystemClock.elapsedRealtime();
+        if (slow) {
+            mSlowSince = now;
+        } else {
+            mSlowMillis += now - mSlowSince;
+        }
+        mSlow = slow;
+        mSwitches++;
+        // a listener can't be registered twice for one sensor, so each goes off and back on
+        for (int i = 0; i < mRegistrations.size(); i++) {
+            Registration r = mRegistrations.get(i);
+            mSensorManager.unregisterListener(mListener, r.sensor);
+            register(r);
+        }
+        Log.d("showmehills", "sensors " + (slow ? "slow" : "fast"));
+    }
+
+    public synchronized boolean isSlow() {
+        return mSlow;
+    }
+
+    private void register(Registration r) {
+        if (mSlow) {
+            mSensorManager.registerListener(mListener, r.sensor, r.slowDelay, mMaxReportLatencyUs, mHandler);
+        } else {
+            mSensorManager.registerListener(mListener, r.sensor, r.fastDelay, mHandler);
+        }
+    }
+
+    public synchronized int getSwitches() {
+        return mSwitches;
+    }
+
+    // time spent at the slow rate, including the current stretch
+    public synchronized long getSlowMillis() {
+        long slow = mSlowMillis;
+        if (mStarted && mSlow) slow += SystemClock.elapsedRealtime() - mSlowSince;
+        return slow;
+    }
+
+    public synchronized void resetStats() {
+        mSwitches = 0;
+        mSlowMillis = 0;
+        mSlowSince = SystemClock.elapsedRealtime();
+    }
+
+    @Override
+    public synchronized String toString() {
+        return String.format("%d rate switches, %.1fs slow", mSwitches, getSlowMillis() / 1000.0);
+    }
+}
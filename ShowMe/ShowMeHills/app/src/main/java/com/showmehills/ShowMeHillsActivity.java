@@ -35,9 +35,15 @@ package com.showmehills;
  */
 
 import android.app.Activity;
+import android.os.Build;
 import android.os.Bundle;
-import java.util.ArrayList;
-import java.util.Iterator;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.Process;
+import android.os.SystemClock;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
 import java.util.Timer;
 import java.util.TimerTask;
 import java.util.UUID;
@@ -47,6 +53,7 @@ import android.content.SharedPreferences;
 import android.database.SQLException;
 import android.graphics.*;
 import android.hardware.*;
+import android.hardware.display.DisplayManager;
 import android.location.*;
 import android.preference.PreferenceManager;
 import android.util.DisplayMetrics;
@@ -69,34 +76,48 @@ public class ShowMeHillsActivity extends Activity implements IShowMeHillsActivit
     private RapidGPSLock mGPS;
     Sensor accelerometer;
     Sensor magnetometer;
-    float[] mGravity;
-    float[] mGeomagnetic;
+    Sensor rotationVector;
+    Sensor gameRotationVector;
+    Sensor gyroscope;
+    private String headingSourcePref = "auto";
+    // sensor events are delivered and worked through here, away from drawing and touch handling
+    private HandlerThread mSensorThread;
+    private Handler mSensorHandler;
+    // the latest smoothed orientation, written by the sensor thread and read by the UI
+    private final OrientationExchange mOrientation = new OrientationExchange();
+    // sensor event to screen
+    final LatencyTracker mLatency = new LatencyTracker();
+    // drops the sensors to a slower, batched rate while the phone is held still
+    private SensorRateController mSensorRates;
+    private static final int STILL_REPORT_LATENCY_US = 200000;
+    // paces overlay redraws to the display, skipping those that wouldn't move anything
+    private OverlayFrameScheduler mFrameScheduler;
+    // owns copies of the sensor readings and all the working arrays, so events don't allocate
+    private final HeadingProcessor mHeading = new HeadingProcessor();
+    // recording the sensor events and queries for replay, when the preference is on
+    private volatile TraceRecorder mTrace;
+    private DisplayManager mDisplayManager;
 
     Timer timer;
     private int GPSretryTime = 60;
     private int CompassSmoothingWindow = 50;
+    // the gyro-assisted sources are already smooth; averaging many readings would only add lag
+    private static final int FUSED_SMOOTHING_WINDOW = 5;
 
     //private Location curLocation;
     private boolean isCalibrated = false;
     private double calibrationStep = -1;
     private float compassAdjustment = 0;
-    private ArrayList<HillMarker> mMarkers = new ArrayList<>();
+    // where the labels are, for touches; a new one is published after each layout
+    private volatile LabelHitIndex mHitIndex = LabelHitIndex.EMPTY;
 
-    float mRotationMatrixA[] = new float[9];
-    float mRotationMatrixB[] = new float[9];
-    float mDeclination = 0;
-    private boolean mHasAccurateGravity = false;
-    private boolean mHasAccurateAccelerometer = false;
 
     public int scrwidth = 10;
     public int scrheight = 10;
     public int scrdpi = 10;
-    private int mMainTextSize = 20;
     public static CameraPreviewSurface cv;
     public DrawOnTop mDraw;
-    private HillDatabase myDbHelper;
-    private filteredDirection fd = new filteredDirection();
-    private filteredElevation fe = new filteredElevation();
+    private HillQueryEngine mQueryEngine;
 
     RangeSeekBar heightSeekBar;
     RangeSeekBar distanceSeekBar;
@@ -109,11 +130,10 @@ public class ShowMeHillsActivity extends Activity implements IShowMeHillsActivit
     boolean typeunits = false; // true for metric, false for imperial
     boolean showheight = false;
     boolean showhelp = true;
+    boolean recordtrace = false;
     String uniqueID = "nothere";
 
     // constants
-    private static final float TEXT_SIZE_DECREMENT = 1;
-    private static final float TEXT_SIZE_MIN = 7;
 
     private static final int ALPHA_LABEL_MAX = 255;
     private static final int ALPHA_LINE_MAX = 205;
@@ -122,21 +142,59 @@ public class ShowMeHillsActivity extends Activity implements IShowMeHillsActivit
     private static final int ALPHA_LABEL_MIN = 180;
     private static final int ALPHA_LINE_MIN = 50;
 
+    // Only a few dozen labels fit in the view, but the query isn't rerun as the phone turns, so
+    // keep enough of the nearest hills to fill the view whichever way it points.
+    private static final int MAX_LABEL_CANDIDATES = 300;
+
     TextView dirText;
     TextView fovText;
     TextView locText;
 
-    public class HillMarker
-    {
-        public HillMarker(int id, Rect loc) { location = loc; hillid=id; }
-        public Rect location;
-        public int hillid;
-    }
+    // the readouts are refreshed this often, rather than from every draw
+    private static final int STATUS_INTERVAL_MS = 250;
+    private final StatusText mDirStatus = new StatusText();
+    private final StatusText mFovStatus = new StatusText();
+    private final StatusText mLocStatus = new StatusText();
+    private final Runnable mStatusUpdater = new Runnable() {
+        @Override
+        public void run() {
+            if (isCalibrated) updateStatusText();
+            mDraw.postDelayed(this, STATUS_INTERVAL_MS);
+        }
+    };
+
+    // Requery on every drag event. HillQueryEngine only keeps the newest request while a query is
+    // running, so fast drags don't queue up stale queries and slow ones aren't held back by a throttle.
+    private final View.OnTouchListener mSeekBarTouchListener = new View.OnTouchListener() {
+        @Override
+        public boolean onTouch(View v, MotionEvent event) {
+            UpdateMarkers();
+            if (event.getAction() == MotionEvent.ACTION_UP) {
+                Log.d("showmehills", "hill queries: " + mQueryEngine.getStats());
+            }
+            return false;
+        }
+    };
+
+    // the display rotation only changes when the display does, so keep it rather than asking the
+    // window manager on every sensor event
+    private final DisplayManager.DisplayListener mDisplayListener = new DisplayManager.DisplayListener() {
+        @Override
+        public void onDisplayAdded(int displayId) {}
+
+        @Override
+        public void onDisplayRemoved(int displayId) {}
+
+        @Override
+        public void onDisplayChanged(int displayId) {
+            mHeading.getPipeline().setDisplayRotation(getWindowManager().getDefaultDisplay().getRotation());
+            mFrameScheduler.setRefreshRate(getWindowManager().getDefaultDisplay().getRefreshRate());
+        }
+    };
 
     public int GetRotation()
     {
-        Display display = getWindowManager().getDefaultDisplay();
-        return display.getRotation();
+        return mHeading.getPipeline().getDisplayRotation();
     }
 
     private void getPrefs() {
@@ -177,7 +235,9 @@ public class ShowMeHillsActivity extends Activity implements IShowMeHillsActivit
         hfov = prefs.getFloat("hfov", (float) 50.2);
         compassAdjustment = prefs.getFloat("compassAdjustment", 0);
         showhelp = prefs.getBoolean("showhelp", true);
+        recordtrace = prefs.getBoolean("recordtrace", false);
         CompassSmoothingWindow = Integer.parseInt(prefs.getString("smoothing", "50"));
+        headingSourcePref = prefs.getString("headingsource", "auto");
         uniqueID = prefs.getString("uniqueID", "nothere");
         if (uniqueID.equals("nothere"))
         {
@@ -201,16 +261,7 @@ public class ShowMeHillsActivity extends Activity implements IShowMeHillsActivit
         if (md.equals("")) md = "0";
         Float fval = Float.parseFloat(md);
         heightSeekBar.setRangeValues(fval, 9000);
-        heightSeekBar.setOnTouchListener(new View.OnTouchListener() {
-            int throttle = 0;
-            @Override
-            public boolean onTouch(View v, MotionEvent event) {
-                throttle++;
-                if (throttle % 15 == 0)
-                    UpdateMarkers();
-                return false;
-            }
-        });
+        heightSeekBar.setOnTouchListener(mSeekBarTouchListener);
 
         distanceSeekBar = (RangeSeekBar) findViewById(R.id.distanceSeekBar);
         md = prefs.getString("mindistance", "0");
@@ -228,13 +279,32 @@ public class ShowMeHillsActivity extends Activity implements IShowMeHillsActivit
         cv.onResume();
         getPrefs();
 
-        fd = new filteredDirection();
-        fe = new filteredElevation();
+        final int source = chooseHeadingSource();
+        final int window = (source == OrientationPipeline.SOURCE_ACCEL_MAG)
+                ? CompassSmoothingWindow : Math.min(CompassSmoothingWindow, FUSED_SMOOTHING_WINDOW);
+        // the pipeline and filters belong to the sensor thread; this runs there before any
+        // events from the registrations below
+        mSensorHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                // start the filters afresh, picking up any change to the smoothing preference
+                mHeading.reset(source, window);
+            }
+        });
+        mLatency.reset();
+        mFrameScheduler.resetStats();
+        mSensorRates.resetStats();
+        mFrameScheduler.start();
+        mDraw.removeCallbacks(mStatusUpdater);
+        mDraw.post(mStatusUpdater);
         super.onResume();
 
         SetSeekBars();
-        mSensorManager.registerListener(this, accelerometer, SensorManager.SENSOR_DELAY_GAME);
-        mSensorManager.registerListener(this, magnetometer, SensorManager.SENSOR_DELAY_GAME);
+        mHeading.getPipeline().setDisplayRotation(getWindowManager().getDefaultDisplay().getRotation());
+        mFrameScheduler.setRefreshRate(getWindowManager().getDefaultDisplay().getRefreshRate());
+        mDisplayManager.registerDisplayListener(mDisplayListener, null);
+        if (recordtrace) startTrace();
+        registerSensors(source);
         mGPS.switchOn();
 
         if (timer != null)
@@ -244,14 +314,76 @@ public class ShowMeHillsActivity extends Activity implements IShowMeHillsActivit
         }
         timer = new Timer();
         timer.scheduleAtFixedRate(new LocationTimerTask(),GPSretryTime* 1000,GPSretryTime* 1000);
+        mQueryEngine.open();
         UpdateMarkers();
+    }
+
+    // the heading source preference, falling back to what the phone actually has
+    private int chooseHeadingSource() {
+        if (headingSourcePref.equals("rotationvector") && rotationVector != null) {
+            return OrientationPipeline.SOURCE_ROTATION_VECTOR;
+        }
+        if (headingSourcePref.equals("gamerotationvector") && gameRotationVector != null && magnetometer != null) {
+            return OrientationPipeline.SOURCE_GAME_ROTATION_VECTOR;
+        }
+        if (headingSourcePref.equals("gyro") && gyroscope != null && magnetometer != null) {
+            return OrientationPipeline.SOURCE_GYRO;
+        }
+        if (headingSourcePref.equals("auto")) {
+            if (rotationVector != null) return OrientationPipeline.SOURCE_ROTATION_VECTOR;
+            if (gyroscope != null && magnetometer != null) return OrientationPipeline.SOURCE_GYRO;
+        }
+        return OrientationPipeline.SOURCE_ACCEL_MAG;
+    }
+
+    // to the app's external files dir, where adb pull can get at it
+    private void startTrace() {
+        File dir = getExternalFilesDir("traces");
+        if (dir == null) return;
+        File file = new File(dir, "trace-" + System.currentTimeMillis() + ".smht");
         try {
-            myDbHelper.checkDataBase();
-        }catch(SQLException sqle){
-            throw sqle;
+            mTrace = new TraceRecorder(new FileOutputStream(file));
+            Log.d("showmehills", "recording trace to " + file);
+        } catch (IOException e) {
+            Log.e("showmehills", "can't record trace: " + e.getMessage());
         }
     }
 
+    private void stopTrace() {
+        TraceRecorder trace = mTrace;
+        if (trace == null) return;
+        mTrace = null;
+        trace.close();
+        Log.d("showmehills", "trace closed, " + trace.getRecords() + " records"
+                + (trace.getError() != null ? ", " + trace.getError().getMessage() : ""));
+    }
+
+    // each sensor's fast rate, for when the phone is moving, and slow rate for when it is held still
+    private void registerSensors(int source) {
+        mSensorRates.clear();
+        switch (source) {
+            case OrientationPipeline.SOURCE_ROTATION_VECTOR:
+                // already fused by the platform, so it's the only sensor we need
+                mSensorRates.add(rotationVector, SensorManager.SENSOR_DELAY_GAME, SensorManager.SENSOR_DELAY_UI);
+                break;
+            case OrientationPipeline.SOURCE_GAME_ROTATION_VECTOR:
+            case OrientationPipeline.SOURCE_GYRO:
+                // no slower than UI, or the gaps between gyro readings get too long to integrate
+                mSensorRates.add(source == OrientationPipeline.SOURCE_GYRO ? gyroscope : gameRotationVector,
+                        SensorManager.SENSOR_DELAY_GAME, SensorManager.SENSOR_DELAY_UI);
+                // the accelerometer and magnetometer only correct drift, so they can be slow
+                mSensorRates.add(accelerometer, SensorManager.SENSOR_DELAY_UI, SensorManager.SENSOR_DELAY_NORMAL);
+                mSensorRates.add(magnetometer, SensorManager.SENSOR_DELAY_UI, SensorManager.SENSOR_DELAY_NORMAL);
+                break;
+            default:
+                mSensorRates.add(accelerometer, SensorManager.SENSOR_DELAY_GAME, SensorManager.SENSOR_DELAY_UI);
+                mSensorRates.add(magnetometer, SensorManager.SENSOR_DELAY_GAME, SensorManager.SENSOR_DELAY_UI);
+                break;
+        }
+        mSensorRates.start(false);
+        Log.d("showmehills", "heading source " + source);
+    }
+
     @Override
     protected void onPause() {
         Log.d("showmehills", "onPause");
@@ -259,15 +391,15 @@ public class ShowMeHillsActivity extends Activity implements IShowMeHillsActivit
         timer.cancel();
         timer = null;
         mGPS.switchOff();
-        mSensorManager.unregisterListener(this);
+        mSensorRates.stop();
+        stopTrace();
+        mDisplayManager.unregisterDisplayListener(mDisplayListener);
+        mFrameScheduler.stop();
+        mDraw.removeCallbacks(mStatusUpdater);
+        Log.d("showmehills", "sensor " + mLatency + "; " + mFrameScheduler + "; " + mSensorRates);
 
         super.onPause();
-        try {
-            myDbHelper.close();
-        }catch(SQLException sqle){
-            throw sqle;
-        }
-
+        mQueryEngine.close();
     }
     @Override
     protected void onStop()
@@ -279,15 +411,23 @@ public class ShowMeHillsActivity extends Activity implements IShowMeHillsActivit
                 timer.cancel();
                 timer = null;
             }
-            mSensorManager.unregisterListener(this);
+            mSensorRates.stop();
             //wl.release();
-            myDbHelper.close();
+            mQueryEngine.close();
         }catch(SQLException sqle){
             throw sqle;
         }
         super.onStop();
     }
 
+    @Override
+    protected void onDestroy()
+    {
+        mQueryEngine.shutdown();
+        mSensorThread.quitSafely();
+        super.onDestroy();
+    }
+
     public synchronized Tracker getGoogleAnalyticsTracker() {
         AnalyticsTrackers analyticsTrackers = AnalyticsTrackers.getInstance();
         return analyticsTrackers.get(AnalyticsTrackers.Target.APP);
@@ -322,8 +462,23 @@ public class ShowMeHillsActivity extends Activity implements IShowMeHillsActivit
 
         accelerometer = mSensorManager.getDefaultSensor(Sensor.TYPE_ACCELEROMETER);
         magnetometer = mSensorManager.getDefaultSensor(Sensor.TYPE_MAGNETIC_FIELD);
-
-        myDbHelper = new HillDatabase(this, getString(R.string.dbname), getString(R.string.dbpath));
+        rotationVector = mSensorManager.getDefaultSensor(Sensor.TYPE_ROTATION_VECTOR);
+        gameRotationVector = mSensorManager.getDefaultSensor(Sensor.TYPE_GAME_ROTATION_VECTOR);
+        gyroscope = mSensorManager.getDefaultSensor(Sensor.TYPE_GYROSCOPE);
+        mDisplayManager = (DisplayManager)getSystemService(DISPLAY_SERVICE);
+        mSensorThread = new HandlerThread("showmehills-sensors", Process.THREAD_PRIORITY_DISPLAY);
+        mSensorThread.start();
+        mSensorHandler = new Handler(mSensorThread.getLooper());
+        mSensorRates = new SensorRateController(mSensorManager, this, mSensorHandler, STILL_REPORT_LATENCY_US);
+
+        // queries run on the engine's own thread; redraw once each new set of hills is ready
+        mQueryEngine = new HillQueryEngine(HillStoreFactory.open(this));
+        mQueryEngine.setOnSnapshotListener(new HillQueryEngine.OnSnapshotListener() {
+            @Override
+            public void onHillSnapshot(HillSnapshot snapshot) {
+                if (mFrameScheduler != null) mFrameScheduler.requestFrame();
+            }
+        });
 
         DisplayMetrics displaymetrics = new DisplayMetrics();
 
@@ -336,6 +491,17 @@ public class ShowMeHillsActivity extends Activity implements IShowMeHillsActivit
 
         mDraw = new DrawOnTop(this);
         addContentView(mDraw, new LayoutParams(LayoutParams.WRAP_CONTENT, LayoutParams.WRAP_CONTENT));
+        mFrameScheduler = new OverlayFrameScheduler(mDraw, new OverlayFrameScheduler.Source() {
+            @Override
+            public OrientationSnapshot getOrientation() {
+                return mOrientation.latest();
+            }
+
+            @Override
+            public HillSnapshot getHills() {
+                return mQueryEngine.getSnapshot();
+            }
+        });
         cv = (CameraPreviewSurface)findViewById(R.id.cps);
         cv.init(this);
         cv.setOnTouchListener(this);
@@ -350,28 +516,10 @@ public class ShowMeHillsActivity extends Activity implements IShowMeHillsActivit
 
         SetSeekBars();
         heightSeekBar = (RangeSeekBar) findViewById(R.id.heightSeekBar);
-        heightSeekBar.setOnTouchListener(new View.OnTouchListener() {
-            int throttle = 0;
-            @Override
-            public boolean onTouch(View v, MotionEvent event) {
-                throttle++;
-                if (throttle % 15 == 0)
-                    UpdateMarkers();
-                return false;
-            }
-        });
+        heightSeekBar.setOnTouchListener(mSeekBarTouchListener);
 
         distanceSeekBar = (RangeSeekBar) findViewById(R.id.distanceSeekBar);
-        distanceSeekBar.setOnTouchListener(new View.OnTouchListener() {
-            int throttle = 0;
-            @Override
-            public boolean onTouch(View v, MotionEvent event) {
-                throttle++;
-                if (throttle % 15 == 0)
-                    UpdateMarkers();
-                return false;
-            }
-        });
+        distanceSeekBar.setOnTouchListener(mSeekBarTouchListener);
 
     }
 
@@ -398,8 +546,9 @@ public class ShowMeHillsActivity extends Activity implements IShowMeHillsActivit
             {
                 RangeSeekBar heightSeekBar = (RangeSeekBar) findViewById(R.id.heightSeekBar);
                 RangeSeekBar distanceSeekBar = (RangeSeekBar) findViewById(R.id.distanceSeekBar);
-                myDbHelper.SetDirections(curLocation, heightSeekBar.getSelectedMinValue().intValue(), heightSeekBar.getSelectedMaxValue().intValue(),
-                        distanceSeekBar.getSelectedMinValue().intValue(), distanceSeekBar.getSelectedMaxValue().intValue());
+                mQueryEngine.requestQuery(curLocation, heightSeekBar.getSelectedMinValue().intValue(), heightSeekBar.getSelectedMaxValue().intValue(),
+                        distanceSeekBar.getSelectedMinValue().intValue(), distanceSeekBar.getSelectedMaxValue().intValue(),
+                        MAX_LABEL_CANDIDATES, HillRanking.BY_DISTANCE);
                 editor.putFloat("longitude", (float)curLocation.getLongitude());
                 editor.putFloat("latitude", (float)curLocation.getLatitude());
                 editor.commit();
@@ -422,6 +571,7 @@ public class ShowMeHillsActivity extends Activity implements IShowMeHillsActivit
             isCalibrated = false;
             editor.putBoolean("isCalibrated", false);
             editor.commit();
+            mFrameScheduler.redraw();
         }
         return super.onOptionsItemSelected(item);
     }
@@ -433,117 +583,49 @@ public class ShowMeHillsActivity extends Activity implements IShowMeHillsActivit
         {
             RangeSeekBar heightSeekBar = (RangeSeekBar) findViewById(R.id.heightSeekBar);
             RangeSeekBar distanceSeekBar = (RangeSeekBar) findViewById(R.id.distanceSeekBar);
-            myDbHelper.SetDirections(curLocation, heightSeekBar.getSelectedMinValue().intValue(), heightSeekBar.getSelectedMaxValue().intValue(),
-                    distanceSeekBar.getSelectedMinValue().intValue(), distanceSeekBar.getSelectedMaxValue().intValue());
-        }
-    }
-
-    class filteredDirection
-    {
-        double dir;
-        double sinevalues[] = new double[CompassSmoothingWindow];
-        double cosvalues[] = new double[CompassSmoothingWindow];
-        int index = 0;
-
-        void AddLatest( double d )
-        {
-            sinevalues[index] = Math.sin(d);
-            cosvalues[index] = Math.cos(d);
-            index++;
-            if (index > CompassSmoothingWindow - 1) index = 0;
-            double sumc = 0;
-            double sums = 0;
-            for (int a = 0; a < CompassSmoothingWindow; a++)
-            {
-                sumc += cosvalues[a];
-                sums += sinevalues[a];
+            int minheight = heightSeekBar.getSelectedMinValue().intValue();
+            int maxheight = heightSeekBar.getSelectedMaxValue().intValue();
+            int mindistance = distanceSeekBar.getSelectedMinValue().intValue();
+            int maxdistance = distanceSeekBar.getSelectedMaxValue().intValue();
+            TraceRecorder trace = mTrace;
+            if (trace != null) {
+                trace.query(SystemClock.elapsedRealtimeNanos(), curLocation.getLatitude(), curLocation.getLongitude(),
+                        curLocation.getAltitude(), curLocation.getAccuracy(),
+                        minheight, maxheight, mindistance, maxdistance, MAX_LABEL_CANDIDATES);
             }
-            dir = Math.atan2(sums/CompassSmoothingWindow,sumc/CompassSmoothingWindow);
-        }
-
-        double getDirection()
-        {
-            // Allow for (possibly large) negative direction and/or compass adjustment by adding
-            // two full circles before applying modulus to force a value between 0 and 360.
-            return (Math.toDegrees(dir) + compassAdjustment + 720) % 360;
-        }
-
-        int GetVariation()
-        {
-            double Q;
-            double sumc = 0;
-            double sums = 0;
-            for (int a = 0; a < CompassSmoothingWindow; a++)
-            {
-                sumc += cosvalues[a];
-                sums += sinevalues[a];
-            }
-            double avgc = sumc/CompassSmoothingWindow;
-            double avgs = sums/CompassSmoothingWindow;
-
-            sumc = 0;
-            sums = 0;
-            for (int a = 0; a < CompassSmoothingWindow; a++)
-            {
-                sumc += Math.pow(cosvalues[a] - avgc, 2);
-                sums += Math.pow(sinevalues[a] - avgs, 2);
-            }
-            Q = (sumc/(CompassSmoothingWindow-1)) + (sums/(CompassSmoothingWindow-1));
-
-            return (int)(Q*1000);
+            mQueryEngine.requestQuery(curLocation, minheight, maxheight, mindistance, maxdistance,
+                    MAX_LABEL_CANDIDATES, HillRanking.BY_DISTANCE);
         }
     }
 
-    class filteredElevation
-    {
-        int AVERAGINGWINDOW = 10;
-        double dir;
-        double sinevalues[] = new double[AVERAGINGWINDOW];
-        double cosvalues[] = new double[AVERAGINGWINDOW];
-        int index = 0;
-        void AddLatest( double d )
-        {
-            sinevalues[index] = Math.sin(d);
-            cosvalues[index] = Math.cos(d);
-            index++;
-            if (index > AVERAGINGWINDOW - 1) index = 0;
-            double sumc = 0;
-            double sums = 0;
-            for (int a = 0; a < AVERAGINGWINDOW; a++)
-            {
-                sumc += cosvalues[a];
-                sums += sinevalues[a];
-            }
-            dir = Math.atan2(sums/AVERAGINGWINDOW,sumc/AVERAGINGWINDOW);
-        }
-        double getDirection() { return dir; }
-    }
-
-    class tmpHill {
-        Hills h;
-        double ratio;
-        int toppt;
-    }
-
     class DrawOnTop extends View {
 
         private Paint strokePaint = new Paint();
         private Paint textPaint = new Paint();
-        private Paint paint = new Paint();
         private Paint transpRedPaint = new Paint();
-        private Paint variationPaint = new Paint();
-
-        private Paint settingPaint = new Paint();
-        private Paint settingPaint2 = new Paint();
-
-        int subwidth;
-        int subheight;
-        int gap;
-        int txtgap;
-        int vtxtgap;
-        RectF fovrect;
-
-        ArrayList<tmpHill> hillsToPlot;
+        private Paint labelPaint = new Paint();
+        private final LabelCache mLabels = new LabelCache();
+        // the settings button, calibration instructions and variation dials, made once per screen size
+        private final OverlayLayers mLayers = new OverlayLayers();
+        // the heading readout while calibrating, built afresh each frame without allocating
+        private final StatusText mCalibrationStatus = new StatusText();
+
+        final LabelLayout mLayout = new LabelLayout();
+        // the crossbars and text of the labels in mLayout, recorded once per layout and slid
+        // across the screen as the heading changes. Hardware canvases only play pictures back
+        // from Marshmallow, so before that the labels are drawn each frame instead.
+        private final Picture mLabelPicture = (Build.VERSION.SDK_INT >= Build.VERSION_CODES.M) ? new Picture() : null;
+        private int recordedGeneration = -1;
+        private int recordedFlags = -1;
+        private int recordedWidth = -1;
+        // what the query thread places labels for; replaced when a setting changes
+        private LabelStyle mLabelStyle;
+        private final LabelCache.PaintMeasure mLabelMeasure = new LabelCache.PaintMeasure();
+        // the layout the hit index was last built for
+        private final LabelHitIndex.Builder mHitBuilder = new LabelHitIndex.Builder();
+        private int indexedGeneration = -1;
+        private int indexedFlags = -1;
+        private int indexedWidth = -1;
 
         public DrawOnTop(Context context) {
             super(context);
@@ -556,34 +638,79 @@ public class ShowMeHillsActivity extends Activity implements IShowMeHillsActivit
             strokePaint.setStyle(Paint.Style.STROKE);
             strokePaint.setStrokeWidth(2);
 
-            paint.setARGB(255, 255, 255, 255);
             transpRedPaint.setARGB(100,255,0,0);
-
-            subwidth = (int)(scrwidth*0.7);
-            subheight = (int)(scrheight*0.7);
-            gap = (scrwidth - subwidth) / 2;
-            txtgap = gap+(subwidth/30);
-            vtxtgap = (subheight / 10);
-
-            hillsToPlot = new ArrayList<>();
-            fovrect = new RectF(gap,vtxtgap,scrwidth-gap,vtxtgap*11);
         }
 
+        // the orientation this frame is drawn for, taken once so every part of it agrees; only
+        // good until the next mOrientation.latest()
+        OrientationSnapshot frame;
+        // which reading the last frame showed, so each is timed the first time it's drawn
+        long frameSequence;
+        double framePitch;
+
         @Override
         protected void onDraw(Canvas canvas) {
+            frame = mOrientation.latest();
+            if (frame.sequence != frameSequence && frame.sequence != 0) {
+                mLatency.record(frame.age(SystemClock.elapsedRealtimeNanos()));
+            }
+            frameSequence = frame.sequence;
+            // the engine swaps in a new snapshot when a query finishes, so this one won't change under us
+            HillSnapshot snapshot = mQueryEngine.getSnapshot();
+            // drawn where the phone should be pointing by the time the frame is on screen
+            long showTime = mFrameScheduler.getShowTime();
+            framePitch = frame.pitch(showTime);
+            mFrameScheduler.onDrawn(frame, showTime, snapshot, scrwidth / hfov, scrheight / vfov);
+            mLayers.resize(scrwidth, scrheight);
+
             if (!isCalibrated)
             {
                 drawCalibrationInstructions(canvas);
                 return;
             }
+            mLayers.dropCalibration();
+
+            HillSet localhills = snapshot.hills;
+            double heading = frame.direction(compassAdjustment, showTime);
+            int flags = LabelCache.flags(showdir, showdist, showheight, typeunits);
+
+            // The labels go where the query thread placed them, once it has for these settings, and
+            // until then they're stacked nearest first. Either way turning the phone only slides
+            // them, until a hill crosses the edge of the view.
+            int topPt = (int)(scrheight/1.6);
+            LabelStyle style = labelStyle(topPt, flags);
+            LabelPlacement placement = snapshot.placement;
+            if (placement != null && placement.style == style)
+            {
+                if (!mLayout.covers(placement, heading, hfov))
+                {
+                    mLayout.layout(placement, heading, hfov);
+                }
+            }
+            else if (!mLayout.covers(localhills, heading, hfov, topPt, textsize, showdir, showdist, showheight))
+            {
+                mLayout.layout(localhills, heading, hfov, topPt, textsize, showdir, showdist, showheight);
+            }
+            float shift = (float)(-scrwidth * mLayout.shift(heading) / hfov);
 
-            ArrayList<Hills> localhills = myDbHelper.localhills;
-
-            int topPt = calculateHillsCanFitOnCanvas((int)(scrheight/1.6), localhills);
-
-            drawHillLabelLines(canvas, topPt);
+            drawHillLabelLines(canvas, shift);
 
-            drawHillLabelText(canvas, topPt);
+            canvas.save();
+            canvas.translate(shift, 0);
+            if (mLabelPicture == null)
+            {
+                drawHillLabels(canvas, flags);
+            }
+            else
+            {
+                if (mLayout.generation != recordedGeneration || flags != recordedFlags || scrwidth != recordedWidth)
+                {
+                    recordHillLabels(flags);
+                }
+                canvas.translate(-scrwidth, 0);
+                canvas.drawPicture(mLabelPicture);
+            }
+            canvas.restore();
 
             drawLocationAndOrientationStatus(canvas);
 
@@ -592,156 +719,98 @@ public class ShowMeHillsActivity extends Activity implements IShowMeHillsActivit
             super.onDraw(canvas);
         }
 
-        private int calculateHillsCanFitOnCanvas(int topPt, ArrayList<Hills> localhills) {
-            Float drawtextsize = textsize;
-            hillsToPlot.clear();
-            mMarkers.clear();
-            for (int h = 0; h < localhills.size() && topPt > 0; h++)
+        // the style labels should be placed in, handed to the query engine whenever it changes
+        private LabelStyle labelStyle(int topPt, int flags) {
+            double pixelsPerDegree = scrwidth / hfov;
+            if (mLabelStyle == null || !mLabelStyle.matches(textsize, topPt, pixelsPerDegree, flags))
             {
-                Hills h1 = localhills.get(h);
-
-                // this is the angle of the peak from our line of sight
-                double offset = fd.getDirection() - h1.direction;
-                double offset2 = fd.getDirection() - (360+h1.direction);
-                double offset3 = 360+fd.getDirection() - (h1.direction);
-                double ratio = 0;
-                // is it in our line of sight
-                boolean inlineofsight=false;
-                if (Math.abs(offset) * 2 < hfov)
-                {
-                    ratio = offset / hfov * -1;
-                    inlineofsight = true;
-                }
-                if (Math.abs(offset2) * 2 < hfov)
-                {
-                    ratio = offset2 / hfov * -1;
-                    inlineofsight = true;
-                }
-                if (Math.abs(offset3) * 2 < hfov)
-                {
-                    ratio = offset3 / hfov * -1;
-                    inlineofsight = true;
-                }
-                if (inlineofsight)
-                {
-                    tmpHill th = new tmpHill();
-
-                    th.h = h1;
-                    th.ratio = ratio;
-                    th.toppt = topPt;
-                    hillsToPlot.add(th);
-
-                    topPt -= (showdir || showdist || showheight && th.h.height > 0)?(1 + drawtextsize*2):drawtextsize;
-
-                    if (drawtextsize - TEXT_SIZE_DECREMENT >= TEXT_SIZE_MIN)
-                    {
-                        drawtextsize -= TEXT_SIZE_DECREMENT;
-                    }
-                }
+                mLabelStyle = new LabelStyle(textsize, topPt, pixelsPerDegree, flags, HillRanking.BY_PROMINENCE, mLabelMeasure);
+                mQueryEngine.setLabelStyle(mLabelStyle);
             }
-
-            // Fudge-factor because we don't know exactly how high label text will display until we draw it later.
-            // A tiny font at the top needs to be moved down slightly to avoid being clipped; larger fonts seem OK.
-            topPt -= Math.max(0, 13 - drawtextsize);
-            return topPt;
+            return mLabelStyle;
         }
 
-        private void drawHillLabelLines(Canvas canvas, int toppt) {
-            int alpha = ALPHA_LINE_MAX;
+        // the lines from each hill up to its label, which move with pitch as well as heading
+        private void drawHillLabelLines(Canvas canvas, float shift) {
             // draw lines first
-            for (int i = 0; i < hillsToPlot.size(); i++)
+            for (int i = 0; i < mLayout.count; i++)
             {
+                int alpha = fade(ALPHA_LINE_MAX, ALPHA_LINE_MIN, mLayout.row[i]);
                 textPaint.setARGB(alpha, 255, 255, 255);
                 strokePaint.setARGB(alpha, 0, 0, 0);
-                tmpHill th = hillsToPlot.get(i);
-                double vratio = Math.toDegrees(th.h.visualElevation - fe.getDirection());
+                double vratio = Math.toDegrees(mLayout.hills.visualElevation[mLayout.hill[i]] - framePitch);
                 int yloc = (int)((scrheight * vratio / vfov) + (scrheight/2));
-                int xloc = ((int)(scrwidth * th.ratio) + (scrwidth/2));
-                canvas.drawLine(xloc, yloc, xloc, th.toppt - toppt, strokePaint);
-                canvas.drawLine(xloc, yloc, xloc, th.toppt - toppt, textPaint);
-                canvas.drawLine(xloc-20, th.toppt - toppt, xloc+20, th.toppt - toppt, strokePaint);
-                canvas.drawLine(xloc-20, th.toppt - toppt, xloc+20, th.toppt - toppt, textPaint);
-
-                if (alpha - ALPHA_DECREMENT >= ALPHA_LINE_MIN)
-                {
-                    alpha -= ALPHA_DECREMENT;
-                }
+                float xloc = ((int)(scrwidth * mLayout.ratio[i]) + (scrwidth/2)) + shift;
+                int top = mLayout.toppt[i] - mLayout.top;
+                canvas.drawLine(xloc, yloc, xloc, top, strokePaint);
+                canvas.drawLine(xloc, yloc, xloc, top, textPaint);
             }
         }
 
-        private void drawHillLabelText(Canvas canvas, int toppt) {
-            boolean moreinfo;
-            Float drawtextsize = textsize;
-            int alpha = ALPHA_LABEL_MAX;
-            // draw text over top
-            for (int i = 0; i < hillsToPlot.size(); i++)
-            {
-                textPaint.setARGB(alpha, 255, 255, 255);
-                strokePaint.setARGB(Math.min(alpha, ALPHA_STROKE_MIN), 0, 0, 0);
-
-                textPaint.setTextSize(drawtextsize);
-                strokePaint.setTextSize(drawtextsize);
+        // labels fade a step with each row up the stack, down to min
+        private int fade(int max, int min, int row) {
+            return max - ALPHA_DECREMENT * Math.min(row, (max - min) / ALPHA_DECREMENT);
+        }
 
-                tmpHill th = hillsToPlot.get(i);
-                moreinfo = (showdir || showdist || showheight && th.h.height > 0);
-                int xloc = ((int)(scrwidth * th.ratio) + (scrwidth/2));
+        // the recording has a screen's width of room either side, so labels off the edge at the
+        // layout's heading are still there when they slide on
+        private void recordHillLabels(int flags) {
+            Canvas canvas = mLabelPicture.beginRecording(scrwidth * 3, scrheight);
+            canvas.translate(scrwidth, 0);
+            drawHillLabels(canvas, flags);
+            mLabelPicture.endRecording();
+            recordedGeneration = mLayout.generation;
+            recordedFlags = flags;
+            recordedWidth = scrwidth;
+        }
 
-                Rect bnds = new Rect();
-                strokePaint.getTextBounds(th.h.hillname,0,th.h.hillname.length(),bnds);
-                bnds.left += xloc - (textPaint.measureText(th.h.hillname) / 2.0);
-                bnds.right += xloc - (textPaint.measureText(th.h.hillname) / 2.0);
-                bnds.top += th.toppt - 5 - toppt;
-                if (moreinfo) bnds.top -= drawtextsize;
-                bnds.bottom += th.toppt-5 - toppt;
+        // the crossbars and text of the labels, where they were at the layout's heading
+        private void drawHillLabels(Canvas canvas, int flags) {
+            HillSet hills = mLayout.hills;
+            for (int i = 0; i < mLayout.count; i++)
+            {
+                int alpha = fade(ALPHA_LINE_MAX, ALPHA_LINE_MIN, mLayout.row[i]);
+                textPaint.setARGB(alpha, 255, 255, 255);
+                strokePaint.setARGB(alpha, 0, 0, 0);
+                int xloc = ((int)(scrwidth * mLayout.ratio[i]) + (scrwidth/2));
+                int top = mLayout.toppt[i] - mLayout.top;
+                canvas.drawLine(xloc-20, top, xloc+20, top, strokePaint);
+                canvas.drawLine(xloc-20, top, xloc+20, top, textPaint);
+            }
 
-                // for debug - draws bounding box of touch region to select hill
-                //canvas.drawRect(bnds, strokePaint);
+            boolean index = mLayout.generation != indexedGeneration || flags != indexedFlags || scrwidth != indexedWidth;
+            if (index) mHitBuilder.clear();
+            // draw text over top, from bitmaps that are only rendered again when the text changes
+            for (int i = 0; i < mLayout.count; i++)
+            {
+                int alpha = fade(ALPHA_LABEL_MAX, ALPHA_LABEL_MIN, mLayout.row[i]);
+                int h = mLayout.hill[i];
+                int xloc = ((int)(scrwidth * mLayout.ratio[i]) + (scrwidth/2));
+                int yloc = mLayout.toppt[i] - mLayout.top;
 
-                mMarkers.add(new HillMarker(th.h.id, bnds));
-                canvas.drawText(th.h.hillname, xloc, th.toppt - ((moreinfo)?drawtextsize:0) - 5 - toppt, strokePaint);
-                canvas.drawText(th.h.hillname, xloc, th.toppt - ((moreinfo)?drawtextsize:0) - 5 - toppt, textPaint);
+                LabelCache.Label label = mLabels.get(hills.id[h], hills.hillname[h], mLayout.textsize[i],
+                        alpha, Math.min(alpha, ALPHA_STROKE_MIN), flags,
+                        hills.direction[h], hills.distance[h], hills.height[h]);
 
-                if (showdir || showdist || showheight)
+                if (index)
                 {
-                    boolean hascontents = false;
-                    String marker = " (";
-                    if (showdir)
-                    {
-                        hascontents = true;
-                        marker += Math.floor(10*th.h.direction)/10 + "\u00B0";
-                    }
-                    if (showdist)
-                    {
-                        hascontents = true;
-                        double multip = (typeunits)?1:0.621371;
-                        marker += (showdir ? " " : "") + Math.floor(10*th.h.distance*multip)/10;
-                        if (typeunits) marker += "km"; else marker += "miles";
-                    }
-                    if (showheight)
-                    {
-                        if (th.h.height > 0)
-                        {
-                            hascontents = true;
-                            marker += ((showdir || showdist) ? " " : "") + distanceAsImperialOrMetric(th.h.height);
-                        }
-                    }
-                    marker += ")";
-                    if (hascontents)
-                    {
-                        canvas.drawText(marker, xloc, th.toppt-5 - toppt, strokePaint);
-                        canvas.drawText(marker, xloc, th.toppt-5 - toppt, textPaint);
-                    }
+                    Rect bounds = label.bounds;
+                    mHitBuilder.add(hills.id[h], xloc + bounds.left, yloc + bounds.top, xloc + bounds.right, yloc + bounds.bottom);
                 }
 
-                if (alpha - ALPHA_DECREMENT >= ALPHA_LABEL_MIN)
-                {
-                    alpha -= ALPHA_DECREMENT;
-                }
+                // for debug - draws bounding box of touch region to select hill
+                //canvas.drawRect(xloc + label.bounds.left, yloc + label.bounds.top, xloc + label.bounds.right, yloc + label.bounds.bottom, strokePaint);
 
-                if (drawtextsize - TEXT_SIZE_DECREMENT >= TEXT_SIZE_MIN)
-                {
-                    drawtextsize -= TEXT_SIZE_DECREMENT;
-                }
+                labelPaint.setAlpha(alpha);
+                canvas.drawBitmap(label.bitmap, xloc + label.left, yloc + label.top, labelPaint);
+            }
+
+            if (index)
+            {
+                mHitIndex = mHitBuilder.build(mLayout.heading(), hfov, scrwidth);
+                indexedGeneration = mLayout.generation;
+                indexedFlags = flags;
+                indexedWidth = scrwidth;
             }
         }
 
@@ -751,37 +820,9 @@ public class ShowMeHillsActivity extends Activity implements IShowMeHillsActivit
             textPaint.setARGB(255, 255, 255, 255);
             strokePaint.setARGB(255, 0, 0, 0);
 
-            String compadj = (compassAdjustment>=0)?"+":"";
-            compadj += String.format("%.01f", compassAdjustment);
-            String basetext = "" + (int)fd.getDirection() + (char)0x00B0;
-            basetext +=" (adj:"+compadj+")";
-
-            if (dirText != null) {
-                dirText.setText(basetext);
-            }
-
-            basetext ="FOV: "+String.format("%.01f", hfov);
-            if (fovText != null) {
-                fovText.setText(basetext);
-            }
-
-            String acc;
+            // the text views are kept up to date by mStatusUpdater, not from here
             Location curLocation = mGPS.getCurrentLocation();
-            if (curLocation != null)
-            {
-                acc = "+/- " + distanceAsImperialOrMetric(curLocation.getAccuracy());
-            }
-            else
-            {
-                acc = "?";
-            }
-
-            basetext ="\nLocation " + acc;
-            if (locText != null) {
-                locText.setText(basetext);
-            }
-
-            basetext = "";
+            String basetext = "";
 
             if (curLocation == null) basetext = "No GPS position yet";
             else if (curLocation.getAccuracy() > 200) basetext = "Warning - GPS position too inaccurate";
@@ -792,78 +833,23 @@ public class ShowMeHillsActivity extends Activity implements IShowMeHillsActivit
                 canvas.drawText( basetext, scrwidth/2, scrheight/2, textPaint);
             }
 
-            int va = fd.GetVariation();
-            variationPaint.setARGB(255, 255, 0, 0);
-            variationPaint.setStrokeWidth(4);
-            int dashlength = scrheight / 10;
-            for (int i = 0; i < 360; i+=15)
-            {
-                if (i > va) variationPaint.setARGB(255, 0, 255, 0);
-                canvas.drawLine((scrwidth/7)+(dashlength/5*(float)Math.sin( Math.toRadians(i))),
-                                scrheight-(scrheight/2.7f)-(dashlength/5*(float)Math.cos( Math.toRadians(i))),
-                                (scrwidth/7)+(dashlength*(float)Math.sin( Math.toRadians(i))),
-                                scrheight-(scrheight/2.7f)-(dashlength*(float)Math.cos( Math.toRadians(i))),
-                                variationPaint);
-            }
+            mLayers.drawStatusDial(canvas, frame.variation);
         }
 
         private void drawSettingsButton(Canvas canvas) {
-            settingPaint2.setStyle(Paint.Style.STROKE);
-            settingPaint.setAntiAlias(true);
-            settingPaint2.setAntiAlias(true);
-            settingPaint2.setStrokeWidth((int)(scrwidth/100.0));
-            settingPaint2.setARGB(255, 255, 255, 255);
-            settingPaint.setARGB(255, 0, 0, 0);
-
-            float barwidth = scrwidth/12.0f;
-            int startPtw = scrwidth/60;
-            int startPth = scrheight/60;
-            int baroffset = scrwidth/50;
-            canvas.drawRect(0.0f, 0.0f, barwidth + (startPtw*2), baroffset * 3.3f, settingPaint);
-
-            canvas.drawLine(startPtw, startPth, startPtw + barwidth, startPth, settingPaint2);
-
-            canvas.drawLine(startPtw, startPth+baroffset, startPtw + barwidth, startPth+baroffset, settingPaint2);
-            baroffset += baroffset;
-            canvas.drawLine(startPtw, startPth+baroffset, startPtw + barwidth, startPth+baroffset, settingPaint2);
+            mLayers.drawSettingsButton(canvas);
         }
 
         private void drawCalibrationInstructions(Canvas canvas) {
-            // adjust text to fit any screen - lol, so hacky :-D
-            boolean happyWithSize = false;
-            do
-            {
-                textPaint.setTextSize(mMainTextSize);
-                float sz = textPaint.measureText("screen, wait for stabilisation, and tap again.");
-                if (sz > scrwidth*0.7 )
-                {
-                    mMainTextSize--;
-                }
-                else if (sz < scrwidth*0.6)
-                {
-                    mMainTextSize++;
-                }
-                else
-                {
-                    happyWithSize = true;
-                }
-            } while (!happyWithSize);
+            mLayers.drawCalibration(canvas);
 
+            textPaint.setTextSize(mLayers.getCalibrationTextSize());
             textPaint.setTextAlign(Paint.Align.LEFT);
             textPaint.setARGB(255, 255, 255, 255);
-            paint.setARGB(100, 0, 0, 0);
-
-            // left, top, right, bottom
-            canvas.drawRoundRect(fovrect, 50,50,paint);
-            canvas.drawText( "To calibrate, view an object at the very", txtgap, vtxtgap*3, textPaint);
-            canvas.drawText( "left edge of the screen, and wait for", txtgap, vtxtgap*4, textPaint);
-            canvas.drawText( "the direction sensor to stabilise. Then", txtgap, vtxtgap*5, textPaint);
-            canvas.drawText( "tap the screen (gently, so you don't move", txtgap, vtxtgap*6, textPaint);
-            canvas.drawText( "the view!). Then turn around until the ", txtgap, vtxtgap*7, textPaint);
-            canvas.drawText( "object is at the very right edge of the ", txtgap, vtxtgap*8, textPaint);
-            canvas.drawText( "screen, wait for stabilisation, and tap again.", txtgap, vtxtgap*9, textPaint);
-
-            canvas.drawText( "Dir: " + (int)fd.getDirection() + (char)0x00B0 + " SD: "+fd.GetVariation(), scrwidth/2, scrheight-(vtxtgap*2), textPaint);
+            int vtxtgap = (int)(scrheight*0.7) / 10;
+            mCalibrationStatus.clear().append("Dir: ").append((int)frame.direction(compassAdjustment)).append('\u00B0')
+                    .append(" SD: ").append(frame.variation);
+            canvas.drawText(mCalibrationStatus.getText(), 0, mCalibrationStatus.length(), scrwidth/2, scrheight-(vtxtgap*2), textPaint);
 
             textPaint.setTextAlign(Paint.Align.CENTER);
         /*    if (calibrationStep == -1)
@@ -879,98 +865,36 @@ public class ShowMeHillsActivity extends Activity implements IShowMeHillsActivit
                 //canvas.drawRect(scrwidth-20,0, scrwidth, scrheight, transpRedPaint);
             }
             */
-            int va = fd.GetVariation();
-            variationPaint.setARGB(255, 255, 0, 0);
-            variationPaint.setStrokeWidth(4);
-            int dashlength = scrheight / 10;
-            for (int i = 0; i < 360; i+=15)
-            {
-                if (i > va) variationPaint.setARGB(255, 0, 255, 0);
-                canvas.drawLine((scrwidth/10)+(dashlength/5*(float)Math.sin( Math.toRadians(i))),
-                        scrheight-(scrheight/5)-(dashlength/5*(float)Math.cos( Math.toRadians(i))),
-                        (scrwidth/10)+(dashlength*(float)Math.sin( Math.toRadians(i))),
-                        scrheight-(scrheight/5)-(dashlength*(float)Math.cos( Math.toRadians(i))),
-                        variationPaint);
-            }
+            mLayers.drawCalibrationDial(canvas, frame.variation);
         }
     }
 
     public void onAccuracyChanged(Sensor sensor, int accuracy) {}
 
     public void onSensorChanged(SensorEvent event) {
-        // some phones never set the sensormanager as reliable, even when readings are ok
-        // That means if we try to block it, those phones will never get a compass reading.
-        // So we let any readings through until we know we can get accurate readings. Once We know that
-        // we'll block the inaccurate ones
-        if (event.accuracy == SensorManager.SENSOR_STATUS_UNRELIABLE) {
-            if (event.sensor.getType() == Sensor.TYPE_ACCELEROMETER && mHasAccurateAccelerometer) return;
-            if (event.sensor.getType() == Sensor.TYPE_MAGNETIC_FIELD && mHasAccurateGravity) return;
-        }
-        else
-        {
-            if (event.sensor.getType() == Sensor.TYPE_ACCELEROMETER) mHasAccurateAccelerometer = true;
-            if (event.sensor.getType() == Sensor.TYPE_MAGNETIC_FIELD) mHasAccurateGravity = true;
-        }
-
-
-        if (event.sensor.getType() == Sensor.TYPE_ACCELEROMETER)  mGravity = event.values;
-        if (event.sensor.getType() == Sensor.TYPE_MAGNETIC_FIELD) mGeomagnetic = event.values;
-
-        if (mGravity != null && mGeomagnetic != null) {
-
-            float[] rotationMatrixA = mRotationMatrixA;
-            if (SensorManager.getRotationMatrix(rotationMatrixA, null, mGravity, mGeomagnetic)) {
-                Matrix tmpA = new Matrix();
-                tmpA.setValues(rotationMatrixA);
-                tmpA.postRotate( -mDeclination );
-                tmpA.getValues(rotationMatrixA);
-
-                float[] rotationMatrixB = mRotationMatrixB;
-
-                switch (GetRotation())
-                {
-                    // portrait - normal
-                    case Surface.ROTATION_0: SensorManager.remapCoordinateSystem(rotationMatrixA,
-                            SensorManager.AXIS_X, SensorManager.AXIS_Z,
-                            rotationMatrixB);
-                        break;
-                    // rotated left (landscape)
-                    case Surface.ROTATION_90: SensorManager.remapCoordinateSystem(rotationMatrixA,
-                            //SensorManager.AXIS_Z, SensorManager.AXIS_MINUS_X,
-                            SensorManager.AXIS_X, SensorManager.AXIS_Z,
-                            rotationMatrixB);
-                        break;
-                    // upside down
-                    case Surface.ROTATION_180: SensorManager.remapCoordinateSystem(rotationMatrixA,
-                            SensorManager.AXIS_X, SensorManager.AXIS_Z,
-                            rotationMatrixB);
-                        break;
-                    // rotated right (landscape)
-                    case Surface.ROTATION_270: SensorManager.remapCoordinateSystem(rotationMatrixA,
-                            SensorManager.AXIS_MINUS_Z, SensorManager.AXIS_X,
-                            rotationMatrixB);
-                        break;
-
-                    default:  break;
-                }
-
-                float[] dv = new float[3];
-                SensorManager.getOrientation(rotationMatrixB, dv);
-
-                fd.AddLatest(dv[0]);
-                fe.AddLatest((double)dv[1]);
+        int type = event.sensor.getType();
+        TraceRecorder trace = mTrace;
+        if (trace != null) trace.sensor(type, event.accuracy, event.values, event.timestamp);
+
+        boolean wasStill = mHeading.isStill();
+        if (mHeading.onSensor(type, event.accuracy, event.values, event.timestamp,
+                SystemClock.elapsedRealtimeNanos(), mOrientation.writable())) {
+            mOrientation.publish();
+            mFrameScheduler.requestFrame();
+            if (mHeading.isStill() != wasStill) {
+                mSensorRates.setSlow(mHeading.isStill());
             }
-            mDraw.invalidate();
         }
     }
 
     public boolean onTouch(View v, MotionEvent event) {
+        mFrameScheduler.redraw();
         if (!isCalibrated)
         {
             // this is the standard FOV calibration
             if (calibrationStep == -1)
             {
-                calibrationStep = fd.getDirection();
+                calibrationStep = mOrientation.latest().direction(compassAdjustment);
 
                 Log.d("showmehills", "1st cal pt="+calibrationStep);
 
@@ -984,7 +908,7 @@ public class ShowMeHillsActivity extends Activity implements IShowMeHillsActivit
 
                 ImageView view = (ImageView)findViewById(R.id.rightarrowimage);
                 view.setVisibility(View.INVISIBLE);
-                double curdir = fd.getDirection();
+                double curdir = mOrientation.latest().direction(compassAdjustment);
                 if (calibrationStep - curdir < 0) calibrationStep += 360;
                 hfov = (float)(calibrationStep - curdir);
                 Log.d("showmehills", "2nd cal pt="+curdir);
@@ -1024,19 +948,17 @@ public class ShowMeHillsActivity extends Activity implements IShowMeHillsActivit
             openOptionsMenu();
         }
         else {
-            Iterator<HillMarker> itr = mMarkers.iterator();
-            while (itr.hasNext()) {
-                HillMarker m = itr.next();
-                if (m.location.contains((int)event.getX(), (int)event.getY()))
-                {
-                    Intent infoActivity = new Intent(getBaseContext(),HillInfo.class);
-                    Bundle b = new Bundle();
+            double heading = mOrientation.latest().direction(compassAdjustment, SystemClock.elapsedRealtimeNanos());
+            int hillid = mHitIndex.find(event.getX(), event.getY(), heading);
+            if (hillid >= 0)
+            {
+                Intent infoActivity = new Intent(getBaseContext(),HillInfo.class);
+                Bundle b = new Bundle();
 
-                    b.putInt("key", m.hillid);
+                b.putInt("key", hillid);
 
-                    infoActivity.putExtras(b);
-                    startActivity(infoActivity);
-                }
+                infoActivity.putExtras(b);
+                startActivity(infoActivity);
             }
         }
         return false;
@@ -1049,9 +971,11 @@ public class ShowMeHillsActivity extends Activity implements IShowMeHillsActivit
         {
             case KeyEvent.KEYCODE_VOLUME_UP:
                 compassAdjustment+=0.1;
+                mFrameScheduler.redraw();
                 return true;
             case KeyEvent.KEYCODE_VOLUME_DOWN:
                 compassAdjustment-=0.1;
+                mFrameScheduler.redraw();
                 return true;
         }
 
@@ -1090,9 +1014,34 @@ public class ShowMeHillsActivity extends Activity implements IShowMeHillsActivit
         return (LocationManager)getSystemService(Context.LOCATION_SERVICE);
     }
 
-    private String distanceAsImperialOrMetric(double distance) {
-        if (typeunits) return (int)distance + "m";
-        else return (int)(distance*3.2808399) + "ft";
+    // the heading, field of view and location readouts, each set only when its text changes
+    private void updateStatusText() {
+        mDirStatus.clear().append((int)mOrientation.latest().direction(compassAdjustment)).append('\u00B0')
+                .append(" (adj:").append((compassAdjustment>=0)?"+":"").appendTenths(compassAdjustment).append(')');
+        setStatusText(dirText, mDirStatus);
+
+        mFovStatus.clear().append("FOV: ").appendTenths(hfov);
+        setStatusText(fovText, mFovStatus);
+
+        mLocStatus.clear().append("\nLocation ");
+        Location curLocation = mGPS.getCurrentLocation();
+        if (curLocation != null)
+        {
+            mLocStatus.append("+/- ");
+            if (typeunits) mLocStatus.append((int)curLocation.getAccuracy()).append('m');
+            else mLocStatus.append((int)(curLocation.getAccuracy()*3.2808399)).append("ft");
+        }
+        else
+        {
+            mLocStatus.append('?');
+        }
+        setStatusText(locText, mLocStatus);
+    }
+
+    private static void setStatusText(TextView view, StatusText text) {
+        if (view != null && text.update()) {
+            view.setText(text.getShown(), 0, text.getShownLength());
+        }
     }
 }
 
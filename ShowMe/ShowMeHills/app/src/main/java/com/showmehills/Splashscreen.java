@@ -34,6 +34,9 @@ public class Splashscreen extends Activity {
     protected void onCreate(Bundle savedInstanceState) {
         super.onCreate(savedInstanceState);
         setContentView(R.layout.activity_splashscreen);
+
+        // get the hill database installed (if it needs to be) while the splash screen is showing
+        HillDatabaseInstaller.getInstance(this).installInBackground();
     }
 
     private void checkPermissions()
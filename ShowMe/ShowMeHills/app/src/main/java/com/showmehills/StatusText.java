@@ -0,0 +1,106 @@
+package com.showmehills;
+
+/*
+ * A line of status text built into a reusable char buffer, for the heading, field of view and
+ * location readouts. update() says whether it differs from what was last shown, so the TextView
+ * is only set, and laid out again, when the text really changes. Text drawn straight onto the
+ * overlay each frame skips update() and draws getText().
+ */
+public class StatusText {
+
+    private char[] mText = new char[32];
+    private int mLength;
+    private char[] mShown = new char[32];
+    private int mShownLength = -1;
+
+    public StatusText clear() {
+        mLength = 0;
+        return this;
+    }
+
+    public StatusText append(char c) {
+        if (mLength == mText.length) mText = grow(mText);
+        mText[mLength++] = c;
+        return this;
+    }
+
+    public StatusText append(String s) {
+        for (int i = 0; i < s.length(); i++) {
+            append(s.charAt(i));
+        }
+        return this;
+    }
+
+    public StatusText append(int n) {
+        if (n < 0) {
+            append('-');
+            // the magnitude of MIN_VALUE doesn't fit an int
+            return appendDigits(-(long)n);
+        }
+        return appendDigits(n);
+    }
+
+    // with one decimal place, rounded half up like String.format("%.01f")
+    public StatusText appendTenths(double v) {
+        if (v < 0) {
+            append('-');
+            v = -v;
+        }
+        long tenths = Math.round(v * 10);
+        appendDigits(tenths / 10);
+        return append('.').append((char)('0' + tenths % 10));
+    }
+
+    private StatusText appendDigits(long n) {
+        long scale = 1;
+        while (scale * 10 <= n) scale *= 10;
+        for (; scale > 0; scale /= 10) {
+            append((char)('0' + (n / scale) % 10));
+        }
+        return this;
+    }
+
+    // true if the text has changed since the last update; the new text is then getShown()
+    public boolean update() {
+        if (mLength == mShownLength) {
+            boolean same = true;
+            for (int i = 0; i < mLength && same; i++) {
+                same = mText[i] == mShown[i];
+            }
+            if (same) return false;
+        }
+        if (mShown.length < mText.length) mShown = new char[mText.length];
+        System.arraycopy(mText, 0, mShown, 0, mLength);
+        mShownLength = mLength;
+        return true;
+    }
+
+    // the text as built since clear(), for Canvas.drawText(char[], int, int, float, float, Paint)
+    public char[] getText() {
+        return mText;
+    }
+
+    public int length() {
+        return mLength;
+    }
+
+    // the text as last updated, for TextView.setText(char[], int, int)
+    public char[] getShown() {
+        return mShown;
+    }
+
+    public int getShownLength() {
+        return Math.max(0, mShownLength);
+    }
+
+    @Override
+    public String toString() {
+        return new String(mText, 0, mLength);
+    }
+
+    private static char[] grow(char[] text) {
+        char[] bigger = new char[text.length * 2];
+        System.arraycopy(text, 0, bigger, 0, text.length);
+        return bigger;
+    }
+}
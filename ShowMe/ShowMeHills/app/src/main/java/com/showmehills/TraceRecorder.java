@@ -0,0 +1,106 @@
+package com.showmehills;
+
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+
+/*
+ * Writes the live inputs of the camera view to a compact binary trace, so a session from the
+ * field can be replayed through the same code later with TraceReplayer.
+ *
+ * The trace is big-endian (DataOutputStream): the magic "SMHT" and a version int, then records,
+ * each a type byte and a timestamp in ns (SensorEvent.timestamp, or elapsedRealtimeNanos for
+ * queries):
+ *  SENSOR - int sensor type, byte accuracy, byte value count, the values as floats
+ *  QUERY  - double latitude, longitude, altitude, float accuracy, then ints minheight, maxheight,
+ *           mindistance, maxdistance and limit, as passed to HillQueryEngine.requestQuery
+ * An accelerometer reading comes to 26 bytes.
+ *
+ * Called from the sensor and UI threads at once, so each record is written under the lock.
+ * A write error stops the recording rather than the app; getError() says why.
+ */
+public class TraceRecorder implements Closeable {
+
+    static final int MAGIC = 0x534d4854;  // "SMHT"
+    static final int VERSION = 1;
+    static final byte SENSOR = 1;
+    static final byte QUERY = 2;
+    // more than any sensor reports
+    static final int MAX_VALUES = 15;
+
+    private final DataOutputStream mOut;
+    private boolean mClosed = false;
+    private long mRecords = 0;
+    private IOException mError;
+
+    public TraceRecorder(OutputStream out) throws IOException {
+        mOut = new DataOutputStream(new BufferedOutputStream(out, 64 * 1024));
+        mOut.writeInt(MAGIC);
+        mOut.writeInt(VERSION);
+    }
+
+    public synchronized void sensor(int type, int accuracy, float[] values, long timestamp) {
+        if (mClosed) return;
+        try {
+            mOut.writeByte(SENSOR);
+            mOut.writeLong(timestamp);
+            mOut.writeInt(type);
+            mOut.writeByte(accuracy);
+            int count = Math.min(values.length, MAX_VALUES);
+            mOut.writeByte(count);
+            for (int i = 0; i < count; i++) {
+                mOut.writeFloat(values[i]);
+            }
+            mRecords++;
+        } catch (IOException e) {
+            fail(e);
+        }
+    }
+
+    public synchronized void query(long timestamp, double latitude, double longitude, double altitude, float accuracy,
+                                   int minheight, int maxheight, int mindistance, int maxdistance, int limit) {
+        if (mClosed) return;
+        try {
+            mOut.writeByte(QUERY);
+            mOut.writeLong(timestamp);
+            mOut.writeDouble(latitude);
+            mOut.writeDouble(longitude);
+            mOut.writeDouble(altitude);
+            mOut.writeFloat(accuracy);
+            mOut.writeInt(minheight);
+            mOut.writeInt(maxheight);
+            mOut.writeInt(mindistance);
+            mOut.writeInt(maxdistance);
+            mOut.writeInt(limit);
+            mRecords++;
+        } catch (IOException e) {
+            fail(e);
+        }
+    }
+
+    public synchronized long getRecords() {
+        return mRecords;
+    }
+
+    public synchronized IOException getError() {
+        return mError;
+    }
+
+    @Override
+    public synchronized void close() {
+        if (mClosed) return;
+        mClosed = true;
+        try {
+            mOut.close();
+        } catch (IOException e) {
+            if (mError == null) mError = e;
+        }
+    }
+
+    private void fail(IOException e) {
+        mError = e;
+        close();
+    }
+}
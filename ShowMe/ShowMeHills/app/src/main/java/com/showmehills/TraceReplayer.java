@@ -0,0 +1,97 @@
+package com.showmehills;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+
+/*
+ * Reads a trace written by TraceRecorder and hands each record to a listener, either as fast as
+ * possible or paced to the recorded timestamps (optionally sped up). Pure Java, so a trace from
+ * the field can be run through HeadingProcessor and HillProjector in a unit test or benchmark.
+ *
+ * Like the framework, the values array passed to onSensor is reused for the next record of the
+ * same length; listeners must copy anything they keep.
+ */
+public class TraceReplayer {
+
+    public interface Listener {
+        void onSensor(int type, int accuracy, float[] values, long timestamp);
+
+        void onQuery(long timestamp, double latitude, double longitude, double altitude, float accuracy,
+                     int minheight, int maxheight, int mindistance, int maxdistance, int limit);
+    }
+
+    private final DataInputStream mIn;
+    private final float[][] mValues = new float[TraceRecorder.MAX_VALUES + 1][];
+
+    public TraceReplayer(InputStream in) throws IOException {
+        mIn = new DataInputStream(new BufferedInputStream(in, 64 * 1024));
+        if (mIn.readInt() != TraceRecorder.MAGIC) throw new IOException("not a trace");
+        int version = mIn.readInt();
+        if (version != TraceRecorder.VERSION) throw new IOException("unknown trace version " + version);
+    }
+
+    // speed 0 replays as fast as possible, 1 in real time, 2 at double speed and so on;
+    // returns the number of records replayed
+    public long replay(Listener listener, double speed) throws IOException, InterruptedException {
+        long records = 0;
+        long firstTimestamp = 0;
+        long start = System.nanoTime();
+        while (true) {
+            int kind;
+            long timestamp;
+            try {
+                kind = mIn.readByte();
+                timestamp = mIn.readLong();
+            } catch (EOFException e) {
+                break;
+            }
+            if (records == 0) firstTimestamp = timestamp;
+            if (speed > 0) {
+                long due = start + (long)((timestamp - firstTimestamp) / speed);
+                long wait = due - System.nanoTime();
+                if (wait > 0) Thread.sleep(wait / 1000000, (int)(wait % 1000000));
+            }
+
+            try {
+                readRecord(kind, timestamp, listener, records);
+            } catch (EOFException e) {
+                // the recording stopped part way through a record, eg. the app was killed
+                break;
+            }
+            records++;
+        }
+        return records;
+    }
+
+    private void readRecord(int kind, long timestamp, Listener listener, long records) throws IOException {
+        if (kind == TraceRecorder.SENSOR) {
+            int type = mIn.readInt();
+            int accuracy = mIn.readByte();
+            int count = mIn.readByte();
+            if (count < 0 || count > TraceRecorder.MAX_VALUES) throw new IOException("bad value count " + count);
+            float[] values = mValues[count];
+            if (values == null) values = mValues[count] = new float[count];
+            for (int i = 0; i < count; i++) {
+                values[i] = mIn.readFloat();
+            }
+            listener.onSensor(type, accuracy, values, timestamp);
+        } else if (kind == TraceRecorder.QUERY) {
+            double latitude = mIn.readDouble();
+            double longitude = mIn.readDouble();
+            double altitude = mIn.readDouble();
+            float accuracy = mIn.readFloat();
+            int minheight = mIn.readInt();
+            int maxheight = mIn.readInt();
+            int mindistance = mIn.readInt();
+            int maxdistance = mIn.readInt();
+            int limit = mIn.readInt();
+            listener.onQuery(timestamp, latitude, longitude, altitude, accuracy,
+                    minheight, maxheight, mindistance, maxdistance, limit);
+        } else {
+            throw new IOException("bad record type " + kind + " after " + records + " records");
+        }
+    }
+}
@@ -0,0 +1,45 @@
+package com.showmehills;
+
+import org.junit.Assume;
+
+import java.lang.management.ManagementFactory;
+
+/*
+ * Counts the bytes the current thread allocates running some work, for the tests that check a
+ * per-event or per-frame path allocates nothing. It needs HotSpot's ThreadMXBean; on a JVM
+ * without it forCurrentThread() skips the test rather than letting it pass.
+ */
+class AllocationMeter {
+
+    private final com.sun.management.ThreadMXBean mThreads;
+    private final long mThread;
+    // what reading the counter costs, taken off every measurement
+    private final long mOverhead;
+
+    private AllocationMeter(com.sun.management.ThreadMXBean threads) {
+        mThreads = threads;
+        mThread = Thread.currentThread().getId();
+        long overhead = allocated();
+        mOverhead = allocated() - overhead;
+    }
+
+    static AllocationMeter forCurrentThread() {
+        java.lang.management.ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+        Assume.assumeTrue("this JVM can't count allocations", bean instanceof com.sun.management.ThreadMXBean);
+        return new AllocationMeter((com.sun.management.ThreadMXBean)bean);
+    }
+
+    // Bytes allocated by one run of work, after two runs to warm up, so the count isn't of class
+    // loading, the JIT or buffers growing.
+    long allocatedBy(Runnable work) {
+        work.run();
+        work.run();
+        long before = allocated();
+        work.run();
+        return allocated() - before - mOverhead;
+    }
+
+    private long allocated() {
+        return mThreads.getThreadAllocatedBytes(mThread);
+    }
+}
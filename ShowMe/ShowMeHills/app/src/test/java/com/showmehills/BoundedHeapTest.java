@@ -0,0 +1,74 @@
+package com.showmehills;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class BoundedHeapTest {
+
+    private static final HillRanking[] RANKINGS = {
+            HillRanking.BY_DISTANCE, HillRanking.BY_HEIGHT, HillRanking.BY_PROMINENCE
+    };
+
+    private static HillSet randomHills(int count, long seed) {
+        Random random = new Random(seed);
+        HillSet hills = new HillSet(count);
+        for (int i = 0; i < count; i++) {
+            int h = hills.add(i, "hill" + i, -5 + random.nextDouble() * 2, 56 + random.nextDouble() * 2, random.nextInt(1300));
+            hills.SetDirection(h, 57, -4, 500);
+        }
+        return hills;
+    }
+
+    // the best k scores, highest first, by sorting them all
+    private static double[] bestBySorting(double[] scores, int k) {
+        double[] sorted = scores.clone();
+        Arrays.sort(sorted);
+        double[] best = new double[Math.min(k, sorted.length)];
+        for (int i = 0; i < best.length; i++) best[i] = sorted[sorted.length - 1 - i];
+        return best;
+    }
+
+    @Test
+    public void keepsTheSameScoresAsAFullSort() throws Exception {
+        HillSet hills = randomHills(3000, 17);
+        BoundedHeap heap = new BoundedHeap();
+        for (HillRanking ranking : RANKINGS) {
+            double[] scores = new double[hills.size()];
+            for (int i = 0; i < hills.size(); i++) scores[i] = ranking.score(hills, i);
+            for (int k : new int[] { 0, 1, 5, 40, 63, 64, 65, 1000, 3000, 5000 }) {
+                heap.reset(k);
+                for (int i = 0; i < hills.size(); i++) heap.offer(i, scores[i]);
+                // heights tie, so compare the scores kept rather than which hills
+                double[] kept = new double[heap.size()];
+                for (int i = 0; i < heap.size(); i++) kept[i] = scores[heap.get(i)];
+                Arrays.sort(kept);
+                double[] expected = bestBySorting(scores, k);
+                assertEquals(expected.length, kept.length);
+                for (int i = 0; i < expected.length; i++) {
+                    assertEquals("k " + k + " rank " + i, expected[i], kept[kept.length - 1 - i], 0);
+                }
+            }
+        }
+    }
+
+    @Test
+    public void offerSaysWhetherItWasKept() throws Exception {
+        BoundedHeap heap = new BoundedHeap();
+        heap.reset(2);
+        assertTrue(heap.offer(0, 5));
+        assertTrue(heap.offer(1, 3));
+        assertFalse(heap.offer(2, 3));
+        assertFalse(heap.offer(3, 1));
+        assertTrue(heap.offer(4, 4));
+        int[] held = { heap.get(0), heap.get(1) };
+        Arrays.sort(held);
+        assertArrayEquals(new int[] { 0, 4 }, held);
+        heap.reset(0);
+        assertFalse(heap.offer(5, 100));
+        assertEquals(0, heap.size());
+    }
+}
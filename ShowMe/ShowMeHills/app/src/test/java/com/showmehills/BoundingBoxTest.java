@@ -0,0 +1,100 @@
+package com.showmehills;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class BoundingBoxTest {
+
+    // observers by the antimeridian, on it from either side, and near both poles
+    private static final double[][] OBSERVERS = {
+            { 10, 179.9 }, { -45, -179.95 }, { 60, 179.5 }, { 0, 180 }, { 0, -180 }, { 85, 179 },
+            { -85, -179 }, { 89.9, 30 }, { -89.95, -120 }, { 89, -179.99 }, { 57, -4 }
+    };
+    private static final double[] RADII_KM = { 5, 50, 150 };
+
+    private static double wrap(double lon) {
+        while (lon > 180) lon -= 360;
+        while (lon < -180) lon += 360;
+        return lon;
+    }
+
+    // where you get to going km from (lat, lon) on the given bearing
+    private static double[] destination(double lat, double lon, double bearing, double km) {
+        double r = km / BoundingBox.EARTH_RADIUS_KM;
+        double lat1 = Math.toRadians(lat), b = Math.toRadians(bearing);
+        double lat2 = Math.asin(Math.sin(lat1) * Math.cos(r) + Math.cos(lat1) * Math.sin(r) * Math.cos(b));
+        double dlon = Math.atan2(Math.sin(b) * Math.sin(r) * Math.cos(lat1), Math.cos(r) - Math.sin(lat1) * Math.sin(lat2));
+        return new double[] { Math.toDegrees(lat2), wrap(lon + Math.toDegrees(dlon)) };
+    }
+
+    @Test
+    public void everyPointInRangeIsInTheBox() throws Exception {
+        Random random = new Random(13);
+        for (double[] o : OBSERVERS) {
+            for (double km : RADII_KM) {
+                BoundingBox box = BoundingBox.around(o[0], o[1], km);
+                // points scattered over a little more than the circle, found by brute force
+                double latSpan = Math.toDegrees(km / BoundingBox.EARTH_RADIUS_KM) * 1.5;
+                int inRange = 0;
+                for (int i = 0; i < 20000; i++) {
+                    double lat = Math.max(-90, Math.min(90, o[0] + (random.nextDouble() * 2 - 1) * latSpan));
+                    double cos = Math.cos(Math.toRadians(Math.max(Math.abs(o[0]), Math.abs(lat))));
+                    double lonSpan = Math.min(180, latSpan / Math.max(cos, 1e-6));
+                    double lon = wrap(o[1] + (random.nextDouble() * 2 - 1) * lonSpan);
+                    if (HillProjector.distanceKm(o[0], o[1], lat, lon) > km) continue;
+                    inRange++;
+                    assertTrue(lat + "," + lon + " from " + o[0] + "," + o[1] + " within " + km + "km, " + box,
+                            box.contains(lat, lon));
+                }
+                assertTrue(inRange > 1000);
+                // and the edge of the circle itself
+                for (double bearing = 0; bearing < 360; bearing += 0.5) {
+                    double[] p = destination(o[0], o[1], bearing, km * 0.999999);
+                    assertTrue(p[0] + "," + p[1] + " at " + bearing + " from " + o[0] + "," + o[1] + ", " + box,
+                            box.contains(p[0], p[1]));
+                }
+            }
+        }
+    }
+
+    @Test
+    public void boxIsNoBiggerThanTheCircle() throws Exception {
+        for (double[] o : OBSERVERS) {
+            for (double km : RADII_KM) {
+                BoundingBox box = BoundingBox.around(o[0], o[1], km);
+                double maxLat = -90, minLat = 90, widest = 0;
+                for (double bearing = 0; bearing < 360; bearing += 0.01) {
+                    double[] p = destination(o[0], o[1], bearing, km);
+                    maxLat = Math.max(maxLat, p[0]);
+                    minLat = Math.min(minLat, p[0]);
+                    widest = Math.max(widest, Math.abs(wrap(p[1] - o[1])));
+                }
+                String where = o[0] + "," + o[1] + " within " + km + "km, " + box;
+                double latSpan = Math.toDegrees(km / BoundingBox.EARTH_RADIUS_KM);
+                if (o[0] + latSpan >= 90 || o[0] - latSpan <= -90) {
+                    // round a pole: every longitude, and out to the pole on that side
+                    assertEquals(where, 1, box.ranges);
+                    assertEquals(where, -180, box.minLon[0], 0);
+                    assertEquals(where, 180, box.maxLon[0], 0);
+                    assertEquals(where, o[0] > 0 ? 90 : -90, o[0] > 0 ? box.maxLat : box.minLat, 0);
+                    assertEquals(where, o[0] > 0 ? minLat : maxLat, o[0] > 0 ? box.minLat : box.maxLat, 1e-6);
+                    continue;
+                }
+                assertEquals(where, maxLat, box.maxLat, 1e-6);
+                assertEquals(where, minLat, box.minLat, 1e-6);
+                double width = 0;
+                for (int i = 0; i < box.ranges; i++) width += box.maxLon[i] - box.minLon[i];
+                assertEquals(where, widest, width / 2, 1e-6);
+                if (box.ranges == 2) {
+                    // split where it crosses the antimeridian, and nowhere else
+                    assertEquals(where, 180, box.maxLon[0], 0);
+                    assertEquals(where, -180, box.minLon[1], 0);
+                    assertFalse(where, box.isSimple());
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,41 @@
+package com.showmehills;
+
+/*
+ * Rough timing of CircularFilter against the filter it replaced, at a few window sizes. Not a
+ * unit test; run the main method from the IDE (or java -cp ...). Each "event" is one reading
+ * added, as onSensorChanged does, and every fourth one also reads the variation, as the overlay
+ * does when it redraws.
+ */
+public class CircularFilterBenchmark {
+
+    private static final int EVENTS = 200000;
+    private static volatile double sink;
+
+    public static void main(String[] args) {
+        for (int window : new int[] { 10, 50, 200, 1000 }) {
+            // run each twice and report the second, after the JIT has had a go
+            bench(window);
+            long[] ns = bench(window);
+            System.out.println("window " + window + ": old " + ns[0] + " ns/event, new " + ns[1] + " ns/event");
+        }
+    }
+
+    private static long[] bench(int window) {
+        LegacyCircularFilter legacy = new LegacyCircularFilter(window);
+        long start = System.nanoTime();
+        for (int i = 0; i < EVENTS; i++) {
+            legacy.AddLatest(i * 0.01);
+            if ((i & 3) == 0) sink += legacy.GetVariance();
+        }
+        long old = (System.nanoTime() - start) / EVENTS;
+
+        CircularFilter filter = new CircularFilter(window, window);
+        start = System.nanoTime();
+        for (int i = 0; i < EVENTS; i++) {
+            filter.add(i * 0.01);
+            if ((i & 3) == 0) sink += filter.getVariance();
+        }
+        long now = (System.nanoTime() - start) / EVENTS;
+        return new long[] { old, now };
+    }
+}
@@ -0,0 +1,78 @@
+package com.showmehills;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class CircularFilterTest {
+
+    @Test
+    public void matchesTheOldFilterOnceTheWindowIsFull() throws Exception {
+        Random r = new Random(1);
+        CircularFilter filter = new CircularFilter(200, 50);
+        LegacyCircularFilter legacy = new LegacyCircularFilter(50);
+        for (int i = 0; i < 20000; i++) {
+            // a noisy heading wandering round the circle
+            double d = i * 0.001 + r.nextGaussian() * 0.2;
+            filter.add(d);
+            legacy.AddLatest(d);
+            if (i >= 50) {
+                assertEquals(legacy.dir, filter.getMean(), 1e-9);
+                assertEquals(legacy.GetVariance(), filter.getVariance(), 1e-9);
+            }
+        }
+    }
+
+    @Test
+    public void averagesAcrossNorth() throws Exception {
+        CircularFilter filter = new CircularFilter(10, 2);
+        filter.add(Math.toRadians(359));
+        filter.add(Math.toRadians(1));
+        assertEquals(0, Math.toDegrees(filter.getMean()), 1e-9);
+    }
+
+    @Test
+    public void steadyReadingHasNoVariance() throws Exception {
+        CircularFilter filter = new CircularFilter(100, 100);
+        for (int i = 0; i < 1000; i++) filter.add(1.234);
+        assertEquals(1.234, filter.getMean(), 1e-9);
+        assertEquals(0, filter.getVariance(), 1e-12);
+    }
+
+    @Test
+    public void resizingKeepsTheLatestReadings() throws Exception {
+        Random r = new Random(2);
+        CircularFilter filter = new CircularFilter(500, 300);
+        double[] readings = new double[1000];
+        for (int i = 0; i < readings.length; i++) {
+            readings[i] = r.nextDouble() * 2 * Math.PI;
+            filter.add(readings[i]);
+        }
+        for (int window : new int[] { 20, 450, 1, 500, 700 }) {
+            filter.setWindow(window);
+            int n = filter.getWindow();
+            LegacyCircularFilter legacy = new LegacyCircularFilter(Math.max(n, 2));
+            for (int i = readings.length - Math.max(n, 2); i < readings.length; i++) legacy.AddLatest(readings[i]);
+            assertEquals(n, filter.getCount());
+            if (n > 1) {
+                assertEquals(legacy.dir, filter.getMean(), 1e-9);
+                assertEquals(legacy.GetVariance(), filter.getVariance(), 1e-9);
+            } else {
+                assertEquals(Math.atan2(Math.sin(readings[999]), Math.cos(readings[999])), filter.getMean(), 1e-9);
+            }
+        }
+        assertEquals("window is capped at the capacity", 500, filter.getWindow());
+    }
+
+    @Test
+    public void clearStartsAgain() throws Exception {
+        CircularFilter filter = new CircularFilter(10, 10);
+        for (int i = 0; i < 25; i++) filter.add(2.0);
+        filter.clear();
+        filter.add(-1.0);
+        assertEquals(1, filter.getCount());
+        assertEquals(-1.0, filter.getMean(), 1e-9);
+    }
+}
@@ -0,0 +1,66 @@
+package com.showmehills;
+
+import java.util.Random;
+
+/*
+ * An IHillStore over random hills held in arrays, scanned in full on every fetch. Like
+ * MappedHillStore it leaves the names in the store, and counts how many are asked for.
+ */
+class FakeHillStore implements IHillStore {
+
+    final double[] latitude;
+    final double[] longitude;
+    final int[] height;
+    int namesLookedUp;
+    int fetches;
+
+    // count hills scattered over the given box, from 0 to 1300m high
+    FakeHillStore(int count, long seed, double minLat, double maxLat, double minLon, double maxLon) {
+        Random random = new Random(seed);
+        latitude = new double[count];
+        longitude = new double[count];
+        height = new int[count];
+        for (int i = 0; i < count; i++) {
+            latitude[i] = minLat + random.nextDouble() * (maxLat - minLat);
+            longitude[i] = minLon + random.nextDouble() * (maxLon - minLon);
+            height[i] = random.nextInt(1300);
+        }
+    }
+
+    static String nameOf(int id) {
+        return "hill" + id;
+    }
+
+    @Override
+    public void createDataBase() {
+    }
+
+    @Override
+    public boolean checkDataBase() {
+        return true;
+    }
+
+    @Override
+    public int fetch(double minLat, double maxLat, double minLon, double maxLon, int minheight, int maxheight, HillSet out) {
+        fetches++;
+        int added = 0;
+        for (int i = 0; i < latitude.length; i++) {
+            if (latitude[i] < minLat || latitude[i] > maxLat || longitude[i] < minLon || longitude[i] > maxLon) continue;
+            if (minheight > 0 && height[i] <= minheight) continue;
+            if (maxheight < 9000 && height[i] >= maxheight) continue;
+            out.addUnnamed(i, i, longitude[i], latitude[i], height[i]);
+            added++;
+        }
+        return added;
+    }
+
+    @Override
+    public String getName(int row) {
+        namesLookedUp++;
+        return nameOf(row);
+    }
+
+    @Override
+    public void close() {
+    }
+}
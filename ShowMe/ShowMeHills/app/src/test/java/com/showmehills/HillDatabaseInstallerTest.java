@@ -0,0 +1,66 @@
+package com.showmehills;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.concurrent.Callable;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+public class HillDatabaseInstallerTest {
+
+    // fails the first few runs, the way a copy does when the disk is full, then succeeds
+    private static class FlakyInstall implements Callable<Boolean> {
+        final AtomicInteger runs = new AtomicInteger();
+        final int failures;
+        final boolean throwing;
+
+        FlakyInstall(int failures, boolean throwing) {
+            this.failures = failures;
+            this.throwing = throwing;
+        }
+
+        @Override
+        public Boolean call() throws Exception {
+            if (runs.incrementAndGet() > failures) return true;
+            if (throwing) throw new IOException("no space left on device");
+            return false;
+        }
+    }
+
+    @Test
+    public void failedInstallIsTriedAgain() throws Exception {
+        FlakyInstall install = new FlakyInstall(1, false);
+        HillDatabaseInstaller.RetryableTask task = new HillDatabaseInstaller.RetryableTask("test", install);
+        assertFalse(task.await());
+        assertTrue(task.await());
+        assertEquals(2, install.runs.get());
+        // and once it has worked it isn't run again
+        assertTrue(task.await());
+        task.start();
+        assertTrue(task.await());
+        assertEquals(2, install.runs.get());
+    }
+
+    @Test
+    public void installThatThrowsIsTriedAgain() throws Exception {
+        FlakyInstall install = new FlakyInstall(2, true);
+        HillDatabaseInstaller.RetryableTask task = new HillDatabaseInstaller.RetryableTask("test", install);
+        assertFalse(task.await());
+        assertFalse(task.await());
+        assertTrue(task.await());
+        assertEquals(3, install.runs.get());
+    }
+
+    @Test
+    public void resetRunsItAgain() throws Exception {
+        FlakyInstall install = new FlakyInstall(0, false);
+        HillDatabaseInstaller.RetryableTask task = new HillDatabaseInstaller.RetryableTask("test", install);
+        task.start();
+        assertTrue(task.await());
+        task.reset();
+        assertTrue(task.await());
+        assertEquals(2, install.runs.get());
+    }
+}
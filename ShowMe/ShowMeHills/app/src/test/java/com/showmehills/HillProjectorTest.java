@@ -0,0 +1,84 @@
+package com.showmehills;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class HillProjectorTest {
+
+    @Test
+    public void onlyTheHillsReturnedAreNamed() throws Exception {
+        FakeHillStore store = new FakeHillStore(20000, 3, 55, 59, -7, -1);
+        HillProjector projector = new HillProjector(store);
+        HillSet hills = projector.project(57, -4, 500, 0, 9000, 5, 60, 40, HillRanking.BY_HEIGHT);
+        assertEquals(40, hills.size());
+        assertTrue(projector.getLastCandidates() > 1000);
+        assertEquals(hills.size(), store.namesLookedUp);
+        for (int i = 0; i < hills.size(); i++) {
+            assertEquals(FakeHillStore.nameOf(hills.id[i]), hills.hillname[i]);
+        }
+    }
+
+    private static int[] sortedIds(HillSet hills) {
+        int[] ids = Arrays.copyOf(hills.id, hills.size());
+        Arrays.sort(ids);
+        return ids;
+    }
+
+    // a walk of short and long steps, checking the strips fetched as the box moves against
+    // fetching the whole box again with a projector that has nothing cached
+    @Test
+    public void incrementalFetchesMatchFullFetches() throws Exception {
+        FakeHillStore store = new FakeHillStore(20000, 5, 55, 59, -7, -1);
+        HillProjector walker = new HillProjector(store);
+        Random random = new Random(9);
+        double lat = 57, lon = -4;
+        int maxdistance = 20;
+        for (int step = 0; step < 300; step++) {
+            // mostly under the reuse distance, now and then a jump that refetches
+            double km = random.nextInt(10) == 0 ? maxdistance : random.nextDouble() * maxdistance * 0.3;
+            double bearing = random.nextDouble() * 2 * Math.PI;
+            lat += km * Math.cos(bearing) / 111;
+            lon += km * Math.sin(bearing) / (111 * Math.cos(Math.toRadians(lat)));
+            lat = Math.max(55.5, Math.min(58.5, lat));
+            lon = Math.max(-6.5, Math.min(-1.5, lon));
+
+            HillSet walked = walker.project(lat, lon, 300, 100, 9000, 0, maxdistance);
+            HillProjector fresh = new HillProjector(store);
+            HillSet fetched = fresh.project(lat, lon, 300, 100, 9000, 0, maxdistance);
+            assertEquals("candidates at step " + step, fresh.getLastCandidates(), walker.getLastCandidates());
+            assertArrayEquals("hills at step " + step, sortedIds(fetched), sortedIds(walked));
+        }
+        assertTrue(walker.getIncrementalFetches() > 200);
+        assertTrue(walker.getFullFetches() > 1);
+    }
+
+    // a limited query keeps the same scores as ranking every hill in range, nearest first
+    @Test
+    public void limitKeepsTheBestUnderEachRanking() throws Exception {
+        FakeHillStore store = new FakeHillStore(20000, 7, 55, 59, -7, -1);
+        HillRanking[] rankings = { HillRanking.BY_DISTANCE, HillRanking.BY_HEIGHT, HillRanking.BY_PROMINENCE };
+        HillSet all = new HillProjector(store).project(57, -4, 500, 0, 9000, 5, 60);
+        for (HillRanking ranking : rankings) {
+            double[] scores = new double[all.size()];
+            for (int i = 0; i < all.size(); i++) scores[i] = ranking.score(all, i);
+            Arrays.sort(scores);
+            for (int limit : new int[] { 1, 40, 500 }) {
+                HillSet best = new HillProjector(store).project(57, -4, 500, 0, 9000, 5, 60, limit, ranking);
+                assertEquals(limit, best.size());
+                double[] kept = new double[best.size()];
+                for (int i = 0; i < best.size(); i++) kept[i] = ranking.score(best, i);
+                Arrays.sort(kept);
+                for (int i = 0; i < limit; i++) {
+                    assertEquals("limit " + limit + " rank " + i, scores[scores.length - 1 - i], kept[kept.length - 1 - i], 0);
+                }
+                for (int r = 1; r < best.size(); r++) {
+                    assertTrue(best.distance[best.byDistance(r - 1)] <= best.distance[best.byDistance(r)]);
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,108 @@
+package com.showmehills;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class HillSetTest {
+
+    private static HillSet randomHills(int count, long seed) {
+        Random random = new Random(seed);
+        HillSet hills = new HillSet(count);
+        for (int i = 0; i < count; i++) {
+            int h = hills.add(i, "hill" + i, -5 + random.nextDouble() * 2, 56 + random.nextDouble() * 2, random.nextInt(1300));
+            hills.SetDirection(h, 57, -4, 500);
+        }
+        hills.sortByDistance();
+        hills.sortByBearing();
+        return hills;
+    }
+
+    // the test DrawOnTop used to make of every hill
+    private static boolean inView(double direction, double heading, double fov) {
+        double offset = heading - direction;
+        double offset2 = heading - (360 + direction);
+        double offset3 = 360 + heading - direction;
+        return Math.abs(offset) * 2 < fov || Math.abs(offset2) * 2 < fov || Math.abs(offset3) * 2 < fov;
+    }
+
+    @Test
+    public void inViewMatchesCheckingEveryHill() throws Exception {
+        HillSet hills = randomHills(2000, 7);
+        int[] out = new int[hills.size()];
+        for (double heading = 0; heading < 360; heading += 7.3) {
+            for (double fov : new double[] { 0.5, 20, 50.2, 179, 359 }) {
+                int n = hills.inView(heading, fov, out);
+                int[] found = Arrays.copyOf(out, n);
+                Arrays.sort(found);
+                int expected = 0;
+                for (int i = 0; i < hills.size(); i++) {
+                    if (inView(hills.direction[i], heading, fov)) {
+                        assertTrue("hill " + i + " at " + hills.direction[i] + " for " + heading + "/" + fov,
+                                Arrays.binarySearch(found, i) >= 0);
+                        expected++;
+                    }
+                }
+                assertEquals(expected, n);
+            }
+        }
+    }
+
+    @Test
+    public void nearestInViewMatchesWalkingNearestFirst() throws Exception {
+        HillSet hills = randomHills(2000, 11);
+        int[] out = new int[hills.size()];
+        for (double heading = 0; heading < 360; heading += 11.9) {
+            for (double fov : new double[] { 0.5, 20, 50.2, 359 }) {
+                // few labels take the walk, lots take the sort
+                for (int max : new int[] { 1, 5, 40, 2000 }) {
+                    int n = hills.nearestInView(heading, fov, max, out);
+                    int expected = 0;
+                    for (int r = 0; r < hills.size() && expected < max; r++) {
+                        int i = hills.order[r];
+                        if (!inView(hills.direction[i], heading, fov)) continue;
+                        // the same hill, not just one as near, whichever way it was found
+                        assertEquals("nearest " + expected + " for " + heading + "/" + fov + "/" + max,
+                                i, out[expected]);
+                        expected++;
+                    }
+                    assertEquals(expected, n);
+                }
+            }
+        }
+        assertEquals(0, hills.nearestInView(0, 50, 0, out));
+    }
+
+    @Test
+    public void viewAcrossNorth() throws Exception {
+        HillSet hills = new HillSet(4);
+        for (double direction : new double[] { 350, 5, 90, 355 }) {
+            int h = hills.add(hills.size(), "", 0, 0, 0);
+            hills.direction[h] = direction;
+        }
+        hills.sortByBearing();
+        int[] out = new int[4];
+        assertEquals(3, hills.inView(0, 40, out));
+        // in order of direction, the part before north first
+        assertEquals(350, hills.direction[out[0]], 0);
+        assertEquals(355, hills.direction[out[1]], 0);
+        assertEquals(5, hills.direction[out[2]], 0);
+        assertEquals(-10, hills.offset(out[0], 0), 0);
+        assertEquals(5, hills.offset(out[2], 0), 0);
+        assertEquals(0, hills.inView(0, 0, out));
+    }
+
+    @Test
+    public void offsetIsTheShortWayRound() throws Exception {
+        HillSet hills = new HillSet(1);
+        int h = hills.add(0, "", 0, 0, 0);
+        hills.direction[h] = 10;
+        assertEquals(20, hills.offset(h, 350), 1e-9);
+        hills.direction[h] = 350;
+        assertEquals(-20, hills.offset(h, 10), 1e-9);
+        assertEquals(180, hills.offset(h, 170), 1e-9);
+    }
+}
@@ -0,0 +1,136 @@
+package com.showmehills;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class HillTileCacheTest {
+
+    private static void assertSameHills(String where, HillSet expected, HillSet actual) {
+        assertEquals(where, expected.size(), actual.size());
+        for (int r = 0; r < expected.size(); r++) {
+            // equally near hills can come in either order, but the distances can't
+            assertEquals(where + " rank " + r, expected.distance[expected.byDistance(r)], actual.distance[actual.byDistance(r)], 0);
+        }
+        int[] a = Arrays.copyOf(expected.id, expected.size());
+        int[] b = Arrays.copyOf(actual.id, actual.size());
+        Arrays.sort(a);
+        Arrays.sort(b);
+        assertArrayEquals(where, a, b);
+    }
+
+    private static HillSet hills(int count) {
+        HillSet hills = new HillSet(count);
+        for (int i = 0; i < count; i++) hills.add(i, "hill" + i, 0, 0, 0);
+        return hills;
+    }
+
+    private static HillTileCache.TileKey key(int cell) {
+        return new HillTileCache.TileKey(FakeHillStore.class, 0, cell, 0, 9000, 20);
+    }
+
+    // Observers all over the cells, often in one that's been used before, seen through projectors
+    // sharing a tile cache and through one that always goes to the store. Projectors are made
+    // afresh each time so their own incremental fetches don't come into it.
+    @Test
+    public void tiledQueriesMatchTheStore() throws Exception {
+        FakeHillStore store = new FakeHillStore(20000, 19, 55, 59, -7, -1);
+        HillTileCache cache = new HillTileCache(60000);
+        Random random = new Random(23);
+        double lat = 57, lon = -4;
+        int minheight = 0, maxdistance = 20;
+        int hitsChecked = 0;
+        for (int q = 0; q < 200; q++) {
+            if (random.nextInt(3) == 0) {
+                // somewhere else, maybe with other filters
+                lat = 56 + random.nextDouble() * 2;
+                lon = -6 + random.nextDouble() * 4;
+                minheight = random.nextBoolean() ? 0 : 300;
+                maxdistance = random.nextBoolean() ? 20 : 35;
+            } else {
+                // a step of up to half a cell, so tiles get used again
+                lat += (random.nextDouble() - 0.5) * HillTileCache.CELL_KM / 111;
+                lon += (random.nextDouble() - 0.5) * HillTileCache.CELL_KM / 60;
+            }
+            String where = "query " + q + " at " + lat + "," + lon;
+
+            HillSet direct = new HillProjector(store).project(lat, lon, 200, minheight, 9000, 2, maxdistance);
+            int hits = cache.getHits();
+            int fetches = store.fetches;
+            HillSet tiled = new HillProjector(store, cache).project(lat, lon, 200, minheight, 9000, 2, maxdistance);
+            if (cache.getHits() > hits) {
+                // a hit doesn't go to the store, and the tile still covers this observer's box
+                assertEquals(where, fetches, store.fetches);
+                hitsChecked++;
+            }
+            assertSameHills(where, direct, tiled);
+
+            HillSet directBest = new HillProjector(store).project(lat, lon, 200, minheight, 9000, 2, maxdistance,
+                    30, HillRanking.BY_PROMINENCE);
+            HillSet tiledBest = new HillProjector(store, cache).project(lat, lon, 200, minheight, 9000, 2, maxdistance,
+                    30, HillRanking.BY_PROMINENCE);
+            assertEquals(where, directBest.size(), tiledBest.size());
+            for (int i = 0; i < tiledBest.size(); i++) {
+                assertEquals(where, FakeHillStore.nameOf(tiledBest.id[i]), tiledBest.hillname[i]);
+            }
+        }
+        assertTrue(hitsChecked > 50);
+        assertEquals(400, cache.getHits() + cache.getMisses());
+        assertEquals(0, cache.getEvictions());
+    }
+
+    @Test
+    public void evictsLeastRecentlyUsedBySize() throws Exception {
+        HillTileCache cache = new HillTileCache(1000);
+        for (int cell = 0; cell < 4; cell++) cache.put(key(cell), hills(250));
+        assertEquals(1000, cache.getSize());
+        assertEquals(0, cache.getEvictions());
+
+        // using cell 0 makes cell 1 the oldest
+        assertNotNull(cache.get(key(0)));
+        cache.put(key(4), hills(300));
+        assertEquals(2, cache.getEvictions());
+        assertNull(cache.get(key(1)));
+        assertNull(cache.get(key(2)));
+        assertNotNull(cache.get(key(0)));
+        assertNotNull(cache.get(key(3)));
+        assertNotNull(cache.get(key(4)));
+        assertEquals(800, cache.getSize());
+        assertEquals(4, cache.getHits());
+        assertEquals(2, cache.getMisses());
+
+        // putting a key again replaces its hills, and an empty tile still counts as one
+        cache.put(key(4), hills(0));
+        assertEquals(501, cache.getSize());
+        cache.clear();
+        assertEquals(0, cache.getSize());
+        assertNull(cache.get(key(0)));
+    }
+
+    @Test
+    public void staysWithinMaxHillsUnderLoad() throws Exception {
+        FakeHillStore store = new FakeHillStore(20000, 29, 55, 59, -7, -1);
+        int maxHills = 5000;
+        HillTileCache cache = new HillTileCache(maxHills);
+        Random random = new Random(31);
+        int lastEvictions = 0;
+        boolean evicting = false;
+        for (int q = 0; q < 100; q++) {
+            double lat = 56 + random.nextDouble() * 2;
+            double lon = -6 + random.nextDouble() * 4;
+            HillSet direct = new HillProjector(store).project(lat, lon, 200, 0, 9000, 2, 20);
+            HillSet tiled = new HillProjector(store, cache).project(lat, lon, 200, 0, 9000, 2, 20);
+            assertSameHills("query " + q, direct, tiled);
+            assertTrue("size " + cache.getSize(), cache.getSize() <= maxHills);
+            assertTrue(cache.getEvictions() >= lastEvictions);
+            if (cache.getEvictions() > lastEvictions) evicting = true;
+            lastEvictions = cache.getEvictions();
+        }
+        // a 20km tile here holds well over a thousand hills, so a few fill it
+        assertTrue(evicting);
+        assertTrue(cache.getEvictions() > 50);
+    }
+}
@@ -0,0 +1,64 @@
+package com.showmehills;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class LabelCacheTest {
+
+    // how DrawOnTop used to build the line under a name
+    private static String oldInfoText(boolean showdir, boolean showdist, boolean showheight, boolean typeunits,
+                                      double direction, double distance, double height) {
+        String marker = " (";
+        if (showdir)
+        {
+            marker += Math.floor(10*direction)/10 + "\u00B0";
+        }
+        if (showdist)
+        {
+            double multip = (typeunits)?1:0.621371;
+            marker += (showdir ? " " : "") + Math.floor(10*distance*multip)/10;
+            if (typeunits) marker += "km"; else marker += "miles";
+        }
+        if (showheight)
+        {
+            if (height > 0)
+            {
+                marker += ((showdir || showdist) ? " " : "") + (typeunits ? (int)height + "m" : (int)(height*3.2808399) + "ft");
+            }
+        }
+        marker += ")";
+        return marker;
+    }
+
+    @Test
+    public void infoTextIsUnchanged() throws Exception {
+        double[][] hills = { { 123.456, 12.34, 1344 }, { 0.04, 0.5, 0 }, { 359.99, 99.99, 3.7 } };
+        for (int flags = 0; flags < 16; flags++) {
+            boolean showdir = (flags & LabelCache.SHOW_DIR) != 0;
+            boolean showdist = (flags & LabelCache.SHOW_DIST) != 0;
+            boolean showheight = (flags & LabelCache.SHOW_HEIGHT) != 0;
+            boolean metric = (flags & LabelCache.METRIC) != 0;
+            assertEquals(flags, LabelCache.flags(showdir, showdist, showheight, metric));
+            for (double[] h : hills) {
+                int dirTenths = (int)Math.floor(10 * h[0]);
+                int distTenths = (int)Math.floor(10 * h[1] * (metric ? 1 : 0.621371));
+                int units = metric ? (int)h[2] : (int)(h[2] * 3.2808399);
+                assertEquals(oldInfoText(showdir, showdist, showheight, metric, h[0], h[1], h[2]),
+                        LabelCache.infoText(flags, dirTenths, distTenths, units, h[2] > 0));
+            }
+        }
+    }
+
+    @Test
+    public void keysDifferInEveryPart() throws Exception {
+        long key = LabelCache.key(1234, 30, 255, 200, LabelCache.SHOW_DIR);
+        assertNotEquals(key, LabelCache.key(1235, 30, 255, 200, LabelCache.SHOW_DIR));
+        assertNotEquals(key, LabelCache.key(1234, 29, 255, 200, LabelCache.SHOW_DIR));
+        assertNotEquals(key, LabelCache.key(1234, 30.25f, 255, 200, LabelCache.SHOW_DIR));
+        assertNotEquals(key, LabelCache.key(1234, 30, 245, 200, LabelCache.SHOW_DIR));
+        assertNotEquals(key, LabelCache.key(1234, 30, 255, 195, LabelCache.SHOW_DIR));
+        assertNotEquals(key, LabelCache.key(1234, 30, 255, 200, LabelCache.SHOW_DIST));
+        assertNotEquals(LabelCache.key(-1, 30, 255, 200, 0), LabelCache.key(0, 30, 255, 200, 0));
+    }
+}
@@ -0,0 +1,71 @@
+package com.showmehills;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class LabelHitIndexTest {
+
+    // what onTouch used to do, but picking the nearest within the tolerance rather than every hit
+    private static int bruteForce(int[][] labels, double x, double y) {
+        int best = -1;
+        double bestDist = (double)LabelHitIndex.TOLERANCE_PX * LabelHitIndex.TOLERANCE_PX;
+        for (int[] l : labels) {
+            double dx = Math.max(0, Math.max(l[1] - x, x - l[3]));
+            double dy = Math.max(0, Math.max(l[2] - y, y - l[4]));
+            if (dx * dx + dy * dy <= bestDist) {
+                best = l[0];
+                bestDist = dx * dx + dy * dy;
+            }
+        }
+        return best;
+    }
+
+    private static int[][] randomLabels(Random random, int count, int width) {
+        int[][] labels = new int[count][];
+        for (int i = 0; i < count; i++) {
+            int x = random.nextInt(width * 2) - width / 2;
+            int y = random.nextInt(700);
+            labels[i] = new int[] { 1000 + i, x, y, x + 40 + random.nextInt(200), y + 10 + random.nextInt(40) };
+        }
+        return labels;
+    }
+
+    @Test
+    public void findsTheNearestLabel() throws Exception {
+        Random random = new Random(31);
+        LabelHitIndex.Builder builder = new LabelHitIndex.Builder();
+        for (int count : new int[] { 0, 1, 30, 300 }) {
+            int[][] labels = randomLabels(random, count, 1080);
+            builder.clear();
+            for (int[] l : labels) builder.add(l[0], l[1], l[2], l[3], l[4]);
+            LabelHitIndex index = builder.build(100, 50.2, 1080);
+            assertEquals(count, index.size());
+            for (int t = 0; t < 5000; t++) {
+                float x = random.nextInt(1400) - 160 + random.nextFloat();
+                float y = random.nextInt(800) - 50 + random.nextFloat();
+                assertEquals("touch at " + x + "," + y, bruteForce(labels, x, y), index.find(x, y, 100));
+            }
+        }
+    }
+
+    @Test
+    public void touchesSlideBackToTheLayoutHeading() throws Exception {
+        LabelHitIndex.Builder builder = new LabelHitIndex.Builder();
+        builder.add(7, 500, 100, 600, 130);
+        builder.add(8, 550, 120, 650, 150);
+        LabelHitIndex index = builder.build(359, 50, 1000);
+        // the overlap goes to the one drawn last
+        assertEquals(8, index.find(560, 125, 359));
+        assertEquals(7, index.find(505, 110, 359));
+        // near enough, and not
+        assertEquals(7, index.find(480, 90, 359));
+        assertEquals(-1, index.find(400, 90, 359));
+        // turning 5 degrees right, across north, slides the labels 100 pixels left
+        assertEquals(7, index.find(405, 110, 4));
+        assertEquals(-1, index.find(505, 190, 4));
+        assertEquals(-1, LabelHitIndex.EMPTY.find(0, 0, 0));
+    }
+}
@@ -0,0 +1,152 @@
+package com.showmehills;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class LabelLayoutTest {
+
+    private static HillSet randomHills(int count, long seed) {
+        Random random = new Random(seed);
+        HillSet hills = new HillSet(count);
+        for (int i = 0; i < count; i++) {
+            int h = hills.add(i, "hill" + i, -5 + random.nextDouble() * 2, 56 + random.nextDouble() * 2, random.nextInt(1300));
+            hills.SetDirection(h, 57, -4, 500);
+        }
+        hills.sortByDistance();
+        hills.sortByBearing();
+        return hills;
+    }
+
+    @Test
+    public void labelsStackUpFromTheNearest() throws Exception {
+        HillSet hills = randomHills(500, 3);
+        LabelLayout layout = new LabelLayout();
+        int top = layout.layout(hills, 90, 50, 600, 30, false, true, false);
+
+        assertSame(hills, layout.hills);
+        assertTrue(layout.count > 1);
+        int topPt = 600;
+        float size = 30;
+        for (int i = 0; i < layout.count; i++) {
+            int h = layout.hill[i];
+            if (i > 0) assertTrue(hills.distance[h] >= hills.distance[layout.hill[i - 1]]);
+            assertTrue(Math.abs(hills.offset(h, 90)) < 25);
+            assertEquals(hills.offset(h, 90) / 50, layout.ratio[i], 1e-12);
+            assertEquals(topPt, layout.toppt[i]);
+            assertEquals(size, layout.textsize[i], 0);
+            topPt -= 1 + size * 2;
+            if (size > LabelLayout.TEXT_SIZE_MIN) size -= LabelLayout.TEXT_SIZE_DECREMENT;
+        }
+        // ran out of room rather than hills
+        assertTrue(topPt <= 0);
+        assertEquals((int)(topPt - Math.max(0, 13 - size)), top);
+    }
+
+    @Test
+    public void maxLabelsBoundsTheLayout() throws Exception {
+        HillSet hills = randomHills(2000, 5);
+        LabelLayout layout = new LabelLayout();
+        for (float size : new float[] { 5, 12, 40 }) {
+            layout.layout(hills, 200, 359, 700, size, false, false, false);
+            assertEquals(LabelLayout.maxLabels(700, size), layout.count);
+        }
+    }
+
+    @Test
+    public void layoutHoldsWhileTheHeadingIsInItsWindow() throws Exception {
+        HillSet hills = randomHills(1500, 13);
+        LabelLayout layout = new LabelLayout();
+        LabelLayout fresh = new LabelLayout();
+        int covered = 0, relaid = 0;
+        for (float size : new float[] { 30, 12 }) {
+            for (double heading = 0; heading < 360; heading += 0.05) {
+                if (layout.covers(hills, heading, 50.2, 750, size, true, false, true)) {
+                    covered++;
+                    // just as if it had been laid out here, only slid across
+                    fresh.layout(hills, heading, 50.2, 750, size, true, false, true);
+                    double shift = layout.shift(heading);
+                    assertEquals(fresh.count, layout.count);
+                    assertEquals(fresh.top, layout.top);
+                    for (int i = 0; i < layout.count; i++) {
+                        assertEquals("label " + i + " at " + heading, fresh.hill[i], layout.hill[i]);
+                        assertEquals(fresh.toppt[i], layout.toppt[i]);
+                        assertEquals(fresh.textsize[i], layout.textsize[i], 0);
+                        assertEquals(fresh.ratio[i], layout.ratio[i] - shift / 50.2, 1e-9);
+                    }
+                } else {
+                    relaid++;
+                    layout.layout(hills, heading, 50.2, 750, size, true, false, true);
+                }
+            }
+        }
+        // most small turns shouldn't need a new layout
+        assertTrue(covered + " covered, " + relaid + " laid out again", covered > relaid);
+        // and anything else does
+        assertFalse(layout.covers(hills, 0, 50.2, 750, 12, true, true, true));
+        assertFalse(layout.covers(hills, 0, 50, 750, 12, true, false, true));
+        assertFalse(layout.covers(randomHills(10, 1), 0, 50.2, 750, 12, true, false, true));
+    }
+
+    @Test
+    public void statusText() throws Exception {
+        StatusText t = new StatusText();
+        assertEquals("123\u00B0 (adj:-0.0)", t.clear().append(123).append('\u00B0').append(" (adj:").appendTenths(-0.04).append(')').toString());
+        assertEquals("FOV: 50.2", t.clear().append("FOV: ").appendTenths(50.2f).toString());
+        assertEquals("-7 0 2147483647 -2147483648", t.clear().append(-7).append(' ').append(0).append(' ')
+                .append(Integer.MAX_VALUE).append(' ').append(Integer.MIN_VALUE).toString());
+        assertTrue(t.update());
+        assertEquals("-7 0 2147483647 -2147483648", new String(t.getShown(), 0, t.getShownLength()));
+        t.clear().append(-7).append(' ').append(0).append(' ').append(Integer.MAX_VALUE).append(' ').append(Integer.MIN_VALUE);
+        assertFalse(t.update());
+        t.clear().append("a longer line, to grow the buffers");
+        assertTrue(t.update());
+        assertEquals("a longer line, to grow the buffers", new String(t.getShown(), 0, t.getShownLength()));
+        // what's drawn straight onto the overlay, without update()
+        t.clear().append("Dir: ").append(87).append('\u00B0').append(" SD: ").append(12);
+        assertEquals("Dir: 87\u00B0 SD: 12", new String(t.getText(), 0, t.length()));
+    }
+
+    @Test
+    public void steadyFramesDontAllocate() throws Exception {
+        AllocationMeter meter = AllocationMeter.forCurrentThread();
+        final HillSet hills = randomHills(2000, 9);
+        final LabelLayout layout = new LabelLayout();
+        final StatusText status = new StatusText();
+        final StatusText calibration = new StatusText();
+        for (final boolean calibrating : new boolean[] { false, true }) {
+            long allocated = meter.allocatedBy(new Runnable() {
+                @Override
+                public void run() {
+                    runFrames(hills, layout, status, calibration, calibrating, 10000);
+                }
+            });
+            assertEquals("bytes allocated by 10000 frames" + (calibrating ? " while calibrating" : ""), 0, allocated);
+        }
+    }
+
+    // what DrawOnTop does each frame, panning slowly round; while calibrating it only draws the
+    // heading readout, and returns the characters drawn so that isn't optimised away
+    private static int runFrames(HillSet hills, LabelLayout layout, StatusText status, StatusText calibration,
+                                 boolean calibrating, int frames) {
+        int drawn = 0;
+        for (int f = 0; f < frames; f++) {
+            double heading = (f * 0.037) % 360;
+            if (calibrating) {
+                calibration.clear().append("Dir: ").append((int)heading).append('\u00B0')
+                        .append(" SD: ").append(f % 300);
+                char[] text = calibration.getText();
+                for (int i = 0; i < calibration.length(); i++) drawn += text[i];
+                continue;
+            }
+            if (!layout.covers(hills, heading, 50.2, 750, 30, true, true, true)) {
+                layout.layout(hills, heading, 50.2, 750, 30, true, true, true);
+            }
+            status.clear().append((int)heading).append('\u00B0').append(" (adj:").append('+').appendTenths(1.5).append(')');
+            status.update();
+        }
+        return drawn;
+    }
+}
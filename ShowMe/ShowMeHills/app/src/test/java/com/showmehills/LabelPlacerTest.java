@@ -0,0 +1,153 @@
+package com.showmehills;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class LabelPlacerTest {
+
+    // as if every character were 0.6 of the text size wide
+    private static final LabelPlacer.Measure MEASURE = new LabelPlacer.Measure() {
+        @Override
+        public float width(HillSet hills, int i, float textsize, int flags) {
+            return hills.hillname[i].length() * textsize * 0.6f;
+        }
+    };
+
+    private static HillSet randomHills(int count, long seed) {
+        Random random = new Random(seed);
+        HillSet hills = new HillSet(count);
+        for (int i = 0; i < count; i++) {
+            int h = hills.add(i, "hill" + i, -5 + random.nextDouble() * 2, 56 + random.nextDouble() * 2, random.nextInt(1300));
+            hills.SetDirection(h, 57, -4, 500);
+        }
+        hills.sortByDistance();
+        hills.sortByBearing();
+        return hills;
+    }
+
+    private static LabelStyle style(float textsize) {
+        return new LabelStyle(textsize, 750, 1080 / 50.2, LabelCache.SHOW_HEIGHT, HillRanking.BY_PROMINENCE, MEASURE);
+    }
+
+    // the room a hill's label takes in a row, in pixels
+    private static double room(LabelPlacement p, int h, int row) {
+        float width = MEASURE.width(p.hills, h, p.style.textsize, p.style.flags);
+        return Math.max(width * p.rowSize[row] / p.style.textsize, LabelPlacer.CROSSBAR_PX) + LabelPlacer.GAP_PX;
+    }
+
+    // pixels between two hills round the horizon
+    private static double apart(LabelPlacement p, int a, int b) {
+        double d = Math.abs(p.hills.direction[a] - p.hills.direction[b]) % 360;
+        return Math.min(d, 360 - d) * p.style.pixelsPerDegree;
+    }
+
+    private static boolean collides(LabelPlacement p, int a, int b, int row) {
+        // the grid rounds out to whole cells at either end
+        return apart(p, a, b) < (room(p, a, row) + room(p, b, row)) / 2 + 2 * LabelPlacer.CELL_PX;
+    }
+
+    @Test
+    public void labelsInARowDontOverlap() throws Exception {
+        for (float size : new float[] { 30, 12 }) {
+            LabelPlacement p = new LabelPlacer().place(randomHills(3000, 21), style(size));
+            assertTrue(p.count > p.rows);
+            for (int i = 0; i < p.count; i++) {
+                for (int j = i + 1; j < p.count; j++) {
+                    if (p.row[i] != p.row[j]) continue;
+                    int a = p.hill[i], b = p.hill[j];
+                    assertTrue(a + " and " + b + " in row " + p.row[i],
+                            apart(p, a, b) >= (room(p, a, p.row[i]) + room(p, b, p.row[j])) / 2);
+                }
+            }
+        }
+    }
+
+    @Test
+    public void eachHillTakesTheLowestRowWithRoom() throws Exception {
+        HillSet hills = randomHills(2000, 23);
+        LabelPlacement p = new LabelPlacer().place(hills, style(24));
+        // the rows as they were when each hill was placed
+        int[] rowOf = new int[hills.size()];
+        java.util.Arrays.fill(rowOf, -1);
+        for (int i = 0; i < p.count; i++) rowOf[p.hill[i]] = p.row[i];
+        double last = Double.POSITIVE_INFINITY;
+        for (int i = 0; i < p.count; i++) {
+            int h = p.hill[i];
+            double score = HillRanking.BY_PROMINENCE.score(hills, h);
+            assertTrue(score <= last);
+            last = score;
+            // every row below it was blocked by a label placed before it
+            for (int r = 0; r < p.row[i]; r++) {
+                boolean blocked = false;
+                for (int j = 0; j < i && !blocked; j++) {
+                    blocked = p.row[j] == r && collides(p, h, p.hill[j], r);
+                }
+                assertTrue("hill " + h + " could have gone in row " + r, blocked);
+            }
+        }
+        // and a hill left out had no room in any row
+        for (int h = 0; h < hills.size(); h++) {
+            if (rowOf[h] >= 0) continue;
+            for (int r = 0; r < p.rows; r++) {
+                boolean blocked = false;
+                for (int j = 0; j < p.count && !blocked; j++) {
+                    blocked = p.row[j] == r && collides(p, h, p.hill[j], r);
+                }
+                assertTrue("hill " + h + " left out of row " + r, blocked);
+            }
+        }
+        // the most prominent hill always gets the bottom row
+        assertEquals(0, p.row[0]);
+    }
+
+    @Test
+    public void rowsStackAsTheLayoutDoes() throws Exception {
+        HillSet hills = randomHills(1000, 27);
+        LabelPlacement p = new LabelPlacer().place(hills, style(30));
+        LabelLayout stacked = new LabelLayout();
+        // with everything in view and nothing but the nearest hills, the stack is the same shape
+        stacked.layout(hills, 0, 359.9, 750, 30, false, false, true);
+        assertEquals(stacked.count, p.rows);
+        assertEquals(stacked.top, p.top);
+        for (int r = 0; r < p.rows; r++) {
+            assertEquals(stacked.toppt[r], p.rowTop[r]);
+            assertEquals(stacked.textsize[r], p.rowSize[r], 0);
+        }
+    }
+
+    @Test
+    public void placedLayoutHoldsWhileTheHeadingIsInItsWindow() throws Exception {
+        HillSet hills = randomHills(1500, 29);
+        LabelPlacement p = new LabelPlacer().place(hills, style(30));
+        LabelLayout layout = new LabelLayout();
+        LabelLayout fresh = new LabelLayout();
+        int covered = 0, relaid = 0;
+        for (double heading = 0; heading < 360; heading += 0.05) {
+            if (layout.covers(p, heading, 50.2)) {
+                covered++;
+                fresh.layout(p, heading, 50.2);
+                double shift = layout.shift(heading);
+                assertEquals(fresh.count, layout.count);
+                for (int i = 0; i < layout.count; i++) {
+                    assertEquals("label " + i + " at " + heading, fresh.hill[i], layout.hill[i]);
+                    assertEquals(fresh.row[i], layout.row[i]);
+                    assertEquals(fresh.ratio[i], layout.ratio[i] - shift / 50.2, 1e-9);
+                }
+            } else {
+                relaid++;
+                layout.layout(p, heading, 50.2);
+                for (int i = 0; i < layout.count; i++) {
+                    assertTrue(Math.abs(layout.ratio[i]) < 0.5);
+                    assertEquals(p.rowTop[layout.row[i]], layout.toppt[i]);
+                }
+            }
+        }
+        assertTrue(covered + " covered, " + relaid + " laid out again", covered > relaid);
+        // a placement for another style, or the stacked layout, needs laying out again
+        assertFalse(layout.covers(new LabelPlacer().place(hills, style(12)), 0, 50.2));
+        assertFalse(layout.covers(hills, 0, 50.2, 750, 30, false, false, true));
+    }
+}
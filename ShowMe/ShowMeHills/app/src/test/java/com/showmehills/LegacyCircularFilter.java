@@ -0,0 +1,58 @@
+package com.showmehills;
+
+/*
+ * The compass filter as it was in ShowMeHillsActivity.filteredDirection before CircularFilter,
+ * re-summing the whole window on every reading and twice more for the variation. Kept for
+ * CircularFilterTest and CircularFilterBenchmark to compare against.
+ */
+class LegacyCircularFilter {
+    final int window;
+    double dir;
+    double sinevalues[];
+    double cosvalues[];
+    int index = 0;
+
+    LegacyCircularFilter(int window) {
+        this.window = window;
+        sinevalues = new double[window];
+        cosvalues = new double[window];
+    }
+
+    void AddLatest( double d )
+    {
+        sinevalues[index] = Math.sin(d);
+        cosvalues[index] = Math.cos(d);
+        index++;
+        if (index > window - 1) index = 0;
+        double sumc = 0;
+        double sums = 0;
+        for (int a = 0; a < window; a++)
+        {
+            sumc += cosvalues[a];
+            sums += sinevalues[a];
+        }
+        dir = Math.atan2(sums/window,sumc/window);
+    }
+
+    double GetVariance()
+    {
+        double sumc = 0;
+        double sums = 0;
+        for (int a = 0; a < window; a++)
+        {
+            sumc += cosvalues[a];
+            sums += sinevalues[a];
+        }
+        double avgc = sumc/window;
+        double avgs = sums/window;
+
+        sumc = 0;
+        sums = 0;
+        for (int a = 0; a < window; a++)
+        {
+            sumc += Math.pow(cosvalues[a] - avgc, 2);
+            sums += Math.pow(sinevalues[a] - avgs, 2);
+        }
+        return (sumc/(window-1)) + (sums/(window-1));
+    }
+}
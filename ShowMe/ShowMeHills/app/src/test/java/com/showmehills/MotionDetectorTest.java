@@ -0,0 +1,47 @@
+package com.showmehills;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class MotionDetectorTest {
+
+    private static final long MS = 1000000L;
+
+    @Test
+    public void stillOnlyAfterAQuietSpell() throws Exception {
+        MotionDetector m = new MotionDetector();
+        long t = 0;
+        for (; t < MotionDetector.STILL_NANOS; t += 20 * MS) {
+            assertFalse(m.update(0, 0.2, t));
+        }
+        assertTrue(m.update(0, 0.2, t));
+    }
+
+    @Test
+    public void anyTurnWakesItStraightAway() throws Exception {
+        MotionDetector m = new MotionDetector();
+        m.update(0, 0, 0);
+        assertTrue(m.update(0, 0, MotionDetector.STILL_NANOS));
+        // small wobbles while still don't count
+        assertTrue(m.update(3, 2.0, MotionDetector.STILL_NANOS + 20 * MS));
+        assertFalse(m.update(0, 4.0, MotionDetector.STILL_NANOS + 40 * MS));
+        // and the quiet spell starts again
+        assertFalse(m.update(0, 0, MotionDetector.STILL_NANOS + 60 * MS));
+    }
+
+    @Test
+    public void spreadOfReadingsWakesIt() throws Exception {
+        MotionDetector m = new MotionDetector();
+        m.update(0, 0, 0);
+        assertTrue(m.update(0, 0, MotionDetector.STILL_NANOS));
+        assertFalse(m.update(MotionDetector.MOVING_VARIATION, 0, MotionDetector.STILL_NANOS + 20 * MS));
+    }
+
+    @Test
+    public void turnIsTheShortWayRound() throws Exception {
+        assertEquals(2, MotionDetector.turn(359, 1), 1e-9);
+        assertEquals(2, MotionDetector.turn(-179, 179), 1e-9);
+        assertEquals(90, MotionDetector.turn(-45, 45), 1e-9);
+    }
+}
@@ -0,0 +1,78 @@
+package com.showmehills;
+
+import org.junit.Test;
+
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.junit.Assert.*;
+
+public class OrientationExchangeTest {
+
+    // every field the sequence, so a snapshot caught half written shows up
+    private static void fill(OrientationSnapshot o, long sequence) {
+        o.set(sequence, sequence, (int)sequence, sequence, sequence, sequence, sequence, sequence, sequence);
+        o.sequence = sequence;
+    }
+
+    private static boolean whole(OrientationSnapshot o) {
+        long s = o.sequence;
+        return o.azimuth == s && o.pitch == s && o.variation == (int)s && o.eventTimestamp == s && o.publishedAt == s
+                && o.azimuthRate == s && o.pitchRate == s && o.azimuthLagNanos == s && o.pitchLagNanos == s;
+    }
+
+    @Test
+    public void readerGetsTheNewest() throws Exception {
+        OrientationExchange exchange = new OrientationExchange();
+        assertEquals(0, exchange.latest().sequence);
+        assertEquals(0, exchange.latest().azimuth, 0);
+
+        for (long s = 1; s <= 3; s++) {
+            fill(exchange.writable(), s);
+            exchange.publish();
+        }
+        OrientationSnapshot latest = exchange.latest();
+        assertEquals(3, latest.sequence);
+        // nothing newer, so the same one again
+        assertSame(latest, exchange.latest());
+        // and the writer never gets the one being read
+        for (long s = 4; s <= 10; s++) {
+            assertNotSame(latest, exchange.writable());
+            fill(exchange.writable(), s);
+            exchange.publish();
+        }
+        assertEquals(3, latest.sequence);
+        assertEquals(10, exchange.latest().sequence);
+    }
+
+    @Test
+    public void snapshotsDontChangeWhileRead() throws Exception {
+        final OrientationExchange exchange = new OrientationExchange();
+        final AtomicBoolean done = new AtomicBoolean(false);
+        Thread writer = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                for (long s = 1; s <= 2000000; s++) {
+                    fill(exchange.writable(), s);
+                    exchange.publish();
+                }
+                done.set(true);
+            }
+        });
+        writer.start();
+        long last = 0;
+        int reads = 0;
+        while (!done.get() || last < 2000000) {
+            OrientationSnapshot o = exchange.latest();
+            assertTrue("snapshot " + o.sequence + " torn", whole(o));
+            assertTrue(o.sequence >= last);
+            last = o.sequence;
+            // still the same while the writer carries on
+            Thread.yield();
+            assertEquals(last, o.sequence);
+            assertTrue("snapshot " + o.sequence + " written over", whole(o));
+            reads++;
+        }
+        writer.join();
+        assertTrue(reads > 1);
+    }
+}
@@ -0,0 +1,221 @@
+package com.showmehills;
+
+import android.hardware.Sensor;
+import android.hardware.SensorManager;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class OrientationPipelineTest {
+
+    // phone upright in portrait, camera facing magnetic north
+    private static final float[] GRAVITY_UPRIGHT = { 0f, 9.81f, 0f };
+    private static final float[] FIELD_NORTH = { 0f, -40f, -20f };
+
+    @Test
+    public void uprightFacingNorth() throws Exception {
+        OrientationPipeline p = new OrientationPipeline();
+        p.onAccelerometer(GRAVITY_UPRIGHT);
+        p.onMagneticField(FIELD_NORTH);
+        assertTrue(p.update());
+        assertEquals(0, Math.toDegrees(p.getAzimuth()), 0.01);
+        assertEquals(0, Math.toDegrees(p.getPitch()), 0.01);
+    }
+
+    @Test
+    public void declinationTurnsTheHeading() throws Exception {
+        OrientationPipeline p = new OrientationPipeline();
+        p.setDeclination(10);
+        p.onAccelerometer(GRAVITY_UPRIGHT);
+        p.onMagneticField(FIELD_NORTH);
+        assertTrue(p.update());
+        assertEquals(10, Math.toDegrees(p.getAzimuth()), 0.01);
+    }
+
+    @Test
+    public void readingsAreCopied() throws Exception {
+        OrientationPipeline p = new OrientationPipeline();
+        float[] values = GRAVITY_UPRIGHT.clone();
+        p.onAccelerometer(values);
+        p.onMagneticField(FIELD_NORTH);
+        // the framework reuses event.values; scribbling on them mustn't change our reading
+        values[1] = 0;
+        assertTrue(p.update());
+        assertEquals(0, Math.toDegrees(p.getPitch()), 0.01);
+    }
+
+    @Test
+    public void freeFallHasNoOrientation() throws Exception {
+        OrientationPipeline p = new OrientationPipeline();
+        p.onAccelerometer(new float[] { 0f, 0.1f, 0f });
+        p.onMagneticField(FIELD_NORTH);
+        assertFalse(p.update());
+    }
+
+    @Test
+    public void rotationVectorGivesHeading() throws Exception {
+        OrientationPipeline p = new OrientationPipeline();
+        p.setSource(OrientationPipeline.SOURCE_ROTATION_VECTOR);
+        assertFalse(p.hasReadings());
+        // upright facing north is a quarter turn about world x from flat; then 30 degrees east
+        float[] rv = uprightRotationVector(30);
+        p.onRotationVector(rv);
+        assertTrue(p.update());
+        assertEquals(30, Math.toDegrees(p.getAzimuth()), 0.01);
+        assertEquals(0, Math.toDegrees(p.getPitch()), 0.01);
+        // same again without the optional w component
+        p.onRotationVector(new float[] { rv[0], rv[1], rv[2] });
+        assertTrue(p.update());
+        assertEquals(30, Math.toDegrees(p.getAzimuth()), 0.01);
+    }
+
+    @Test
+    public void gyroTurnsTheHeadingAndCompassPullsItBack() throws Exception {
+        OrientationPipeline p = new OrientationPipeline();
+        p.setSource(OrientationPipeline.SOURCE_GYRO);
+        p.onAccelerometer(GRAVITY_UPRIGHT);
+        p.onMagneticField(FIELD_NORTH);
+        assertTrue(p.update());
+        assertEquals(0, Math.toDegrees(p.getAzimuth()), 0.01);
+
+        // turning right at 0.5 rad/s for 1s, about the phone's y axis (vertical when upright)
+        long t = 1000000000L;
+        float[] rate = { 0f, -0.5f, 0f };
+        for (int i = 0; i <= 50; i++) {
+            p.onGyroscope(rate, t + i * 20000000L);
+        }
+        assertTrue(p.update());
+        assertEquals(Math.toDegrees(0.5), Math.toDegrees(p.getAzimuth()), 0.1);
+
+        // the compass still says north, so the gyro's idea is slowly corrected
+        for (int i = 0; i < 500; i++) {
+            p.onMagneticField(FIELD_NORTH);
+        }
+        assertTrue(p.update());
+        assertEquals(0, Math.toDegrees(p.getAzimuth()), 0.1);
+    }
+
+    @Test
+    public void gameRotationVectorChangesAreApplied() throws Exception {
+        OrientationPipeline p = new OrientationPipeline();
+        p.setSource(OrientationPipeline.SOURCE_GAME_ROTATION_VECTOR);
+        p.onAccelerometer(GRAVITY_UPRIGHT);
+        p.onMagneticField(FIELD_NORTH);
+        // its own north is somewhere else entirely; only the change since the first reading counts
+        p.onRotationVector(uprightRotationVector(100));
+        p.onRotationVector(uprightRotationVector(120));
+        assertTrue(p.update());
+        assertEquals(20, Math.toDegrees(p.getAzimuth()), 0.01);
+    }
+
+    @Test
+    public void sensorEventsDontAllocate() throws Exception {
+        AllocationMeter meter = AllocationMeter.forCurrentThread();
+        final OrientationPipeline p = new OrientationPipeline();
+        final float[] gravity = GRAVITY_UPRIGHT.clone();
+        final float[] field = FIELD_NORTH.clone();
+        long allocated = meter.allocatedBy(new Runnable() {
+            @Override
+            public void run() {
+                runEvents(p, gravity, field, 10000);
+            }
+        });
+        assertEquals("bytes allocated by 10000 sensor events", 0, allocated);
+
+        final float[] rate = { 0.01f, -0.2f, 0.03f };
+        final float[] rv = uprightRotationVector(10);
+        for (int source = OrientationPipeline.SOURCE_ROTATION_VECTOR; source <= OrientationPipeline.SOURCE_GYRO; source++) {
+            p.setSource(source);
+            allocated = meter.allocatedBy(new Runnable() {
+                @Override
+                public void run() {
+                    runFusedEvents(p, gravity, field, rate, rv, 10000);
+                }
+            });
+            assertEquals("bytes allocated by 10000 events from source " + source, 0, allocated);
+        }
+
+        // and the whole path from the sensor thread to the UI thread
+        final HeadingProcessor heading = new HeadingProcessor();
+        final OrientationExchange exchange = new OrientationExchange();
+        final long[] seen = new long[1];
+        for (int source = OrientationPipeline.SOURCE_ACCEL_MAG; source <= OrientationPipeline.SOURCE_GYRO; source++) {
+            heading.reset(source, 50);
+            allocated = meter.allocatedBy(new Runnable() {
+                @Override
+                public void run() {
+                    seen[0] = runHeadingEvents(heading, exchange, gravity, field, rate, rv, 10000);
+                }
+            });
+            assertTrue(seen[0] > 20000);
+            assertEquals("bytes allocated by 10000 heading events from source " + source, 0, allocated);
+        }
+    }
+
+    // TYPE_ROTATION_VECTOR values { x, y, z, w } for the phone upright, camera facing the given azimuth
+    private static float[] uprightRotationVector(double azimuthDegrees) {
+        // about world z by -azimuth (turning east is clockwise from above), then about x by 90
+        double a = Math.toRadians(-azimuthDegrees) / 2;
+        double b = Math.toRadians(90) / 2;
+        double cw = Math.cos(a), cz = Math.sin(a);
+        double bw = Math.cos(b), bx = Math.sin(b);
+        // (cw + cz k) * (bw + bx i)
+        return new float[] { (float)(cw * bx), (float)(cz * bx), (float)(cz * bw), (float)(cw * bw) };
+    }
+
+    private static void runEvents(OrientationPipeline p, float[] gravity, float[] field, int events) {
+        for (int i = 0; i < events; i++) {
+            gravity[0] = (i % 7) * 0.1f;
+            field[0] = (i % 11) * 0.5f;
+            if ((i & 1) == 0) p.onAccelerometer(gravity); else p.onMagneticField(field);
+            p.update();
+            p.setDisplayRotation(i % 4);
+        }
+    }
+
+    private static void runFusedEvents(OrientationPipeline p, float[] gravity, float[] field, float[] rate, float[] rv, int events) {
+        for (int i = 0; i < events; i++) {
+            switch (i % 4) {
+                case 0: p.onAccelerometer(gravity); break;
+                case 1: p.onMagneticField(field); break;
+                case 2: p.onGyroscope(rate, 1000000000L + i * 5000000L); break;
+                default: p.onRotationVector(rv); break;
+            }
+            p.update();
+        }
+    }
+
+    // as onSensorChanged and a frame reading every other snapshot; returns the last sequence seen
+    private static long runHeadingEvents(HeadingProcessor heading, OrientationExchange exchange, float[] gravity,
+                                         float[] field, float[] rate, float[] rv, int events) {
+        long seen = 0;
+        for (int i = 0; i < events; i++) {
+            long timestamp = 1000000000L + i * 5000000L;
+            boolean published;
+            switch (i % 4) {
+                case 0:
+                    gravity[0] = (i % 7) * 0.1f;
+                    published = heading.onSensor(Sensor.TYPE_ACCELEROMETER, SensorManager.SENSOR_STATUS_ACCURACY_HIGH,
+                            gravity, timestamp, timestamp, exchange.writable());
+                    break;
+                case 1:
+                    field[0] = (i % 11) * 0.5f;
+                    published = heading.onSensor(Sensor.TYPE_MAGNETIC_FIELD, SensorManager.SENSOR_STATUS_ACCURACY_HIGH,
+                            field, timestamp, timestamp, exchange.writable());
+                    break;
+                case 2:
+                    published = heading.onSensor(Sensor.TYPE_GYROSCOPE, SensorManager.SENSOR_STATUS_ACCURACY_HIGH,
+                            rate, timestamp, timestamp, exchange.writable());
+                    break;
+                default:
+                    published = heading.onSensor(Sensor.TYPE_ROTATION_VECTOR, SensorManager.SENSOR_STATUS_ACCURACY_HIGH,
+                            rv, timestamp, timestamp, exchange.writable());
+                    break;
+            }
+            if (published) exchange.publish();
+            if ((i & 1) == 0) seen = exchange.latest().sequence;
+        }
+        return seen;
+    }
+}
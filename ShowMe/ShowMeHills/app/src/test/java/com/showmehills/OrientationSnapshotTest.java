@@ -0,0 +1,57 @@
+package com.showmehills;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class OrientationSnapshotTest {
+
+    @Test
+    public void directionWrapsWithTheAdjustment() throws Exception {
+        assertEquals(5, new OrientationSnapshot(355, 0, 0, 0, 0).direction(10), 1e-9);
+        assertEquals(350, new OrientationSnapshot(5, 0, 0, 0, 0).direction(-15), 1e-9);
+    }
+
+    @Test
+    public void ageIsFromTheSensorEvent() throws Exception {
+        OrientationSnapshot o = new OrientationSnapshot(0, 0, 0, 1000000000L, 1002000000L);
+        assertEquals(5000000L, o.age(1005000000L));
+    }
+
+    @Test
+    public void ageFallsBackWhenTheSensorClockDiffers() throws Exception {
+        // event timestamps from some other clock than elapsedRealtimeNanos
+        OrientationSnapshot o = new OrientationSnapshot(0, 0, 0, 90000000000000L, 1002000000L);
+        assertEquals(3000000L, o.age(1005000000L));
+    }
+
+    @Test
+    public void extrapolatesFromWhereTheSmoothingLeftIt() throws Exception {
+        // turning 10 degrees a second clockwise and tilting up, 50ms behind a reading taken at 1s
+        OrientationSnapshot o = new OrientationSnapshot(359, 0.1, 0, 1000000000L, 1002000000L, 10, 0.2, 50000000L, 20000000L);
+        assertEquals(359, o.direction(0), 1e-9);
+        assertEquals(0.5, o.direction(0, 1100000000L), 1e-9);
+        assertEquals(0.1 + 0.2 * 0.12, o.pitch(1100000000L), 1e-9);
+        // no further than MAX_PREDICTION_NANOS
+        double furthest = 10 * OrientationSnapshot.MAX_PREDICTION_NANOS / 1e9;
+        assertEquals((359 + furthest) % 360, o.direction(0, 60000000000L), 1e-9);
+        // and a snapshot that isn't turning stays put
+        OrientationSnapshot still = new OrientationSnapshot(123, 0.1, 0, 1000000000L, 1002000000L);
+        assertEquals(still.direction(2), still.direction(2, 1300000000L), 0);
+        assertEquals(still.pitch, still.pitch(1300000000L), 0);
+    }
+
+    @Test
+    public void latencyTracker() throws Exception {
+        LatencyTracker t = new LatencyTracker();
+        t.record(4000000L);
+        t.record(20000000L);
+        t.record(-1);
+        assertEquals(2, t.getCount());
+        assertEquals(20, t.getLastMillis(), 1e-9);
+        assertEquals(20, t.getMaxMillis(), 1e-9);
+        assertEquals(4.5, t.getAverageMillis(), 1e-9);
+        t.reset();
+        assertEquals(0, t.getCount());
+    }
+}
@@ -0,0 +1,49 @@
+package com.showmehills;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class OverlayFrameSchedulerTest {
+
+    // a 1080px wide screen showing 54 degrees
+    private static final float PX_PER_DEGREE = 20;
+
+    private static OrientationSnapshot at(double azimuth, double pitchDegrees, int variation) {
+        return new OrientationSnapshot(azimuth, Math.toRadians(pitchDegrees), variation, 0, 0);
+    }
+
+    @Test
+    public void subPixelTurnsAreSkipped() throws Exception {
+        OrientationSnapshot drawn = at(100, 0, 0);
+        assertFalse(OverlayFrameScheduler.moved(drawn, drawn, PX_PER_DEGREE, PX_PER_DEGREE));
+        assertFalse(OverlayFrameScheduler.moved(drawn, at(100.04, 0.04, 10), PX_PER_DEGREE, PX_PER_DEGREE));
+        assertTrue(OverlayFrameScheduler.moved(drawn, at(100.06, 0, 0), PX_PER_DEGREE, PX_PER_DEGREE));
+        assertTrue(OverlayFrameScheduler.moved(drawn, at(100, -0.06, 0), PX_PER_DEGREE, PX_PER_DEGREE));
+    }
+
+    @Test
+    public void turnsAcrossNorthAreSmall() throws Exception {
+        assertFalse(OverlayFrameScheduler.moved(at(359.99, 0, 0), at(0.02, 0, 0), PX_PER_DEGREE, PX_PER_DEGREE));
+        assertTrue(OverlayFrameScheduler.moved(at(359.9, 0, 0), at(0.1, 0, 0), PX_PER_DEGREE, PX_PER_DEGREE));
+    }
+
+    @Test
+    public void turningKeepsMovingBetweenReadings() throws Exception {
+        // 3 degrees a second is a pixel every 1/60s at 20px per degree
+        OrientationSnapshot turning = new OrientationSnapshot(100, 0, 0, 1000000000L, 1000000000L, 6, 0, 0, 0);
+        assertTrue(OverlayFrameScheduler.moved(turning, 1000000000L, turning, 1016666667L, PX_PER_DEGREE, PX_PER_DEGREE));
+        assertFalse(OverlayFrameScheduler.moved(turning, 1000000000L, turning, 1000000000L, PX_PER_DEGREE, PX_PER_DEGREE));
+        // until it's extrapolated as far as it will
+        long end = 1000000000L + OrientationSnapshot.MAX_PREDICTION_NANOS;
+        assertFalse(OverlayFrameScheduler.moved(turning, end, turning, end + 1016666667L, PX_PER_DEGREE, PX_PER_DEGREE));
+        // a new reading where the last one was predicted to be is no change
+        OrientationSnapshot next = new OrientationSnapshot(100.06, 0, 0, 1010000000L, 1010000000L, 6, 0, 0, 0);
+        assertFalse(OverlayFrameScheduler.moved(turning, 1016666667L, next, 1016666667L, PX_PER_DEGREE, PX_PER_DEGREE));
+    }
+
+    @Test
+    public void variationDialChanges() throws Exception {
+        assertTrue(OverlayFrameScheduler.moved(at(10, 0, 20), at(10, 0, 40), PX_PER_DEGREE, PX_PER_DEGREE));
+    }
+}
@@ -0,0 +1,40 @@
+package com.showmehills;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class OverlayLayersTest {
+
+    @Test
+    public void dialDashesAreWhereTheyWereDrawnEachFrame() throws Exception {
+        int scrwidth = 1080, scrheight = 1920;
+        int dashlength = scrheight / 10;
+        float[] dial = OverlayLayers.dial(scrwidth / 7, scrheight - (scrheight / 2.7f), dashlength);
+        assertEquals(OverlayLayers.DASHES * 4, dial.length);
+        int d = 0;
+        for (int i = 0; i < 360; i+=15)
+        {
+            assertEquals((scrwidth/7)+(dashlength/5*(float)Math.sin( Math.toRadians(i))), dial[d * 4], 0);
+            assertEquals(scrheight-(scrheight/2.7f)-(dashlength/5*(float)Math.cos( Math.toRadians(i))), dial[d * 4 + 1], 0);
+            assertEquals((scrwidth/7)+(dashlength*(float)Math.sin( Math.toRadians(i))), dial[d * 4 + 2], 0);
+            assertEquals(scrheight-(scrheight/2.7f)-(dashlength*(float)Math.cos( Math.toRadians(i))), dial[d * 4 + 3], 0);
+            d++;
+        }
+    }
+
+    @Test
+    public void dashesTurnGreenPastTheVariation() throws Exception {
+        for (int va = -5; va < 400; va++) {
+            // as the dial used to pick its colours
+            int red = 0;
+            boolean green = false;
+            for (int i = 0; i < 360; i+=15)
+            {
+                if (i > va) green = true;
+                if (!green) red++;
+            }
+            assertEquals("variation " + va, red, OverlayLayers.redDashes(va));
+        }
+    }
+}
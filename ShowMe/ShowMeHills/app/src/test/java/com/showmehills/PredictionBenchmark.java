@@ -0,0 +1,163 @@
+package com.showmehills;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+
+/*
+ * Replays a trace (see TraceRecorder) through HeadingProcessor and measures how far the heading the
+ * overlay would show is from where the phone was actually pointing when the frame reached the
+ * screen, both holding the last snapshot (as before) and extrapolating it to the frame (see
+ * OrientationSnapshot.direction(float, long)). Not a unit test; run the main method from the IDE
+ * (or java -cp ...):
+ *
+ *   PredictionBenchmark [trace.smht|-] [window] [source]
+ *
+ * With no trace, or "-", a minute of SyntheticTrace is used. The window is the compass smoothing
+ * (50 by default) and the source an OrientationPipeline.SOURCE_ constant. Where the phone was
+ * pointing is taken as the average of the unsmoothed readings either side of the time, which
+ * needs the readings after it, so frames are only scored once the whole trace has been replayed.
+ */
+public class PredictionBenchmark {
+
+    // a frame every vsync at 60Hz, reaching the screen one vsync later
+    static final long FRAME_NANOS = 16666667L;
+    static final long DISPLAY_DELAY_NANOS = 16666667L;
+    // the unsmoothed readings averaged either side of a time for where the phone was pointing then
+    static final long TRUTH_HALF_WINDOW_NANOS = 50000000L;
+
+    public static void main(String[] args) throws Exception {
+        String tracePath = args.length > 0 ? args[0] : "-";
+        int window = args.length > 1 ? Integer.parseInt(args[1]) : 50;
+        int source = args.length > 2 ? Integer.parseInt(args[2]) : OrientationPipeline.SOURCE_ACCEL_MAG;
+
+        byte[] trace;
+        if (tracePath.equals("-")) {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            SyntheticTrace.write(out, 60, 1);
+            trace = out.toByteArray();
+        } else {
+            trace = readFile(new File(tracePath));
+        }
+
+        Errors held = new Errors();
+        Errors predicted = new Errors();
+        measure(trace, source, window, held, predicted);
+        System.out.println(held.count + " frames, smoothing window " + window);
+        System.out.println("held:      " + held);
+        System.out.println("predicted: " + predicted);
+    }
+
+    // heading errors in degrees, one per frame
+    static class Errors {
+        private double[] mErrors = new double[1024];
+        int count;
+
+        void add(double error) {
+            if (count == mErrors.length) mErrors = Arrays.copyOf(mErrors, count * 2);
+            mErrors[count++] = Math.abs(error);
+        }
+
+        double rms() {
+            double sum = 0;
+            for (int i = 0; i < count; i++) sum += mErrors[i] * mErrors[i];
+            return Math.sqrt(sum / Math.max(1, count));
+        }
+
+        double percentile(double p) {
+            if (count == 0) return 0;
+            double[] sorted = Arrays.copyOf(mErrors, count);
+            Arrays.sort(sorted);
+            return sorted[Math.min(count - 1, (int)(p * count))];
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%.3f\u00B0 rms, %.3f\u00B0 median, %.3f\u00B0 95th percentile, %.3f\u00B0 max",
+                    rms(), percentile(0.5), percentile(0.95), percentile(1));
+        }
+    }
+
+    // what the phone was doing, and what the overlay knew, after each reading
+    private static class Recorder implements TraceReplayer.Listener {
+        final HeadingProcessor heading = new HeadingProcessor();
+        final ArrayList<OrientationSnapshot> snapshots = new ArrayList<>();
+        long[] rawTimes = new long[1024];
+        double[] rawAzimuths = new double[1024];
+        int raws;
+
+        Recorder(int source, int window) {
+            heading.reset(source, window);
+        }
+
+        @Override
+        public void onSensor(int type, int accuracy, float[] values, long timestamp) {
+            OrientationSnapshot o = new OrientationSnapshot(0, 0, 0, 0, 0);
+            if (!heading.onSensor(type, accuracy, values, timestamp, timestamp, o)) return;
+            snapshots.add(o);
+            if (raws == rawTimes.length) {
+                rawTimes = Arrays.copyOf(rawTimes, raws * 2);
+                rawAzimuths = Arrays.copyOf(rawAzimuths, raws * 2);
+            }
+            rawTimes[raws] = timestamp;
+            rawAzimuths[raws] = heading.getPipeline().getAzimuth();
+            raws++;
+        }
+
+        @Override
+        public void onQuery(long timestamp, double latitude, double longitude, double altitude, float accuracy,
+                            int minheight, int maxheight, int mindistance, int maxdistance, int limit) {
+        }
+    }
+
+    static void measure(byte[] trace, int source, int window, Errors held, Errors predicted) throws Exception {
+        Recorder r = new Recorder(source, window);
+        new TraceReplayer(new ByteArrayInputStream(trace)).replay(r, 0);
+        if (r.raws == 0) return;
+
+        // a frame at every vsync, leaving out the first second while the filters fill
+        long first = r.rawTimes[0] + 1000000000L;
+        long last = r.rawTimes[r.raws - 1] - TRUTH_HALF_WINDOW_NANOS - DISPLAY_DELAY_NANOS;
+        int latest = 0;
+        int from = 0, to = 0;
+        for (long vsync = first; vsync < last; vsync += FRAME_NANOS) {
+            // the snapshot the frame is drawn from, as published by then
+            while (latest + 1 < r.snapshots.size() && r.snapshots.get(latest + 1).eventTimestamp <= vsync) latest++;
+            OrientationSnapshot o = r.snapshots.get(latest);
+
+            // where the phone was pointing when the frame was shown
+            long shown = vsync + DISPLAY_DELAY_NANOS;
+            while (from < r.raws && r.rawTimes[from] < shown - TRUTH_HALF_WINDOW_NANOS) from++;
+            while (to < r.raws && r.rawTimes[to] <= shown + TRUTH_HALF_WINDOW_NANOS) to++;
+            if (to <= from) continue;
+            double sin = 0, cos = 0;
+            for (int i = from; i < to; i++) {
+                sin += Math.sin(r.rawAzimuths[i]);
+                cos += Math.cos(r.rawAzimuths[i]);
+            }
+            double actual = Math.toDegrees(Math.atan2(sin, cos));
+
+            held.add(MotionDetector.turn(o.direction(0), actual));
+            predicted.add(MotionDetector.turn(o.direction(0, shown), actual));
+        }
+    }
+
+    private static byte[] readFile(File file) throws Exception {
+        InputStream in = new FileInputStream(file);
+        try {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            byte[] buffer = new byte[64 * 1024];
+            int n;
+            while ((n = in.read(buffer)) > 0) {
+                out.write(buffer, 0, n);
+            }
+            return out.toByteArray();
+        } finally {
+            in.close();
+        }
+    }
+}
@@ -0,0 +1,56 @@
+package com.showmehills;
+
+import android.hardware.Sensor;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Random;
+
+/*
+ * Makes up a trace for tests and benchmarks: someone walking north from near Ben Nevis with the
+ * phone upright, slowly panning 30 degrees either side of north, with accelerometer and
+ * magnetometer readings at 50Hz each (plus some noise) and a hill query every five seconds.
+ * The same seed always gives the same trace.
+ */
+class SyntheticTrace {
+
+    static final long START = 1000000000L;
+    static final long SENSOR_PERIOD = 20000000L;   // 50Hz
+    static final long QUERY_PERIOD = 5000000000L;
+
+    // the heading the phone is pointing at, degrees east of north
+    static double azimuth(long timestamp) {
+        double t = (timestamp - START) / 1e9;
+        return 30 * Math.sin(2 * Math.PI * t / 20);
+    }
+
+    static void write(OutputStream out, int seconds, long seed) throws IOException {
+        TraceRecorder trace = new TraceRecorder(out);
+        Random random = new Random(seed);
+        float[] gravity = new float[3];
+        float[] field = new float[3];
+        long end = START + seconds * 1000000000L;
+        long nextQuery = START;
+        for (long t = START; t < end; t += SENSOR_PERIOD) {
+            if (t >= nextQuery) {
+                double walked = (t - START) / 1e9 * 1.5 / 1000;     // km
+                trace.query(t, 56.7969 + walked / 111.0, -5.0036, 1000, 5, 0, 9000, 0, 30, 300);
+                nextQuery += QUERY_PERIOD;
+            }
+            // upright, so gravity is along the phone's y axis
+            gravity[0] = (float)(random.nextGaussian() * 0.05);
+            gravity[1] = 9.81f + (float)(random.nextGaussian() * 0.05);
+            gravity[2] = (float)(random.nextGaussian() * 0.05);
+            trace.sensor(Sensor.TYPE_ACCELEROMETER, 3, gravity, t);
+
+            // 20uT horizontal towards north and 40uT down, seen from a phone facing the azimuth
+            double a = Math.toRadians(azimuth(t + SENSOR_PERIOD / 2));
+            field[0] = (float)(-20 * Math.sin(a) + random.nextGaussian() * 0.3);
+            field[1] = (float)(-40 + random.nextGaussian() * 0.3);
+            field[2] = (float)(-20 * Math.cos(a) + random.nextGaussian() * 0.3);
+            trace.sensor(Sensor.TYPE_MAGNETIC_FIELD, 3, field, t + SENSOR_PERIOD / 2);
+        }
+        trace.close();
+        if (trace.getError() != null) throw trace.getError();
+    }
+}
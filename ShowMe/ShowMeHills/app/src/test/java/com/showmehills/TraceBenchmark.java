@@ -0,0 +1,117 @@
+package com.showmehills;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.InputStream;
+
+/*
+ * Replays a trace (see TraceRecorder) through the camera view's sensor and query code and reports
+ * the time taken per sensor event and per query. Not a unit test; run the main method from the
+ * IDE (or java -cp ...):
+ *
+ *   TraceBenchmark [trace.smht|-] [hills.peaks] [speed]
+ *
+ * With no trace, or "-", a minute of SyntheticTrace is used. Queries are only run when a peak
+ * store is given. A speed of 0 (the default) replays as fast as possible, for throughput; 1
+ * replays in real time, for latency as the phone would see it. HillProjector logs each query
+ * through android.util.Log, which returnDefaultValues in build.gradle turns into a no-op off
+ * the device.
+ */
+public class TraceBenchmark {
+
+    public static void main(String[] args) throws Exception {
+        String tracePath = args.length > 0 ? args[0] : "-";
+        String peaksPath = args.length > 1 ? args[1] : null;
+        double speed = args.length > 2 ? Double.parseDouble(args[2]) : 0;
+
+        byte[] trace;
+        if (tracePath.equals("-")) {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            SyntheticTrace.write(out, 60, 1);
+            trace = out.toByteArray();
+        } else {
+            trace = readFile(new File(tracePath));
+        }
+        IHillStore store = (peaksPath != null) ? MappedHillStore.open(new File(peaksPath)) : null;
+
+        // the first run warms up the JIT; report the second
+        run(trace, store, speed);
+        Timings t = run(trace, store, speed);
+
+        System.out.println(t.events + " sensor events, " + t.snapshots + " orientations, " + t.queries + " queries in "
+                + t.wallMillis + "ms");
+        System.out.println(String.format("sensor: %.0f ns/event avg, %.0f ns max, %.0f events/s",
+                (double)t.eventNanos / t.events, (double)t.maxEventNanos, t.events * 1000.0 / Math.max(1, t.wallMillis)));
+        if (t.queries > 0) {
+            System.out.println(String.format("query: %.2f ms avg, %.2f ms max, %d hills last time",
+                    t.queryNanos / 1e6 / t.queries, t.maxQueryNanos / 1e6, t.lastHills));
+        }
+    }
+
+    private static class Timings implements TraceReplayer.Listener {
+        final HeadingProcessor heading = new HeadingProcessor();
+        final OrientationExchange orientation = new OrientationExchange();
+        final HillProjector projector;
+        long events, snapshots, queries;
+        long eventNanos, maxEventNanos;
+        long queryNanos, maxQueryNanos;
+        int lastHills;
+        long wallMillis;
+
+        Timings(IHillStore store) {
+            heading.reset(OrientationPipeline.SOURCE_ACCEL_MAG, 50);
+            projector = (store != null) ? new HillProjector(store) : null;
+        }
+
+        @Override
+        public void onSensor(int type, int accuracy, float[] values, long timestamp) {
+            long start = System.nanoTime();
+            boolean published = heading.onSensor(type, accuracy, values, timestamp, timestamp, orientation.writable());
+            if (published) orientation.publish();
+            long took = System.nanoTime() - start;
+            events++;
+            eventNanos += took;
+            if (took > maxEventNanos) maxEventNanos = took;
+            if (published) snapshots++;
+        }
+
+        @Override
+        public void onQuery(long timestamp, double latitude, double longitude, double altitude, float accuracy,
+                            int minheight, int maxheight, int mindistance, int maxdistance, int limit) {
+            if (projector == null) return;
+            long start = System.nanoTime();
+            HillSet hills = projector.project(latitude, longitude, altitude, minheight, maxheight, mindistance, maxdistance,
+                    limit, HillRanking.BY_DISTANCE);
+            long took = System.nanoTime() - start;
+            queries++;
+            queryNanos += took;
+            if (took > maxQueryNanos) maxQueryNanos = took;
+            lastHills = hills.size();
+        }
+    }
+
+    private static Timings run(byte[] trace, IHillStore store, double speed) throws Exception {
+        Timings t = new Timings(store);
+        long start = System.nanoTime();
+        new TraceReplayer(new ByteArrayInputStream(trace)).replay(t, speed);
+        t.wallMillis = (System.nanoTime() - start) / 1000000;
+        return t;
+    }
+
+    private static byte[] readFile(File file) throws Exception {
+        InputStream in = new FileInputStream(file);
+        try {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            byte[] buffer = new byte[64 * 1024];
+            int n;
+            while ((n = in.read(buffer)) > 0) {
+                out.write(buffer, 0, n);
+            }
+            return out.toByteArray();
+        } finally {
+            in.close();
+        }
+    }
+}
@@ -0,0 +1,104 @@
+package com.showmehills;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+
+import static org.junit.Assert.*;
+
+public class TraceReplayTest {
+
+    private static byte[] synthetic(int seconds) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        SyntheticTrace.write(out, seconds, 42);
+        return out.toByteArray();
+    }
+
+    // runs a trace through a fresh HeadingProcessor and collects what it produces
+    private static class Collector implements TraceReplayer.Listener {
+        final HeadingProcessor heading = new HeadingProcessor();
+        final ArrayList<OrientationSnapshot> snapshots = new ArrayList<>();
+        int queries;
+
+        Collector() {
+            heading.reset(OrientationPipeline.SOURCE_ACCEL_MAG, 10);
+        }
+
+        @Override
+        public void onSensor(int type, int accuracy, float[] values, long timestamp) {
+            OrientationSnapshot o = new OrientationSnapshot(0, 0, 0, 0, 0);
+            if (heading.onSensor(type, accuracy, values, timestamp, timestamp, o)) snapshots.add(o);
+        }
+
+        @Override
+        public void onQuery(long timestamp, double latitude, double longitude, double altitude, float accuracy,
+                            int minheight, int maxheight, int mindistance, int maxdistance, int limit) {
+            queries++;
+        }
+    }
+
+    @Test
+    public void replayIsRepeatable() throws Exception {
+        byte[] trace = synthetic(10);
+        Collector first = new Collector();
+        Collector second = new Collector();
+        assertEquals(1002, new TraceReplayer(new ByteArrayInputStream(trace)).replay(first, 0));
+        assertEquals(1002, new TraceReplayer(new ByteArrayInputStream(trace)).replay(second, 0));
+        assertEquals(2, first.queries);
+        assertEquals(first.snapshots.size(), second.snapshots.size());
+        for (int i = 0; i < first.snapshots.size(); i++) {
+            assertEquals(first.snapshots.get(i).azimuth, second.snapshots.get(i).azimuth, 0);
+            assertEquals(first.snapshots.get(i).pitch, second.snapshots.get(i).pitch, 0);
+        }
+        // and recording again gives the same bytes
+        assertTrue(Arrays.equals(trace, synthetic(10)));
+    }
+
+    @Test
+    public void replayedHeadingFollowsThePhone() throws Exception {
+        Collector c = new Collector();
+        // ends a quarter of the way through the pan, looking 30 degrees east
+        new TraceReplayer(new ByteArrayInputStream(synthetic(5))).replay(c, 0);
+        OrientationSnapshot last = c.snapshots.get(c.snapshots.size() - 1);
+        // the ten reading window lags the pan by about a tenth of a second
+        double expected = SyntheticTrace.azimuth(last.eventTimestamp - 100000000L);
+        assertEquals(0, MotionDetector.turn(last.azimuth, expected), 1.0);
+    }
+
+    @Test
+    public void extrapolatingMakesUpForTheSmoothingLag() throws Exception {
+        // the default fifty reading window is a quarter of a second behind
+        PredictionBenchmark.Errors held = new PredictionBenchmark.Errors();
+        PredictionBenchmark.Errors predicted = new PredictionBenchmark.Errors();
+        PredictionBenchmark.measure(synthetic(20), OrientationPipeline.SOURCE_ACCEL_MAG, 50, held, predicted);
+        assertTrue(held.count > 1000);
+        assertTrue(predicted + " against " + held, predicted.rms() < held.rms() / 2);
+    }
+
+    @Test
+    public void truncatedTraceStopsAtTheLastWholeRecord() throws Exception {
+        byte[] trace = synthetic(1);
+        Collector c = new Collector();
+        long records = new TraceReplayer(new ByteArrayInputStream(Arrays.copyOf(trace, trace.length - 5))).replay(c, 0);
+        assertEquals(100, records);
+    }
+
+    @Test(expected = IOException.class)
+    public void notATrace() throws Exception {
+        new TraceReplayer(new ByteArrayInputStream(new byte[] { 1, 2, 3, 4, 5, 6, 7, 8 }));
+    }
+
+    @Test
+    public void realTimeReplayKeepsToTheTimestamps() throws Exception {
+        // a second of trace at ten times speed
+        byte[] trace = synthetic(1);
+        long start = System.nanoTime();
+        new TraceReplayer(new ByteArrayInputStream(trace)).replay(new Collector(), 10);
+        long took = (System.nanoTime() - start) / 1000000;
+        assertTrue("took " + took + "ms", took >= 90);
+    }
+}